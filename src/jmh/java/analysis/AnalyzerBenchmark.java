@@ -0,0 +1,177 @@
+package analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.util.Version;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the analysis chains used by the examples.
+ * <p>
+ * Every operation runs one document of the corpus through the analyzer. The
+ * {@code tokens} counter is reported as tokens per second next to the ops/sec score.
+ * Run with {@code -prof gc} for allocation: {@code gc.alloc.rate.norm} is bytes per
+ * operation, divide it by tokens per operation ({@code tokens} / score) for bytes per
+ * token. For {@code PER_FIELD} an operation analyzes the document once for every field
+ * that {@link AnalyzerTest#addAnalyser} configures.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyzerBenchmark {
+
+  private static final String[] PER_FIELD_FIELDS = {"author", "email", "specials", "specials_stop",
+      "specials_synonyms", "specials_stem", "specials_multiple"};
+  private static final String[] SINGLE_FIELD = {"body"};
+
+  private static final String[] WORDS = {"green", "elephant", "is", "my", "favourite", "kitty", "cat", "hi",
+      "its", "a", "big", "day", "for", "us", "to", "stay", "together", "girls", "boys", "lucky", "the",
+      "steming", "word", "lucene", "browny", "brother", "friend", "not", "your", "return", "class",
+      "finally", "throws", "13e12exoxoe45e66", "kitty@cat.com", "indexing", "searcher", "queries",
+      "running", "jumped", "analysis", "tokenizer", "exercise"};
+
+  public enum AnalyzerType {
+    ECHARACTER, STEMMER, SYNONYM, MULTIPLE, PER_FIELD;
+
+    Analyzer create() {
+      switch (this) {
+        case ECHARACTER:
+          return new ECharacterAnalyser(Version.LUCENE_6_6_0);
+        case STEMMER:
+          return new StemmerAnalyzer();
+        case SYNONYM:
+          return new SynonymAnalyzer();
+        case MULTIPLE:
+          return new MultipleAnalyzer();
+        default:
+          return new AnalyzerTest().getAnalyzer();
+      }
+    }
+  }
+
+  /**
+   * Short fields are names and titles of a few words, long ones are summaries of a
+   * couple of hundred words.
+   */
+  public enum Corpus {
+    SHORT(2, 6), LONG(150, 300);
+
+    private final int minWords;
+    private final int maxWords;
+
+    Corpus(int minWords, int maxWords) {
+      this.minWords = minWords;
+      this.maxWords = maxWords;
+    }
+
+    String[] generate(int docs, long seed) {
+      Random random = new Random(seed);
+      String[] texts = new String[docs];
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < docs; i++) {
+        text.setLength(0);
+        int words = minWords + random.nextInt(maxWords - minWords + 1);
+        for (int w = 0; w < words; w++) {
+          if (w > 0) {
+            text.append(random.nextInt(12) == 0 ? ". " : " ");
+          }
+          String word = WORDS[random.nextInt(WORDS.length)];
+          text.append(random.nextInt(8) == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+        }
+        texts[i] = text.toString();
+      }
+      return texts;
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Chain {
+    @Param
+    public AnalyzerType analyzer;
+
+    @Param
+    public Corpus corpus;
+
+    @Param("1000")
+    public int docs;
+
+    Analyzer instance;
+    String[] fields;
+    String[] texts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      instance = analyzer.create();
+      fields = analyzer == AnalyzerType.PER_FIELD ? PER_FIELD_FIELDS : SINGLE_FIELD;
+      texts = corpus.generate(docs, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      instance.close();
+    }
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class TokenCounter {
+    public long tokens;
+
+    int next;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      tokens = 0;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public long analyze(Chain chain, TokenCounter counter) throws IOException {
+    return analyzeNext(chain, counter);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public long analyzeConcurrent(Chain chain, TokenCounter counter) throws IOException {
+    return analyzeNext(chain, counter);
+  }
+
+  private static long analyzeNext(Chain chain, TokenCounter counter) throws IOException {
+    String text = chain.texts[counter.next];
+    counter.next = counter.next + 1 == chain.texts.length ? 0 : counter.next + 1;
+    long tokens = 0;
+    for (String field : chain.fields) {
+      // the analyzer reuses its components per thread, as IndexWriter does
+      try (TokenStream stream = chain.instance.tokenStream(field, text)) {
+        stream.reset();
+        while (stream.incrementToken()) {
+          tokens++;
+        }
+        stream.end();
+      }
+    }
+    counter.tokens += tokens;
+    return tokens;
+  }
+}
@@ -0,0 +1,135 @@
+package analysis;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ECharacterTokenizer} against {@link DelimiterTokenizer} splitting on the same
+ * character, plus the table driven tokenizer on the full SKU separator set. Every
+ * operation tokenizes one field value; run with {@code -prof gc} to compare allocation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DelimiterTokenizerBenchmark {
+
+  public enum TokenizerType {
+    ECHARACTER, DELIMITER_E, DELIMITER_SKU;
+
+    Tokenizer create() {
+      switch (this) {
+        case ECHARACTER:
+          return new ECharacterTokenizer();
+        case DELIMITER_E:
+          return new DelimiterTokenizer(DelimiterSet.E);
+        default:
+          return new DelimiterTokenizer(DelimiterSet.SKU_SEPARATORS);
+      }
+    }
+  }
+
+  public enum Field {
+    /**
+     * Product codes like {@code 13e12exoxoe45e66} or {@code AB-4821e-X9/77}.
+     */
+    SKU {
+      @Override
+      String generate(Random random) {
+        StringBuilder sku = new StringBuilder();
+        int parts = 2 + random.nextInt(4);
+        for (int p = 0; p < parts; p++) {
+          if (p > 0) {
+            sku.append(random.nextBoolean() ? 'e' : "-/._".charAt(random.nextInt(4)));
+          }
+          appendRun(sku, random, 2 + random.nextInt(5));
+        }
+        return sku.toString();
+      }
+    },
+    /**
+     * Serial numbers, long runs of digits and upper case letters split by the odd {@code e}.
+     */
+    SERIAL {
+      @Override
+      String generate(Random random) {
+        StringBuilder serial = new StringBuilder();
+        int parts = 3 + random.nextInt(3);
+        for (int p = 0; p < parts; p++) {
+          if (p > 0) {
+            serial.append(p % 2 == 0 ? 'e' : '-');
+          }
+          appendRun(serial, random, 6 + random.nextInt(10));
+        }
+        return serial.toString();
+      }
+    };
+
+    private static final String ALPHABET = "0123456789ABCDFGHJKLMNPQRSTVWXYZ";
+
+    abstract String generate(Random random);
+
+    static void appendRun(StringBuilder text, Random random, int length) {
+      for (int i = 0; i < length; i++) {
+        text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+      }
+    }
+  }
+
+  @Param
+  public TokenizerType tokenizer;
+
+  @Param
+  public Field field;
+
+  @Param("1000")
+  public int values;
+
+  private Tokenizer instance;
+  private String[] texts;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    instance = tokenizer.create();
+    Random random = new Random(42);
+    texts = new String[values];
+    for (int i = 0; i < values; i++) {
+      texts[i] = field.generate(random);
+    }
+  }
+
+  @Benchmark
+  public int tokenize() throws IOException {
+    String text = texts[next];
+    next = next + 1 == texts.length ? 0 : next + 1;
+    // closing the tokenizer closes its reader, the same small allocation for every tokenizer
+    instance.setReader(new StringReader(text));
+    instance.reset();
+    int tokens = 0;
+    while (instance.incrementToken()) {
+      tokens++;
+    }
+    instance.end();
+    instance.close();
+    return tokens;
+  }
+}
@@ -0,0 +1,74 @@
+package analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Process wide registry of long-lived analyzers, one instance per name.
+ * <p>
+ * An analyzer is thread-safe and keeps the token stream components it built for each
+ * thread, together with their synonym maps and stemmers; creating one per query throws
+ * them away and builds them again on the next. Query parsers and other short-lived users
+ * should take their analyzer from here instead.
+ */
+public final class AnalyzerRegistry implements Closeable {
+
+  public static final String SYNONYMS = "synonyms";
+  public static final String STEMMER = "stemmer";
+
+  private static final AnalyzerRegistry INSTANCE = new AnalyzerRegistry();
+
+  private final ConcurrentMap<String, Analyzer> analyzers = new ConcurrentHashMap<>();
+
+  public static AnalyzerRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the analyzer registered under the name, creating it on first use.
+   *
+   * @throws ClassCastException if the name was registered with another analyzer type
+   */
+  @SuppressWarnings("unchecked")
+  public <A extends Analyzer> A get(String name, Supplier<A> factory) {
+    Analyzer analyzer = analyzers.get(name);
+    if (analyzer == null) {
+      analyzer = analyzers.computeIfAbsent(name, key -> factory.get());
+    }
+    return (A) analyzer;
+  }
+
+  /**
+   * The {@link SynonymAnalyzer} with the default synonyms.
+   */
+  public SynonymAnalyzer synonyms() {
+    return get(SYNONYMS, SynonymAnalyzer::new);
+  }
+
+  public StemmerAnalyzer stemmer() {
+    return get(STEMMER, StemmerAnalyzer::new);
+  }
+
+  public Set<String> getNames() {
+    return Collections.unmodifiableSet(analyzers.keySet());
+  }
+
+  /**
+   * Closes and removes all analyzers; later calls to {@link #get} create new ones.
+   */
+  @Override
+  public void close() {
+    for (String name : analyzers.keySet()) {
+      Analyzer analyzer = analyzers.remove(name);
+      if (analyzer != null) {
+        analyzer.close();
+      }
+    }
+  }
+}
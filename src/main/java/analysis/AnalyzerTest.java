@@ -1,12 +1,14 @@
 package analysis;
 
+import indexing.CodecType;
+import indexing.DirectoryType;
+import searching.HitFetcher;
+import searching.ParsedQueryCache;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.core.StopAnalyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.codecs.Codec;
-import org.apache.lucene.codecs.simpletext.SimpleTextCodec;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.TextField;
@@ -16,15 +18,11 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
 
 import java.io.IOException;
@@ -36,15 +34,12 @@ import java.util.Map;
 public class AnalyzerTest {
   private final static Version version = Version.LUCENE_6_6_0;
   private static final String INDEX_DIR = "/tmp/luceneidx_analyzer_test";
-  private boolean simpleTextCodec = true;
+  private CodecType codecType = CodecType.fromSystemProperty();
+  private final HitFetcher displayFields = new HitFetcher("author", "email", "specials");
+  private final ParsedQueryCache stemmedQueries = new ParsedQueryCache(AnalyzerRegistry.getInstance().stemmer(), 100);
 
-  public static Directory getDirectory(String name) throws IOException {
-    if (name.equals("ram")) {
-      return new RAMDirectory();
-    } else if (name.equals("dir")) {
-      return FSDirectory.open(Paths.get(INDEX_DIR));
-    }
-    return null;
+  public static Directory getDirectory(DirectoryType type) throws IOException {
+    return type.open(Paths.get(INDEX_DIR));
   }
 
   public static void main(String args[]) throws Exception {
@@ -83,22 +78,20 @@ public class AnalyzerTest {
 
   }
 
-  public IndexWriterConfig getWriterConfig() {
+  public PerFieldAnalyzerWrapper getAnalyzer() {
     Map<String, Analyzer> analyzerPerField = new HashMap<String, Analyzer>();
     addAnalyser(analyzerPerField);
-    PerFieldAnalyzerWrapper analyzer = new PerFieldAnalyzerWrapper(
-        new StandardAnalyzer(), analyzerPerField);
-    IndexWriterConfig config = new IndexWriterConfig(analyzer)
+    return new PerFieldAnalyzerWrapper(new StandardAnalyzer(), analyzerPerField);
+  }
+
+  public IndexWriterConfig getWriterConfig() {
+    IndexWriterConfig config = new IndexWriterConfig(getAnalyzer())
         .setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-    if (simpleTextCodec) {
-      Codec textCodec = new SimpleTextCodec();
-      config.setCodec(textCodec);
-    }
-    return config;
+    return codecType.apply(config);
   }
 
   public void testAnalyzer() throws IOException, ParseException {
-    Directory index = getDirectory("dir");
+    Directory index = getDirectory(DirectoryType.MMAP);
     IndexWriterConfig config = getWriterConfig();
     initDocs(index, config);
     int limit = 20;
@@ -129,9 +122,10 @@ public class AnalyzerTest {
       query = new TermQuery(new Term("specials_multiple", "lucky"));
       printSearchResults(limit, query, reader);
 //
-      query = new QueryParser("specials_stem", new StemmerAnalyzer()).parse("specials_stem:day");
+      query = stemmedQueries.parse("specials_stem", "specials_stem:day");
       printSearchResults(limit, query, reader);
     }
+    System.out.println(stemmedQueries);
 
     index.close();
 
@@ -145,8 +139,8 @@ public class AnalyzerTest {
 
     System.out.println(docs.totalHits + " found for query: " + query);
 
-    for (final ScoreDoc scoreDoc : docs.scoreDocs) {
-      System.out.println(searcher.doc(scoreDoc.doc));
+    for (final HitFetcher.Hit hit : displayFields.fetch(searcher, docs.scoreDocs)) {
+      System.out.println(hit);
     }
   }
 }
@@ -0,0 +1,69 @@
+package analysis;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of delimiter code points with a constant time lookup.
+ * <p>
+ * Characters of the Basic Multilingual Plane are looked up in a 64K bit table (8 KB), so
+ * the common case is one array read and a mask. Supplementary code points are kept in a
+ * sorted array and binary searched.
+ */
+public final class DelimiterSet {
+
+  /**
+   * The single delimiter {@link ECharacterTokenizer} splits on.
+   */
+  public static final DelimiterSet E = of("e");
+
+  /**
+   * Separators used in SKUs and serial numbers, such as {@code AB-1200/X.7}.
+   */
+  public static final DelimiterSet SKU_SEPARATORS = of("-_/.:#, \t\r\n");
+
+  private final long[] bmp = new long[(Character.MAX_VALUE + 1) >>> 6];
+  private final int[] supplementary;
+
+  private DelimiterSet(int[] codePoints) {
+    int[] supplementary = new int[codePoints.length];
+    int count = 0;
+    for (int codePoint : codePoints) {
+      if (codePoint < 0 || codePoint > Character.MAX_CODE_POINT) {
+        throw new IllegalArgumentException("Invalid code point: " + codePoint);
+      }
+      if (codePoint <= Character.MAX_VALUE) {
+        bmp[codePoint >>> 6] |= 1L << codePoint;
+      } else {
+        supplementary[count++] = codePoint;
+      }
+    }
+    supplementary = Arrays.copyOf(supplementary, count);
+    Arrays.sort(supplementary);
+    this.supplementary = supplementary;
+  }
+
+  public static DelimiterSet of(int... codePoints) {
+    return new DelimiterSet(codePoints);
+  }
+
+  /**
+   * Every code point of the string is a delimiter.
+   */
+  public static DelimiterSet of(String delimiters) {
+    return new DelimiterSet(delimiters.codePoints().toArray());
+  }
+
+  /**
+   * Lookup for a BMP character, the fast path of {@link #isDelimiter(int)}.
+   */
+  public boolean isDelimiter(char c) {
+    return (bmp[c >>> 6] & (1L << c)) != 0;
+  }
+
+  public boolean isDelimiter(int codePoint) {
+    if (codePoint <= Character.MAX_VALUE) {
+      return (bmp[codePoint >>> 6] & (1L << codePoint)) != 0;
+    }
+    return supplementary.length != 0 && Arrays.binarySearch(supplementary, codePoint) >= 0;
+  }
+}
@@ -0,0 +1,150 @@
+package analysis;
+
+import org.apache.lucene.analysis.CharacterUtils;
+import org.apache.lucene.analysis.CharacterUtils.CharacterBuffer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.util.AttributeFactory;
+
+import java.io.IOException;
+
+/**
+ * Splits text on the code points of a {@link DelimiterSet}; tokens are the maximal runs
+ * of other characters, like a {@link org.apache.lucene.analysis.util.CharTokenizer}.
+ * <p>
+ * Instead of a virtual {@code isTokenChar} call per code point, characters are classified
+ * with the set's lookup table, BMP characters without decoding a code point first. Runs
+ * of token characters are copied from the read buffer into the term buffer in one go;
+ * the term buffer only grows for tokens longer than any seen before, so tokenizing does
+ * not allocate per token.
+ */
+public final class DelimiterTokenizer extends Tokenizer {
+
+  public static final int DEFAULT_MAX_TOKEN_LENGTH = 255;
+  private static final int IO_BUFFER_SIZE = 4096;
+
+  private final DelimiterSet delimiters;
+  private final int maxTokenLength;
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+  private final CharacterBuffer ioBuffer = CharacterUtils.newCharacterBuffer(IO_BUFFER_SIZE);
+
+  private int offset = 0;
+  private int bufferIndex = 0;
+  private int dataLen = 0;
+  private int finalOffset = 0;
+
+  public DelimiterTokenizer(DelimiterSet delimiters) {
+    this(DEFAULT_TOKEN_ATTRIBUTE_FACTORY, delimiters, DEFAULT_MAX_TOKEN_LENGTH);
+  }
+
+  public DelimiterTokenizer(AttributeFactory factory, DelimiterSet delimiters, int maxTokenLength) {
+    super(factory);
+    if (maxTokenLength <= 0) {
+      throw new IllegalArgumentException("maxTokenLength must be greater than 0, got " + maxTokenLength);
+    }
+    this.delimiters = delimiters;
+    this.maxTokenLength = maxTokenLength;
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    clearAttributes();
+    int length = 0;
+    int start = -1;
+    int end = -1;
+    char[] buffer = termAtt.buffer();
+    while (true) {
+      if (bufferIndex >= dataLen) {
+        offset += dataLen;
+        CharacterUtils.fill(ioBuffer, input);
+        if (ioBuffer.getLength() == 0) {
+          dataLen = 0;
+          if (length > 0) {
+            break;
+          }
+          finalOffset = correctOffset(offset);
+          return false;
+        }
+        dataLen = ioBuffer.getLength();
+        bufferIndex = 0;
+      }
+      char[] chars = ioBuffer.getBuffer();
+      char c = chars[bufferIndex];
+      if (!Character.isSurrogate(c) && !delimiters.isDelimiter(c)) {
+        // fast path: find the run of BMP token chars in the io buffer and copy it at once
+        if (length == 0) {
+          start = offset + bufferIndex;
+          end = start;
+        }
+        int limit = Math.min(dataLen, bufferIndex + maxTokenLength - length);
+        int runEnd = bufferIndex + 1;
+        while (runEnd < limit && !Character.isSurrogate(chars[runEnd]) && !delimiters.isDelimiter(chars[runEnd])) {
+          runEnd++;
+        }
+        int runLength = runEnd - bufferIndex;
+        if (length + runLength >= buffer.length) {
+          buffer = termAtt.resizeBuffer(length + runLength + 1);
+        }
+        System.arraycopy(chars, bufferIndex, buffer, length, runLength);
+        length += runLength;
+        end += runLength;
+        bufferIndex = runEnd;
+        if (length >= maxTokenLength) {
+          break;
+        }
+        continue;
+      }
+
+      int charCount = 1;
+      boolean delimiter;
+      if (Character.isSurrogate(c)) {
+        int codePoint = Character.codePointAt(chars, bufferIndex, dataLen);
+        charCount = Character.charCount(codePoint);
+        delimiter = delimiters.isDelimiter(codePoint);
+      } else {
+        delimiter = true;
+      }
+      bufferIndex += charCount;
+
+      if (!delimiter) {
+        if (length == 0) {
+          start = offset + bufferIndex - charCount;
+          end = start;
+        } else if (length >= buffer.length - 1) {
+          buffer = termAtt.resizeBuffer(2 + length);
+        }
+        end += charCount;
+        buffer[length++] = c;
+        if (charCount == 2) {
+          buffer[length++] = chars[bufferIndex - 1];
+        }
+        if (length >= maxTokenLength) {
+          break;
+        }
+      } else if (length > 0) {
+        break;
+      }
+    }
+    termAtt.setLength(length);
+    offsetAtt.setOffset(correctOffset(start), finalOffset = correctOffset(end));
+    return true;
+  }
+
+  @Override
+  public void end() throws IOException {
+    super.end();
+    offsetAtt.setOffset(finalOffset, finalOffset);
+  }
+
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    bufferIndex = 0;
+    offset = 0;
+    dataLen = 0;
+    finalOffset = 0;
+    ioBuffer.reset();
+  }
+}
@@ -16,7 +16,7 @@ public class ECharacterAnalyser extends Analyzer {
 
   @Override
   protected TokenStreamComponents createComponents(String fieldName) {
-    Tokenizer tokenizer = new ECharacterTokenizer();
+    Tokenizer tokenizer = new DelimiterTokenizer(DelimiterSet.E);
     TokenStream filter = new LowerCaseFilter(tokenizer);
 //  TokenStream stream = new LowerCaseFilter(new ECharacterTokenizer()) ;
 
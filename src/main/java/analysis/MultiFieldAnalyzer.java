@@ -0,0 +1,309 @@
+package analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Attribute;
+import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.CloseableThreadLocal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Analyzes the same text into several fields while tokenizing it only once.
+ * <p>
+ * Every field starts from the tokens of a shared base analyzer, such as a
+ * {@link org.apache.lucene.analysis.core.WhitespaceAnalyzer}, and runs them through its
+ * own filter chain: a stop filter for one field, a stemmer for the next, synonyms for a
+ * third. The first field of a document analyzes the text with the base analyzer and
+ * copies the tokens; the following fields with the same text replay the copied tokens
+ * into their filters instead of tokenizing again. Fields are analyzed one after the
+ * other on the indexing thread, so each thread keeps the tokens of the last text only.
+ * <p>
+ * Use it for the copy fields in a {@link org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper};
+ * the saving grows with the number of fields fed the same value and the cost of the base
+ * analysis. The base analyzer must use the default attribute factory.
+ */
+public class MultiFieldAnalyzer extends Analyzer {
+
+  /**
+   * The filters of one field, applied to the shared base tokens.
+   */
+  public interface FilterChain {
+    TokenStream wrap(TokenStream source);
+  }
+
+  /**
+   * The filters of a field that uses synonyms; called with the current map whenever the
+   * field's components are built, so reloaded synonyms are picked up.
+   */
+  public interface SynonymChain {
+    TokenStream wrap(TokenStream source, SynonymMap synonyms);
+  }
+
+  // the attributes of PackedTokenAttributeImpl, which most tokenizers produce
+  private static final Set<Class<? extends Attribute>> PACKED_ATTRIBUTES = new HashSet<>(Arrays.asList(
+      CharTermAttribute.class, TermToBytesRefAttribute.class, OffsetAttribute.class,
+      PositionIncrementAttribute.class, PositionLengthAttribute.class, TypeAttribute.class));
+
+  private final Analyzer base;
+  private final List<Class<? extends Attribute>> baseAttributes = new ArrayList<>();
+  private final boolean packed;
+  private final Map<String, FilterChain> chains = new HashMap<>();
+  private final Map<String, SharedSynonymMap> synonyms = new HashMap<>();
+  private final Map<String, SynonymChain> synonymChains = new HashMap<>();
+  private final LongAdder analyses = new LongAdder();
+  private final LongAdder replays = new LongAdder();
+  private final CloseableThreadLocal<TokenCache> caches = new CloseableThreadLocal<TokenCache>() {
+    @Override
+    protected TokenCache initialValue() {
+      return new TokenCache();
+    }
+  };
+
+  public MultiFieldAnalyzer(Analyzer base) {
+    super(SharedSynonymMap.PER_FIELD_REUSE_STRATEGY);
+    this.base = base;
+    try (TokenStream probe = base.tokenStream("", "")) {
+      Iterator<Class<? extends Attribute>> attributes = probe.getAttributeClassesIterator();
+      while (attributes.hasNext()) {
+        baseAttributes.add(attributes.next());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    packed = baseAttributes.contains(CharTermAttribute.class) && PACKED_ATTRIBUTES.containsAll(baseAttributes);
+  }
+
+  /**
+   * Adds a field that gets the base tokens through the chain.
+   */
+  public MultiFieldAnalyzer addField(String field, FilterChain chain) {
+    chains.put(field, chain);
+    return this;
+  }
+
+  public MultiFieldAnalyzer addField(String field, SharedSynonymMap map, SynonymChain chain) {
+    synonyms.put(field, map);
+    synonymChains.put(field, chain);
+    return this;
+  }
+
+  @Override
+  protected TokenStreamComponents createComponents(String fieldName) {
+    ReplayTokenizer source = new ReplayTokenizer(caches.get());
+    SharedSynonymMap map = synonyms.get(fieldName);
+    if (map != null) {
+      SynonymMap current = map.getMap();
+      return map.newComponents(source, synonymChains.get(fieldName).wrap(source, current), current);
+    }
+    FilterChain chain = chains.get(fieldName);
+    if (chain == null) {
+      throw new IllegalArgumentException("No filter chain for field " + fieldName + ", fields are " +
+          chains.keySet() + " and " + synonyms.keySet());
+    }
+    return new TokenStreamComponents(source, chain.wrap(source));
+  }
+
+  /**
+   * Field values that were tokenized by the base analyzer.
+   */
+  public long getAnalyzedCount() {
+    return analyses.sum();
+  }
+
+  /**
+   * Field values that reused the tokens of the previous field.
+   */
+  public long getReplayedCount() {
+    return replays.sum();
+  }
+
+  @Override
+  public void close() {
+    caches.close();
+    super.close();
+  }
+
+  /**
+   * Analyses with the base analyzer of a thread: the last text and its tokens. Tokens with
+   * only the standard attributes are kept in flat arrays, anything else as captured states.
+   */
+  private final class TokenCache {
+    private char[] text = new char[0];
+    private int length = -1;
+    private final List<AttributeSource.State> states = new ArrayList<>();
+    private AttributeSource.State endState;
+    private int count;
+    private char[] terms = new char[1024];
+    // per token: term start in terms, term length, start and end offset, position increment
+    // and length
+    private int[] ints = new int[6 * 64];
+    private String[] types = new String[64];
+    private int endOffset;
+    private int endPositionIncrement;
+
+    void analyze(char[] buffer, int length) throws IOException {
+      if (sameText(buffer, length)) {
+        replays.increment();
+        return;
+      }
+      // invalid until the analysis below succeeds
+      this.length = -1;
+      states.clear();
+      count = 0;
+      String value = new String(buffer, 0, length);
+      try (TokenStream stream = base.tokenStream("", value)) {
+        CharTermAttribute term = stream.getAttribute(CharTermAttribute.class);
+        OffsetAttribute offset = stream.getAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute positionIncrement = stream.getAttribute(PositionIncrementAttribute.class);
+        PositionLengthAttribute positionLength = stream.getAttribute(PositionLengthAttribute.class);
+        TypeAttribute type = stream.getAttribute(TypeAttribute.class);
+        stream.reset();
+        while (stream.incrementToken()) {
+          if (packed) {
+            add(term, offset, positionIncrement, positionLength, type);
+          } else {
+            states.add(stream.captureState());
+          }
+          count++;
+        }
+        stream.end();
+        if (packed) {
+          endOffset = offset == null ? 0 : offset.endOffset();
+          endPositionIncrement = positionIncrement == null ? 0 : positionIncrement.getPositionIncrement();
+        } else {
+          endState = stream.captureState();
+        }
+      }
+      if (text.length < length) {
+        text = new char[buffer.length];
+      }
+      System.arraycopy(buffer, 0, text, 0, length);
+      this.length = length;
+      analyses.increment();
+    }
+
+    // the attributes other than the term may be missing from the base stream
+    private void add(CharTermAttribute term, OffsetAttribute offset, PositionIncrementAttribute positionIncrement,
+                     PositionLengthAttribute positionLength, TypeAttribute type) {
+      int termStart = count == 0 ? 0 : ints[6 * (count - 1)] + ints[6 * (count - 1) + 1];
+      if (termStart + term.length() > terms.length) {
+        terms = ArrayUtil.grow(terms, termStart + term.length());
+      }
+      System.arraycopy(term.buffer(), 0, terms, termStart, term.length());
+      if (6 * (count + 1) > ints.length) {
+        ints = ArrayUtil.grow(ints, 6 * (count + 1));
+        types = Arrays.copyOf(types, ints.length / 6);
+      }
+      int i = 6 * count;
+      ints[i] = termStart;
+      ints[i + 1] = term.length();
+      ints[i + 2] = offset == null ? 0 : offset.startOffset();
+      ints[i + 3] = offset == null ? 0 : offset.endOffset();
+      ints[i + 4] = positionIncrement == null ? 1 : positionIncrement.getPositionIncrement();
+      ints[i + 5] = positionLength == null ? 1 : positionLength.getPositionLength();
+      types[count] = type == null ? TypeAttribute.DEFAULT_TYPE : type.type();
+    }
+
+    private boolean sameText(char[] buffer, int length) {
+      if (length != this.length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (text[i] != buffer[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private final class ReplayTokenizer extends Tokenizer {
+    private final TokenCache cache;
+    private final CharTermAttribute term = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offset = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute positionIncrement = addAttribute(PositionIncrementAttribute.class);
+    private final PositionLengthAttribute positionLength = addAttribute(PositionLengthAttribute.class);
+    private final TypeAttribute type = addAttribute(TypeAttribute.class);
+    private char[] buffer = new char[256];
+    private int next;
+
+    ReplayTokenizer(TokenCache cache) {
+      this.cache = cache;
+      for (Class<? extends Attribute> attribute : baseAttributes) {
+        addAttribute(attribute);
+      }
+    }
+
+    @Override
+    public void reset() throws IOException {
+      super.reset();
+      int length = read(input);
+      cache.analyze(buffer, length);
+      next = 0;
+    }
+
+    private int read(Reader reader) throws IOException {
+      int length = 0;
+      for (int read; (read = reader.read(buffer, length, buffer.length - length)) != -1; ) {
+        length += read;
+        if (length == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+      }
+      return length;
+    }
+
+    @Override
+    public boolean incrementToken() {
+      if (next == cache.count) {
+        return false;
+      }
+      clearAttributes();
+      if (packed) {
+        int[] ints = cache.ints;
+        int i = 6 * next;
+        term.copyBuffer(cache.terms, ints[i], ints[i + 1]);
+        offset.setOffset(ints[i + 2], ints[i + 3]);
+        positionIncrement.setPositionIncrement(ints[i + 4]);
+        positionLength.setPositionLength(ints[i + 5]);
+        type.setType(cache.types[next]);
+      } else {
+        restoreState(cache.states.get(next));
+      }
+      next++;
+      return true;
+    }
+
+    @Override
+    public void end() throws IOException {
+      super.end();
+      if (packed) {
+        offset.setOffset(cache.endOffset, cache.endOffset);
+        positionIncrement.setPositionIncrement(cache.endPositionIncrement);
+      } else {
+        restoreState(cache.endState);
+      }
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.en.PorterStemFilter;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.miscellaneous.RemoveDuplicatesTokenFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Indexes one text value into four copy fields, stop words removed, Porter stemmed, with
+ * synonyms and deduplicated, once with a separate analyzer per field and once with a
+ * {@link MultiFieldAnalyzer} that tokenizes the value a single time. Prints the CPU time
+ * of the analysis alone and of indexing, after checking that both produce the same tokens.
+ * <p>
+ * Usage: {@code MultiFieldIndexingBenchmark [numDocs] [wordsPerDoc]}
+ */
+public class MultiFieldIndexingBenchmark {
+
+  private static final String[] WORDS = {"green", "elephant", "dark", "sea", "running", "runs", "the", "a", "is",
+      "lucene", "indexing", "searching", "analyzers", "tokens", "quickly", "brown", "foxes", "jumped", "over",
+      "lazy", "dogs", "and", "of", "to", "in", "favourite", "colors", "together", "stayed", "days", "Big",
+      "Together", "HELLO", "world's", "e-mail", "2017", "v6.6", "search-engine", "copy_field", "it's"};
+  private static final String[] FIELDS = {"body_stop", "body_stem", "body_synonyms", "body_dedup"};
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  public static void main(String args[]) throws Exception {
+    int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int wordsPerDoc = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+
+    List<String> texts = texts(Math.min(numDocs, 10_000), wordsPerDoc);
+    Analyzer perField = perFieldAnalyzer();
+    MultiFieldAnalyzer shared = sharedAnalyzer();
+    verify(texts, perField, shared);
+
+    System.out.println(String.format("%d docs, %d words, %d fields", numDocs, wordsPerDoc, FIELDS.length));
+    System.out.println(String.format("%-12s %16s %16s", "analyzer", "analysis cpu ms", "indexing cpu ms"));
+    for (int round = 0; round < 3; round++) {
+      run("per-field", perFieldAnalyzer(), texts, numDocs);
+      MultiFieldAnalyzer analyzer = sharedAnalyzer();
+      run("shared", analyzer, texts, numDocs);
+      if (round == 2) {
+        System.out.println(String.format("shared: %d values tokenized, %d replayed", analyzer.getAnalyzedCount(),
+            analyzer.getReplayedCount()));
+      }
+    }
+  }
+
+  private static Analyzer base() {
+    return new Analyzer() {
+      @Override
+      protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer tokenizer = new StandardTokenizer();
+        return new TokenStreamComponents(tokenizer, new LowerCaseFilter(tokenizer));
+      }
+    };
+  }
+
+  private static Map<String, Function<TokenStream, TokenStream>> chains() {
+    CharArraySet stopWords = StandardAnalyzer.STOP_WORDS_SET;
+    SharedSynonymMap synonyms = SynonymAnalyzer.defaultSynonyms();
+    Map<String, Function<TokenStream, TokenStream>> chains = new HashMap<>();
+    chains.put("body_stop", tokens -> new StopFilter(tokens, stopWords));
+    chains.put("body_stem", PorterStemFilter::new);
+    chains.put("body_synonyms", tokens -> SynonymAnalyzer.filter(tokens, synonyms.getMap()));
+    chains.put("body_dedup", RemoveDuplicatesTokenFilter::new);
+    return chains;
+  }
+
+  private static Analyzer perFieldAnalyzer() {
+    Map<String, Analyzer> analyzers = new HashMap<>();
+    for (Map.Entry<String, Function<TokenStream, TokenStream>> chain : chains().entrySet()) {
+      analyzers.put(chain.getKey(), new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+          Tokenizer tokenizer = new StandardTokenizer();
+          return new TokenStreamComponents(tokenizer, chain.getValue().apply(new LowerCaseFilter(tokenizer)));
+        }
+      });
+    }
+    return new PerFieldAnalyzerWrapper(new StandardAnalyzer(), analyzers);
+  }
+
+  private static MultiFieldAnalyzer sharedAnalyzer() {
+    MultiFieldAnalyzer analyzer = new MultiFieldAnalyzer(base());
+    for (Map.Entry<String, Function<TokenStream, TokenStream>> chain : chains().entrySet()) {
+      analyzer.addField(chain.getKey(), chain.getValue()::apply);
+    }
+    return analyzer;
+  }
+
+  private static List<String> texts(int count, int wordsPerDoc) {
+    Random random = new Random(42);
+    List<String> texts = new ArrayList<>(count);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      text.setLength(0);
+      for (int j = 0; j < wordsPerDoc; j++) {
+        text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(8) == 0 ? ". " : " ");
+      }
+      texts.add(text.toString());
+    }
+    return texts;
+  }
+
+  private static void verify(List<String> texts, Analyzer expected, Analyzer actual) throws IOException {
+    for (String text : texts) {
+      for (String field : FIELDS) {
+        String want = tokens(expected, field, text);
+        String got = tokens(actual, field, text);
+        if (!want.equals(got)) {
+          throw new AssertionError(field + ": " + want + " != " + got);
+        }
+      }
+    }
+  }
+
+  private static String tokens(Analyzer analyzer, String field, String text) throws IOException {
+    StringBuilder out = new StringBuilder();
+    try (TokenStream stream = analyzer.tokenStream(field, text)) {
+      CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+      PositionIncrementAttribute posInc = stream.addAttribute(PositionIncrementAttribute.class);
+      OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+      stream.reset();
+      while (stream.incrementToken()) {
+        out.append(term).append('/').append(posInc.getPositionIncrement()).append('/')
+            .append(offset.startOffset()).append('-').append(offset.endOffset()).append(' ');
+      }
+      stream.end();
+      out.append("end=").append(offset.endOffset());
+    }
+    return out.toString();
+  }
+
+  private static void run(String name, Analyzer analyzer, List<String> texts, int numDocs) throws IOException {
+    long start = THREADS.getCurrentThreadCpuTime();
+    for (int i = 0; i < numDocs; i++) {
+      String text = texts.get(i % texts.size());
+      for (String field : FIELDS) {
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+          stream.reset();
+          while (stream.incrementToken()) {
+            // consumed like the indexing chain does
+          }
+          stream.end();
+        }
+      }
+    }
+    long analysisNanos = THREADS.getCurrentThreadCpuTime() - start;
+
+    start = THREADS.getCurrentThreadCpuTime();
+    IndexWriterConfig config = new IndexWriterConfig(analyzer).setRAMBufferSizeMB(256);
+    try (RAMDirectory dir = new RAMDirectory(); IndexWriter writer = new IndexWriter(dir, config)) {
+      Document doc = new Document();
+      List<Field> fields = new ArrayList<>();
+      for (String field : FIELDS) {
+        Field f = new TextField(field, "", Field.Store.NO);
+        fields.add(f);
+        doc.add(f);
+      }
+      for (int i = 0; i < numDocs; i++) {
+        String text = texts.get(i % texts.size());
+        for (Field field : fields) {
+          field.setStringValue(text);
+        }
+        writer.addDocument(doc);
+      }
+    }
+    long indexingNanos = THREADS.getCurrentThreadCpuTime() - start;
+    System.out.println(String.format("%-12s %16d %16d", name, analysisNanos / 1_000_000, indexingNanos / 1_000_000));
+  }
+}
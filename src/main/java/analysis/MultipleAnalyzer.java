@@ -7,12 +7,15 @@ import org.apache.lucene.analysis.StopFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.miscellaneous.RemoveDuplicatesTokenFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.standard.StandardFilter;
 import org.apache.lucene.analysis.standard.StandardTokenizer;
 import org.apache.lucene.analysis.synonym.SynonymGraphFilter;
 import org.apache.lucene.analysis.synonym.SynonymMap;
-import org.apache.lucene.util.CharsRef;
-import org.apache.lucene.util.CharsRefBuilder;
+
+import java.nio.file.Path;
+
+import static analysis.SynonymRegistry.addSynonym;
 
 public class MultipleAnalyzer extends Analyzer {
   private static final String[] SPECIALWORD_STOP_WORDS = {
@@ -32,32 +35,26 @@ public class MultipleAnalyzer extends Analyzer {
       "they", "this", "to", "was", "will", "with", "lucky"};
   private CharArraySet specialStopSet;
   private CharArraySet englishStopSet;
+  private final SharedSynonymMap synonyms;
 
   public MultipleAnalyzer() {
-    super();
-    specialStopSet = StopFilter.makeStopSet(SPECIALWORD_STOP_WORDS);
-    englishStopSet = StopFilter.makeStopSet(ENGLISH_STOP_WORDS);
-  }
-
-  private static void addSynonym(String input, String output, SynonymMap.Builder builder) {
-    final CharsRef inputWords = SynonymMap.Builder.join(input.split(" "), new CharsRefBuilder());
-    final CharsRef outputWords = SynonymMap.Builder.join(output.split(" "), new CharsRefBuilder());
-    builder.add(inputWords, outputWords, true);
-  }
-
-  private SynonymMap getSynonymMap() {
-    SynonymMap synMap = null;
-    try {
-      SynonymMap.Builder builder = new SynonymMap.Builder(true);
+    this(SynonymRegistry.getInstance().fromRules("multiple_analyzer", builder -> {
       addSynonym("lucene", "solr", builder);
       addSynonym("lucene", "elasticsearch", builder);
       addSynonym("train", "study", builder);
       addSynonym("sea green", "color", builder);
-      synMap = builder.build();
-    } catch (Exception ex) {
-      System.out.print("error occured");
-    }
-    return synMap;
+    }));
+  }
+
+  public MultipleAnalyzer(Path synonymsFile) {
+    this(SynonymRegistry.getInstance().fromFile(synonymsFile, new StandardAnalyzer(CharArraySet.EMPTY_SET)));
+  }
+
+  public MultipleAnalyzer(SharedSynonymMap synonyms) {
+    super(SharedSynonymMap.REUSE_STRATEGY);
+    this.synonyms = synonyms;
+    specialStopSet = StopFilter.makeStopSet(SPECIALWORD_STOP_WORDS);
+    englishStopSet = StopFilter.makeStopSet(ENGLISH_STOP_WORDS);
   }
 
   @Override
@@ -65,8 +62,8 @@ public class MultipleAnalyzer extends Analyzer {
     Tokenizer tokenizer = new StandardTokenizer();
     TokenStream tokenStream = new StopFilter(new LowerCaseFilter(new StandardFilter(tokenizer)),
         englishStopSet);
-    SynonymMap synMap = getSynonymMap();
+    SynonymMap synMap = synonyms.getMap();
     TokenStream stream = new SynonymGraphFilter(tokenStream, synMap, true);
-    return new TokenStreamComponents(tokenizer, new RemoveDuplicatesTokenFilter(stream));
+    return synonyms.newComponents(tokenizer, new RemoveDuplicatesTokenFilter(stream), synMap);
   }
 }
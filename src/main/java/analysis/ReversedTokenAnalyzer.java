@@ -0,0 +1,34 @@
+package analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.reverse.ReverseStringFilter;
+
+/**
+ * Produces the tokens of another analyzer with their characters reversed, for a companion
+ * field such as {@code author_rev} next to {@code author}.
+ * <p>
+ * A wildcard pattern with a leading wildcard, {@code *cat}, has to test every term of the
+ * field; reversed, {@code tac*}, it only scans the terms starting with {@code tac} of the
+ * companion field. Both fields must be fed the same text.
+ */
+public class ReversedTokenAnalyzer extends AnalyzerWrapper {
+
+  private final Analyzer delegate;
+
+  public ReversedTokenAnalyzer(Analyzer delegate) {
+    super(delegate.getReuseStrategy());
+    this.delegate = delegate;
+  }
+
+  @Override
+  protected Analyzer getWrappedAnalyzer(String fieldName) {
+    return delegate;
+  }
+
+  @Override
+  protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+    return new TokenStreamComponents(components.getTokenizer(),
+        new ReverseStringFilter(components.getTokenStream()));
+  }
+}
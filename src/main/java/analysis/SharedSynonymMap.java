@@ -0,0 +1,177 @@
+package analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable {@link SynonymMap} shared by every analyzer and thread that uses it.
+ * Instances are handed out by {@link SynonymRegistry}; when the backing file changes
+ * the registry swaps in a rebuilt map and analyzers pick it up the next time they
+ * ask for token stream components.
+ */
+public final class SharedSynonymMap {
+
+  /**
+   * Reuses components like {@link Analyzer#GLOBAL_REUSE_STRATEGY} but drops components
+   * that were built against a map that has since been reloaded.
+   */
+  public static final Analyzer.ReuseStrategy REUSE_STRATEGY = dropStale(Analyzer.GLOBAL_REUSE_STRATEGY);
+
+  /**
+   * Like {@link #REUSE_STRATEGY}, for analyzers that build different components per field.
+   */
+  public static final Analyzer.ReuseStrategy PER_FIELD_REUSE_STRATEGY = dropStale(Analyzer.PER_FIELD_REUSE_STRATEGY);
+
+  private static Analyzer.ReuseStrategy dropStale(Analyzer.ReuseStrategy delegate) {
+    return new Analyzer.ReuseStrategy() {
+      @Override
+      public Analyzer.TokenStreamComponents getReusableComponents(Analyzer analyzer, String fieldName) {
+        Analyzer.TokenStreamComponents components = delegate.getReusableComponents(analyzer, fieldName);
+        if (components instanceof Components && ((Components) components).isStale()) {
+          return null;
+        }
+        return components;
+      }
+
+      @Override
+      public void setReusableComponents(Analyzer analyzer, String fieldName,
+                                        Analyzer.TokenStreamComponents components) {
+        delegate.setReusableComponents(analyzer, fieldName, components);
+      }
+    };
+  }
+
+  private final String name;
+  private final Path file;
+  private final Builder builder;
+  private final AtomicInteger reloads = new AtomicInteger();
+  private volatile Snapshot current;
+  private volatile Exception lastReloadError;
+
+  interface Builder {
+    SynonymMap build() throws IOException;
+  }
+
+  SharedSynonymMap(String name, Path file, Builder builder) throws IOException {
+    this.name = name;
+    this.file = file;
+    this.builder = builder;
+    this.current = compile(file == null ? 0 : file.toFile().lastModified());
+  }
+
+  private Snapshot compile(long lastModified) throws IOException {
+    long start = System.nanoTime();
+    SynonymMap map = builder.build();
+    return new Snapshot(map, System.nanoTime() - start, ramBytesUsed(map), lastModified);
+  }
+
+  /**
+   * Rebuilds the map if the backing file was modified since the last build. A failed
+   * rebuild keeps the previous map in place.
+   */
+  boolean reloadIfModified() {
+    if (file == null) {
+      return false;
+    }
+    long lastModified = file.toFile().lastModified();
+    if (lastModified == current.lastModified) {
+      return false;
+    }
+    try {
+      current = compile(lastModified);
+      lastReloadError = null;
+      reloads.incrementAndGet();
+      return true;
+    } catch (Exception e) {
+      lastReloadError = e;
+      System.err.println("Failed to reload synonyms " + name + " from " + file + ": " + e);
+      return false;
+    }
+  }
+
+  public SynonymMap getMap() {
+    return current.map;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  public long getBuildTimeMillis() {
+    return current.buildNanos / 1_000_000;
+  }
+
+  public long getRamBytesUsed() {
+    return current.ramBytes;
+  }
+
+  public int getReloadCount() {
+    return reloads.get();
+  }
+
+  public Exception getLastReloadError() {
+    return lastReloadError;
+  }
+
+  /**
+   * Wraps the tokenizer and filter chain built from the current map so that the reuse
+   * strategy can tell when the components need rebuilding.
+   */
+  public Analyzer.TokenStreamComponents newComponents(Tokenizer source, TokenStream result, SynonymMap map) {
+    return new Components(source, result, map);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: build %d ms, %d bytes, %d reloads", name, getBuildTimeMillis(),
+        getRamBytesUsed(), getReloadCount());
+  }
+
+  private static long ramBytesUsed(SynonymMap map) {
+    long bytes = map.fst == null ? 0 : map.fst.ramBytesUsed();
+    // BytesRefHash does not track its size, estimate the byte pool plus its int arrays
+    BytesRef scratch = new BytesRef();
+    for (int i = 0; i < map.words.size(); i++) {
+      bytes += map.words.get(i, scratch).length + 2 + 3 * Integer.BYTES;
+    }
+    return bytes;
+  }
+
+  private static final class Snapshot {
+    final SynonymMap map;
+    final long buildNanos;
+    final long ramBytes;
+    final long lastModified;
+
+    Snapshot(SynonymMap map, long buildNanos, long ramBytes, long lastModified) {
+      this.map = map;
+      this.buildNanos = buildNanos;
+      this.ramBytes = ramBytes;
+      this.lastModified = lastModified;
+    }
+  }
+
+  private final class Components extends Analyzer.TokenStreamComponents {
+    private final SynonymMap map;
+
+    Components(Tokenizer source, TokenStream result, SynonymMap map) {
+      super(source, result);
+      this.map = map;
+    }
+
+    boolean isStale() {
+      return map != current.map;
+    }
+  }
+}
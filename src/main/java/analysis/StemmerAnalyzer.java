@@ -19,7 +19,13 @@ public class StemmerAnalyzer extends Analyzer {
   @Override
   protected TokenStreamComponents createComponents(String fieldName) {
     Tokenizer tokenizer = new WhitespaceTokenizer();
-    TokenStream sfilter = new SnowballFilter(tokenizer, new PorterStemmer());
-    return new TokenStreamComponents(tokenizer, sfilter);
+    return new TokenStreamComponents(tokenizer, stem(tokenizer));
+  }
+
+  /**
+   * The filters applied to the whitespace tokens, also used by {@link MultiFieldAnalyzer}.
+   */
+  public static TokenStream stem(TokenStream tokens) {
+    return new SnowballFilter(tokens, new PorterStemmer());
   }
 }
@@ -3,41 +3,57 @@ package analysis;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.analysis.core.WhitespaceTokenizer;
 import org.apache.lucene.analysis.miscellaneous.RemoveDuplicatesTokenFilter;
 import org.apache.lucene.analysis.synonym.SynonymGraphFilter;
 import org.apache.lucene.analysis.synonym.SynonymMap;
-import org.apache.lucene.util.CharsRef;
-import org.apache.lucene.util.CharsRefBuilder;
+
+import java.nio.file.Path;
+
+import static analysis.SynonymRegistry.addSynonym;
 
 public class SynonymAnalyzer extends Analyzer {
 
-  private static void addSynonym(String input, String output, SynonymMap.Builder builder) {
-    final CharsRef inputWords = SynonymMap.Builder.join(input.split(" "), new CharsRefBuilder());
-    final CharsRef outputWords = SynonymMap.Builder.join(output.split(" "), new CharsRefBuilder());
-    builder.add(inputWords, outputWords, true);
+  private final SharedSynonymMap synonyms;
+
+  public SynonymAnalyzer() {
+    this(defaultSynonyms());
   }
 
-  private SynonymMap getSynonymMap() {
-    SynonymMap synMap = null;
-    try {
-      SynonymMap.Builder builder = new SynonymMap.Builder(true);
+  public static SharedSynonymMap defaultSynonyms() {
+    return SynonymRegistry.getInstance().fromRules("synonym_analyzer", builder -> {
       addSynonym("dark sea green", "color", builder);
       addSynonym("green", "color", builder);
       addSynonym("dark sea", "color", builder);
       addSynonym("elephant", "animal", builder);
-      synMap = builder.build();
-    } catch (Exception ex) {
-      System.out.print("error occured");
-    }
-    return synMap;
+    });
+  }
+
+  public SynonymAnalyzer(Path synonymsFile) {
+    this(SynonymRegistry.getInstance().fromFile(synonymsFile, new WhitespaceAnalyzer()));
+  }
+
+  public SynonymAnalyzer(SharedSynonymMap synonyms) {
+    super(SharedSynonymMap.REUSE_STRATEGY);
+    this.synonyms = synonyms;
+  }
+
+  public SharedSynonymMap getSynonyms() {
+    return synonyms;
   }
 
   @Override
   protected TokenStreamComponents createComponents(String fieldName) {
     Tokenizer tokenizer = new WhitespaceTokenizer();
-    SynonymMap synMap = getSynonymMap();
-    TokenStream stream = new SynonymGraphFilter(tokenizer, synMap, true);
-    return new TokenStreamComponents(tokenizer, new RemoveDuplicatesTokenFilter(stream));
+    SynonymMap synMap = synonyms.getMap();
+    return synonyms.newComponents(tokenizer, filter(tokenizer, synMap), synMap);
+  }
+
+  /**
+   * The filters applied to the whitespace tokens, also used by {@link MultiFieldAnalyzer}.
+   */
+  public static TokenStream filter(TokenStream tokens, SynonymMap synMap) {
+    return new RemoveDuplicatesTokenFilter(new SynonymGraphFilter(tokens, synMap, true));
   }
 }
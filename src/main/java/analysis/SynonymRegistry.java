@@ -0,0 +1,129 @@
+package analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.synonym.SolrSynonymParser;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Process wide registry of compiled synonym maps. Each map is built once, either from
+ * a Solr format synonyms file or from built-in rules, and the same immutable
+ * {@link SharedSynonymMap} is returned to every analyzer asking for it.
+ * <p>
+ * File backed maps are rebuilt and swapped in atomically when the file changes, once
+ * {@link #startWatching(long, TimeUnit)} has been called.
+ */
+public final class SynonymRegistry {
+
+  private static final SynonymRegistry INSTANCE = new SynonymRegistry();
+
+  private final ConcurrentMap<String, SharedSynonymMap> maps = new ConcurrentHashMap<>();
+  private ScheduledExecutorService watcher;
+
+  public static SynonymRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the map compiled from the given rules, building it on first use.
+   */
+  public SharedSynonymMap fromRules(String name, Consumer<SynonymMap.Builder> rules) {
+    return maps.computeIfAbsent("rules:" + name, key -> create(name, null, () -> {
+      SynonymMap.Builder builder = new SynonymMap.Builder(true);
+      rules.accept(builder);
+      return builder.build();
+    }));
+  }
+
+  /**
+   * Returns the map parsed from a Solr format synonyms file, building it on first use.
+   * The analyzer is used to normalize the entries and should match the chain the map
+   * is applied to.
+   */
+  public SharedSynonymMap fromFile(Path file, Analyzer parseAnalyzer) {
+    Path path = file.toAbsolutePath().normalize();
+    String key = "file:" + path + ":" + parseAnalyzer.getClass().getName();
+    return maps.computeIfAbsent(key, k -> create(path.toString(), path, () -> parse(path, parseAnalyzer)));
+  }
+
+  public Collection<SharedSynonymMap> getMaps() {
+    return Collections.unmodifiableCollection(maps.values());
+  }
+
+  /**
+   * Polls the synonym files for changes at the given interval. Calling it again has
+   * no effect.
+   */
+  public synchronized void startWatching(long interval, TimeUnit unit) {
+    if (watcher != null) {
+      return;
+    }
+    watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "synonym-reloader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    watcher.scheduleWithFixedDelay(this::reloadModified, interval, interval, unit);
+  }
+
+  public synchronized void stopWatching() {
+    if (watcher != null) {
+      watcher.shutdownNow();
+      watcher = null;
+    }
+  }
+
+  /**
+   * Rebuilds every file backed map whose file changed and returns how many were swapped.
+   */
+  public int reloadModified() {
+    int reloaded = 0;
+    for (SharedSynonymMap map : maps.values()) {
+      if (map.reloadIfModified()) {
+        reloaded++;
+      }
+    }
+    return reloaded;
+  }
+
+  public static void addSynonym(String input, String output, SynonymMap.Builder builder) {
+    final CharsRef inputWords = SynonymMap.Builder.join(input.split(" "), new CharsRefBuilder());
+    final CharsRef outputWords = SynonymMap.Builder.join(output.split(" "), new CharsRefBuilder());
+    builder.add(inputWords, outputWords, true);
+  }
+
+  private static SharedSynonymMap create(String name, Path file, SharedSynonymMap.Builder builder) {
+    try {
+      return new SharedSynonymMap(name, file, builder);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to build synonyms " + name, e);
+    }
+  }
+
+  private static SynonymMap parse(Path file, Analyzer analyzer) throws IOException {
+    SolrSynonymParser parser = new SolrSynonymParser(true, true, analyzer);
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      parser.parse(reader);
+    } catch (ParseException e) {
+      throw new IOException("Invalid synonyms file " + file + " at line " + e.getErrorOffset(), e);
+    }
+    return parser.build();
+  }
+}
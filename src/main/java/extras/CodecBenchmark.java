@@ -0,0 +1,132 @@
+package extras;
+
+import indexing.CodecType;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Indexes the {@link CodecExample} schema with every {@link CodecType} and prints
+ * index size, indexing throughput and query latency percentiles.
+ * <p>
+ * Usage: {@code CodecBenchmark [numDocs] [queryIterations]}
+ */
+public class CodecBenchmark {
+
+  private static final int TOP_N = 10;
+
+  private final CodecExample example = new CodecExample();
+  private final int numDocs;
+  private final int queryIterations;
+
+  public CodecBenchmark(int numDocs, int queryIterations) {
+    this.numDocs = numDocs;
+    this.queryIterations = queryIterations;
+  }
+
+  public static void main(String args[]) throws Exception {
+    int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 60_000;
+    int queryIterations = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+    CodecBenchmark benchmark = new CodecBenchmark(numDocs, queryIterations);
+
+    System.out.println(String.format("%-17s %14s %12s %10s %10s", "codec", "index bytes", "docs/sec",
+        "p50 (us)", "p99 (us)"));
+    for (CodecType codecType : CodecType.values()) {
+      benchmark.run(codecType);
+    }
+  }
+
+  public void run(CodecType codecType) throws IOException {
+    Path path = Files.createTempDirectory("codec_bench_" + codecType.name().toLowerCase());
+    try (Directory dir = FSDirectory.open(path)) {
+      long start = System.nanoTime();
+      int indexed = index(dir, codecType);
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      long[] latencies;
+      try (IndexReader reader = DirectoryReader.open(dir)) {
+        latencies = query(new IndexSearcher(reader));
+      }
+      Arrays.sort(latencies);
+      System.out.println(String.format("%-17s %14d %12.0f %10.1f %10.1f", codecType, indexBytes(dir),
+          indexed / seconds, percentile(latencies, 0.50) / 1000.0, percentile(latencies, 0.99) / 1000.0));
+    } finally {
+      IOUtils.rm(path);
+    }
+  }
+
+  private int index(Directory dir, CodecType codecType) throws IOException {
+    int indexed = 0;
+    try (IndexWriter writer = example.createWriter(dir, codecType)) {
+      while (indexed < numDocs) {
+        List<Document> docs = example.createDocs();
+        for (Document doc : docs) {
+          doc.add(new StringField("bench_id", Integer.toString(indexed++), Field.Store.YES));
+        }
+        writer.addDocuments(docs);
+      }
+      writer.commit();
+    }
+    return indexed;
+  }
+
+  private long[] query(IndexSearcher searcher) throws IOException {
+    Query[] queries = {
+        new TermQuery(new Term("summary", "java")),
+        new TermQuery(new Term("summary", "batch")),
+        new TermQuery(new Term("title", "programming")),
+        new TermQuery(new Term("author", "bloch")),
+        IntPoint.newRangeQuery("rating", 4, 5)
+    };
+    // warm up, the first pass loads terms index and stored fields blocks
+    for (int i = 0; i < queryIterations / 10; i++) {
+      runQuery(searcher, queries[i % queries.length]);
+    }
+    long[] latencies = new long[queryIterations];
+    for (int i = 0; i < queryIterations; i++) {
+      long start = System.nanoTime();
+      runQuery(searcher, queries[i % queries.length]);
+      latencies[i] = System.nanoTime() - start;
+    }
+    return latencies;
+  }
+
+  private void runQuery(IndexSearcher searcher, Query query) throws IOException {
+    TopDocs docs = searcher.search(query, TOP_N);
+    for (ScoreDoc scoreDoc : docs.scoreDocs) {
+      searcher.doc(scoreDoc.doc);
+    }
+  }
+
+  private static long indexBytes(Directory dir) throws IOException {
+    long bytes = 0;
+    for (String file : dir.listAll()) {
+      bytes += dir.fileLength(file);
+    }
+    return bytes;
+  }
+
+  private static long percentile(long[] sorted, double p) {
+    int index = (int) Math.ceil(p * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+}
@@ -1,14 +1,12 @@
 package extras;
 
+import indexing.CodecType;
+import indexing.PointFields;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.codecs.Codec;
-import org.apache.lucene.codecs.simpletext.SimpleTextCodec;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.IntPoint;
-import org.apache.lucene.document.LegacyIntField;
-import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.SortedNumericDocValuesField;
 import org.apache.lucene.document.SortedSetDocValuesField;
@@ -46,14 +44,16 @@ public class CodecExample {
 
   private IndexWriter createWriter() throws IOException {
     FSDirectory dir = FSDirectory.open(Paths.get(INDEX_DIR));
-    IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
-    Codec textCodec = new SimpleTextCodec();
-    config.setCodec(textCodec);
+    return createWriter(dir, CodecType.fromSystemProperty());
+  }
+
+  IndexWriter createWriter(Directory dir, CodecType codecType) throws IOException {
+    IndexWriterConfig config = codecType.apply(new IndexWriterConfig(new StandardAnalyzer()));
     IndexWriter writer = new IndexWriter(dir, config);
     return writer;
   }
 
-  private List<Document> createDocs() {
+  List<Document> createDocs() {
     List<Document> docs = new ArrayList<>();
 
     FieldType titleType = new FieldType();
@@ -95,8 +95,8 @@ public class CodecExample {
             "statements, the new File System API, extensions of the JVM, support for dynamically-typed languages, and" +
             " the fork and join framework for task parallelism.",
         summaryType));
-    doc1.add(new NumericDocValuesField("page", 19));
-    doc1.add(new LegacyIntField("size", 148, Field.Store.YES));
+    PointFields.addInt(doc1, "page", 19, Field.Store.NO, true);
+    PointFields.addInt(doc1, "size", 148, Field.Store.YES, false);
     doc1.add(new SortedNumericDocValuesField("price", 0));
     doc1.add(new IntPoint("rating", 1));
     doc1.add(new StringField("rating_display", "1", Field.Store.YES));
@@ -121,8 +121,8 @@ public class CodecExample {
             "course, new Java SE 8 features such as lambda expressions and default interface methods are described. " +
             "An introduction to JavaFX, Java's newest GUI, concludes this step-by-step tutorial.",
         summaryType));
-    doc2.add(new NumericDocValuesField("page", 728));
-    doc2.add(new LegacyIntField("size", 53941, Field.Store.YES));
+    PointFields.addInt(doc2, "page", 728, Field.Store.NO, true);
+    PointFields.addInt(doc2, "size", 53941, Field.Store.YES, false);
     doc2.add(new SortedNumericDocValuesField("price", 4639));
     doc2.add(new SortedNumericDocValuesField("price", 3856));
     doc2.add(new SortedNumericDocValuesField("price", 3341));
@@ -153,8 +153,8 @@ public class CodecExample {
             " comprehensive descriptions and explanations for each item illuminate what to do, what not to do, and " +
             "why.",
         summaryType));
-    doc3.add(new NumericDocValuesField("page", 374));
-    doc3.add(new LegacyIntField("size", 1957, Field.Store.YES));
+    PointFields.addInt(doc3, "page", 374, Field.Store.NO, true);
+    PointFields.addInt(doc3, "size", 1957, Field.Store.YES, false);
     doc3.add(new SortedNumericDocValuesField("price", 3892));
     doc3.add(new SortedNumericDocValuesField("price", 6200));
     doc3.add(new IntPoint("rating", 4));
@@ -184,7 +184,7 @@ public class CodecExample {
             "and comprehensive coverage of the Spring Batch framework. KEY POINTS * Complete guide to the Spring " +
             "Batch framework * Numerous real-world examples * Covers basics, best practices and advanced topics",
         summaryType));
-    doc4.add(new NumericDocValuesField("page", 479));
+    PointFields.addInt(doc4, "page", 479, Field.Store.NO, true);
     doc4.add(new SortedNumericDocValuesField("price", 6957));
     doc4.add(new SortedNumericDocValuesField("price", 5386));
     docs.add(doc4);
@@ -207,7 +207,7 @@ public class CodecExample {
             "provide necessary background for understanding each data mining technique, followed by more advanced " +
             "concepts and algorithms. ",
         summaryType));
-    doc5.add(new LegacyIntField("page", 769, Field.Store.YES));
+    PointFields.addInt(doc5, "page", 769, Field.Store.YES, true);
     doc5.add(new SortedNumericDocValuesField("price", 10107));
     doc5.add(new SortedNumericDocValuesField("price", 9358));
     docs.add(doc5);
@@ -235,7 +235,7 @@ public class CodecExample {
             "emphasizing functions that return consistent and predictable results regardless of a program's state. " +
             "Scala is an emerging JVM language that offers strong support for FP.",
         summaryType));
-    doc6.add(new LegacyIntField("page", 300, Field.Store.YES));
+    PointFields.addInt(doc6, "page", 300, Field.Store.YES, true);
     doc6.add(new SortedNumericDocValuesField("price", 4887));
     doc6.add(new SortedNumericDocValuesField("price", 4297));
     docs.add(doc6);
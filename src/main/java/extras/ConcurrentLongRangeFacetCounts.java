@@ -0,0 +1,139 @@
+package extras;
+
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.Facets;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsCollector.MatchingDocs;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.range.LongRange;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Range facet counts over a numeric doc values field, counted one segment per task.
+ * <p>
+ * Unlike {@link org.apache.lucene.facet.range.LongRangeFacetCounts} this reads the field
+ * as sorted numeric doc values, so multi-valued fields such as {@code price} work as well
+ * as single-valued ones such as {@code page}. A document is counted once for every range
+ * that at least one of its values falls into. Each segment counts into its own array and
+ * the arrays are summed once all segments are done.
+ */
+public class ConcurrentLongRangeFacetCounts extends Facets {
+
+  private final String field;
+  private final LongRange[] ranges;
+  private final int[] counts;
+  private int totCount;
+
+  public ConcurrentLongRangeFacetCounts(String field, FacetsCollector hits, ExecutorService executor,
+                                        LongRange... ranges) throws IOException, InterruptedException {
+    this.field = field;
+    this.ranges = ranges;
+    this.counts = new int[ranges.length];
+    count(hits.getMatchingDocs(), executor);
+  }
+
+  private void count(List<MatchingDocs> matchingDocs, ExecutorService executor)
+      throws IOException, InterruptedException {
+    List<Future<int[]>> results = new ArrayList<>(matchingDocs.size());
+    for (MatchingDocs hits : matchingDocs) {
+      if (hits.totalHits > 0) {
+        results.add(executor.submit(new CountOneSegment(hits)));
+      }
+    }
+    for (Future<int[]> result : results) {
+      int[] segmentCounts;
+      try {
+        segmentCounts = result.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new RuntimeException(e.getCause());
+      }
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += segmentCounts[i];
+      }
+      totCount += segmentCounts[counts.length];
+    }
+  }
+
+  // returns the range counts followed by the number of documents that matched any range
+  private class CountOneSegment implements Callable<int[]> {
+    private final MatchingDocs hits;
+
+    CountOneSegment(MatchingDocs hits) {
+      this.hits = hits;
+    }
+
+    @Override
+    public int[] call() throws IOException {
+      int[] segmentCounts = new int[ranges.length + 1];
+      boolean[] matched = new boolean[ranges.length];
+      SortedNumericDocValues values = DocValues.getSortedNumeric(hits.context.reader(), field);
+      DocIdSetIterator docs = hits.bits.iterator();
+      if (docs == null) {
+        return segmentCounts;
+      }
+      for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+        values.setDocument(doc);
+        int count = values.count();
+        if (count == 0) {
+          continue;
+        }
+        boolean any = false;
+        for (int i = 0; i < count; i++) {
+          long value = values.valueAt(i);
+          for (int r = 0; r < ranges.length; r++) {
+            if (!matched[r] && ranges[r].accept(value)) {
+              matched[r] = true;
+              segmentCounts[r]++;
+              any = true;
+            }
+          }
+        }
+        if (any) {
+          segmentCounts[ranges.length]++;
+          Arrays.fill(matched, false);
+        }
+      }
+      return segmentCounts;
+    }
+  }
+
+  @Override
+  public FacetResult getTopChildren(int topN, String dim, String... path) {
+    if (!dim.equals(field)) {
+      throw new IllegalArgumentException("invalid dim \"" + dim + "\"");
+    }
+    if (path.length != 0) {
+      throw new IllegalArgumentException("path.length should be 0");
+    }
+    LabelAndValue[] labelValues = new LabelAndValue[ranges.length];
+    for (int i = 0; i < ranges.length; i++) {
+      labelValues[i] = new LabelAndValue(ranges[i].label, counts[i]);
+    }
+    return new FacetResult(dim, path, totCount, labelValues, labelValues.length);
+  }
+
+  @Override
+  public Number getSpecificValue(String dim, String... path) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public List<FacetResult> getAllDims(int topN) {
+    return Collections.singletonList(getTopChildren(topN, field));
+  }
+}
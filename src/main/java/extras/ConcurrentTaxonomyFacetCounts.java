@@ -0,0 +1,92 @@
+package extras;
+
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsCollector.MatchingDocs;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.taxonomy.DocValuesOrdinalsReader;
+import org.apache.lucene.facet.taxonomy.IntTaxonomyFacets;
+import org.apache.lucene.facet.taxonomy.OrdinalsReader;
+import org.apache.lucene.facet.taxonomy.TaxonomyReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.IntsRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Taxonomy facet counts computed one segment per task.
+ * <p>
+ * Every task decodes the ordinals of its segment into a private count array, so there
+ * is no contention while counting; the arrays are summed into the taxonomy-wide counts
+ * and hierarchical dimensions are rolled up afterwards, as
+ * {@link org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts} does.
+ */
+public class ConcurrentTaxonomyFacetCounts extends IntTaxonomyFacets {
+
+  public ConcurrentTaxonomyFacetCounts(String indexFieldName, TaxonomyReader taxoReader, FacetsConfig config,
+                                       FacetsCollector hits, ExecutorService executor)
+      throws IOException, InterruptedException {
+    super(indexFieldName, taxoReader, config);
+    count(new DocValuesOrdinalsReader(indexFieldName), hits.getMatchingDocs(), executor);
+  }
+
+  private void count(OrdinalsReader ordinalsReader, List<MatchingDocs> matchingDocs, ExecutorService executor)
+      throws IOException, InterruptedException {
+    List<Future<int[]>> results = new ArrayList<>(matchingDocs.size());
+    for (MatchingDocs hits : matchingDocs) {
+      if (hits.totalHits > 0) {
+        results.add(executor.submit(new CountOneSegment(ordinalsReader, hits, values.length)));
+      }
+    }
+    for (Future<int[]> result : results) {
+      int[] segmentCounts;
+      try {
+        segmentCounts = result.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new RuntimeException(e.getCause());
+      }
+      for (int ord = 0; ord < values.length; ord++) {
+        values[ord] += segmentCounts[ord];
+      }
+    }
+    rollup();
+  }
+
+  private static class CountOneSegment implements Callable<int[]> {
+    private final OrdinalsReader ordinalsReader;
+    private final MatchingDocs hits;
+    private final int size;
+
+    CountOneSegment(OrdinalsReader ordinalsReader, MatchingDocs hits, int size) {
+      this.ordinalsReader = ordinalsReader;
+      this.hits = hits;
+      this.size = size;
+    }
+
+    @Override
+    public int[] call() throws IOException {
+      int[] segmentCounts = new int[size];
+      OrdinalsReader.OrdinalsSegmentReader ords = ordinalsReader.getReader(hits.context);
+      DocIdSetIterator docs = hits.bits.iterator();
+      if (docs == null) {
+        return segmentCounts;
+      }
+      IntsRef scratch = new IntsRef();
+      for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+        ords.get(doc, scratch);
+        for (int i = 0; i < scratch.length; i++) {
+          segmentCounts[scratch.ints[scratch.offset + i]]++;
+        }
+      }
+      return segmentCounts;
+    }
+  }
+}
@@ -1,30 +1,183 @@
 package extras;
 
+import indexing.CodecType;
+import indexing.DirectoryType;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.FacetField;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.range.LongRange;
+import org.apache.lucene.facet.sortedset.ConcurrentSortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.Version;
+import searching.SortedSetStateCache;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Faceting over the {@link CodecExample} books: range facets on the {@code price} and
+ * {@code page} doc values, sorted set facets on {@code format} and {@code publisher} and
+ * a hierarchical {@code catalog} (format / publisher) taxonomy.
+ * <p>
+ * Every kind of facet is counted one segment per task on a shared executor and the
+ * per-segment counts are merged at the end.
+ */
 public class FacetingExample {
   private static Version LUCENE_VERSION = Version.LUCENE_6_6_0;
+  private static final String INDEX_DIR = "/tmp/lucene6idx_facets";
+  private static final String TAXO_DIR = "/tmp/lucene6idx_facets_taxo";
+  private static final String TAXONOMY_FIELD = "$taxonomy";
+  private static final int COPIES_PER_COMMIT = 250;
 
-  public static void main(String args[]) throws Exception {
+  private static final LongRange[] PRICE_RANGES = {
+      new LongRange("free", 0, true, 0, true),
+      new LongRange("under 40", 1, true, 4000, false),
+      new LongRange("40 - 60", 4000, true, 6000, false),
+      new LongRange("60 and up", 6000, true, Long.MAX_VALUE, true)};
+  private static final LongRange[] PAGE_RANGES = {
+      new LongRange("under 100", 0, true, 100, false),
+      new LongRange("100 - 500", 100, true, 500, false),
+      new LongRange("500 and up", 500, true, Long.MAX_VALUE, true)};
 
+  private final FacetsConfig config = new FacetsConfig();
+  private final SortedSetStateCache facetStates = new SortedSetStateCache();
+  private final ExecutorService executor;
+  private Directory indexDir;
+  private Directory taxoDir;
+  private IndexWriter writer;
+  private DirectoryTaxonomyWriter taxoWriter;
+  private DirectoryReader reader;
+  private DirectoryTaxonomyReader taxoReader;
+
+  public FacetingExample(int threads) {
+    config.setMultiValued("format", true);
+    config.setHierarchical("catalog", true);
+    config.setMultiValued("catalog", true);
+    // taxonomy ordinals are binary doc values, they cannot share $facets with the sorted set dims
+    config.setIndexFieldName("catalog", TAXONOMY_FIELD);
+    executor = Executors.newFixedThreadPool(threads);
   }
 
-  public void indexDocs() {
+  public static void main(String args[]) throws Exception {
+    int copies = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    FacetingExample example = new FacetingExample(Runtime.getRuntime().availableProcessors());
+    try {
+      example.indexDocs(copies);
+      System.out.println(example.reader.maxDoc() + " docs in " + example.reader.leaves().size() + " segments");
+      for (FacetResult result : example.getNumericFacets()) {
+        System.out.println(result);
+      }
+      for (FacetResult result : example.getStringFacets()) {
+        System.out.println(result);
+      }
+      for (FacetResult result : example.getTaxonomyFacets()) {
+        System.out.println(result);
+      }
+    } finally {
+      example.close();
+    }
   }
 
-  public void getNumericFacets() {
+  /**
+   * Indexes the given number of copies of the {@link CodecExample} books with their
+   * facet fields, committing every few hundred copies so the index has several segments.
+   */
+  public void indexDocs(int copies) throws IOException {
+    indexDir = DirectoryType.MMAP.open(Paths.get(INDEX_DIR));
+    taxoDir = DirectoryType.MMAP.open(Paths.get(TAXO_DIR));
+    CodecExample books = new CodecExample();
+    writer = books.createWriter(indexDir, CodecType.fromSystemProperty());
+    writer.deleteAll();
+    taxoWriter = new DirectoryTaxonomyWriter(taxoDir, IndexWriterConfig.OpenMode.CREATE);
 
+    for (int i = 0; i < copies; i++) {
+      for (Document doc : books.createDocs()) {
+        addFacetFields(doc);
+        writer.addDocument(config.build(taxoWriter, doc));
+      }
+      if ((i + 1) % COPIES_PER_COMMIT == 0) {
+        taxoWriter.commit();
+        writer.commit();
+      }
+    }
+    // commit the taxonomy first, the index must never refer to ordinals it does not have
+    taxoWriter.commit();
+    writer.commit();
+    reader = DirectoryReader.open(writer);
+    taxoReader = new DirectoryTaxonomyReader(taxoWriter);
   }
 
-  public void getStringFacets() {
+  private void addFacetFields(Document doc) {
+    IndexableField publisher = doc.getField("publisher");
+    if (publisher != null) {
+      doc.add(new SortedSetDocValuesFacetField("publisher", publisher.binaryValue().utf8ToString()));
+    }
+    for (IndexableField format : doc.getFields("format")) {
+      String value = format.binaryValue().utf8ToString();
+      doc.add(new SortedSetDocValuesFacetField("format", value));
+      if (publisher != null) {
+        doc.add(new FacetField("catalog", value, publisher.binaryValue().utf8ToString()));
+      } else {
+        doc.add(new FacetField("catalog", value));
+      }
+    }
+  }
 
+  private FacetsCollector collect(Query query) throws IOException {
+    FacetsCollector hits = new FacetsCollector();
+    new IndexSearcher(reader).search(query, hits);
+    return hits;
   }
 
-  public void getTaxonomyFacets() {
+  public List<FacetResult> getNumericFacets() throws IOException, InterruptedException {
+    FacetsCollector hits = collect(new MatchAllDocsQuery());
+    List<FacetResult> results = new ArrayList<>(2);
+    results.add(new ConcurrentLongRangeFacetCounts("price", hits, executor, PRICE_RANGES)
+        .getTopChildren(PRICE_RANGES.length, "price"));
+    results.add(new ConcurrentLongRangeFacetCounts("page", hits, executor, PAGE_RANGES)
+        .getTopChildren(PAGE_RANGES.length, "page"));
+    return results;
+  }
 
+  public List<FacetResult> getStringFacets() throws IOException, InterruptedException {
+    SortedSetDocValuesReaderState state = facetStates.get(reader, FacetsConfig.DEFAULT_INDEX_FIELD_NAME);
+    FacetsCollector hits = collect(new MatchAllDocsQuery());
+    return new ConcurrentSortedSetDocValuesFacetCounts(state, hits, executor).getAllDims(10);
   }
 
-  public void close() {
+  public List<FacetResult> getTaxonomyFacets() throws IOException, InterruptedException {
+    FacetsCollector hits = collect(new MatchAllDocsQuery());
+    List<FacetResult> results = new ArrayList<>();
+    ConcurrentTaxonomyFacetCounts counts = new ConcurrentTaxonomyFacetCounts(TAXONOMY_FIELD, taxoReader, config,
+        hits, executor);
+    FacetResult formats = counts.getTopChildren(10, "catalog");
+    results.add(formats);
+    for (int i = 0; i < formats.labelValues.length; i++) {
+      results.add(counts.getTopChildren(10, "catalog", formats.labelValues[i].label));
+    }
+    return results;
+  }
 
+  public void close() throws IOException {
+    executor.shutdown();
+    IOUtils.close(reader, taxoReader, writer, taxoWriter, indexDir, taxoDir);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+package extras;
+
+import indexing.LegacyNumericConverter;
+import indexing.PointFields;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Indexes {@code size} as a legacy trie field, converts the index to points with
+ * {@link LegacyNumericConverter} and prints index size and range query latency before
+ * and after, for narrow, medium and wide ranges. The converted index is a single segment.
+ * <p>
+ * Usage: {@code PointsMigrationBenchmark [numDocs] [queryIterations]}
+ */
+public class PointsMigrationBenchmark {
+
+  private static final int MAX_SIZE = 1_000_000;
+  private static final double[] RANGE_WIDTHS = {0.001, 0.05, 0.5};
+
+  public static void main(String args[]) throws Exception {
+    int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int queryIterations = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+    Path legacyPath = Files.createTempDirectory("points_bench_legacy");
+    Path pointsPath = Files.createTempDirectory("points_bench_points");
+    try (Directory legacyDir = FSDirectory.open(legacyPath);
+         Directory pointsDir = FSDirectory.open(pointsPath)) {
+      long start = System.nanoTime();
+      buildLegacyIndex(legacyDir, numDocs);
+      System.out.println(String.format("legacy index: %d docs in %d ms", numDocs,
+          (System.nanoTime() - start) / 1_000_000));
+      start = System.nanoTime();
+      new LegacyNumericConverter(Collections.singletonMap("size", LegacyNumericConverter.LegacyType.INT))
+          .convert(legacyDir, pointsDir);
+      System.out.println(String.format("converted to points in %d ms", (System.nanoTime() - start) / 1_000_000));
+      System.out.println(String.format("index bytes: legacy %d, points %d", indexBytes(legacyDir),
+          indexBytes(pointsDir)));
+
+      try (DirectoryReader legacy = DirectoryReader.open(legacyDir);
+           DirectoryReader points = DirectoryReader.open(pointsDir)) {
+        System.out.println(String.format("%-8s %-7s %14s %10s %10s", "width", "field", "avg hits", "p50 (ms)",
+            "p99 (ms)"));
+        for (double width : RANGE_WIDTHS) {
+          run(width, false, new IndexSearcher(legacy), queryIterations);
+          run(width, true, new IndexSearcher(points), queryIterations);
+        }
+      }
+    } finally {
+      IOUtils.rm(legacyPath, pointsPath);
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private static void buildLegacyIndex(Directory dir, int numDocs) throws IOException {
+    IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer())
+        .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+        .setRAMBufferSizeMB(256);
+    Random random = new Random(42);
+    try (IndexWriter writer = new IndexWriter(dir, config)) {
+      Document doc = new Document();
+      StringField id = new StringField("id", "", Field.Store.YES);
+      org.apache.lucene.document.LegacyIntField size =
+          new org.apache.lucene.document.LegacyIntField("size", 0, Field.Store.YES);
+      doc.add(id);
+      doc.add(size);
+      for (int i = 0; i < numDocs; i++) {
+        id.setStringValue(Integer.toString(i));
+        size.setIntValue(random.nextInt(MAX_SIZE));
+        writer.addDocument(doc);
+      }
+      writer.commit();
+    }
+  }
+
+  private static void run(double width, boolean points, IndexSearcher searcher, int iterations)
+      throws IOException {
+    // same seed for both indexes, so they run the same ranges
+    Random random = new Random(Double.doubleToLongBits(width));
+    int span = (int) (MAX_SIZE * width);
+    for (int i = 0; i < Math.max(1, iterations / 5); i++) {
+      searcher.count(rangeQuery(points, random.nextInt(MAX_SIZE - span), span));
+    }
+    long[] latencies = new long[iterations];
+    long hits = 0;
+    for (int i = 0; i < iterations; i++) {
+      Query query = rangeQuery(points, random.nextInt(MAX_SIZE - span), span);
+      long start = System.nanoTime();
+      hits += searcher.count(query);
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+    System.out.println(String.format("%-8s %-7s %14d %10.2f %10.2f", width * 100 + "%", points ? "points" : "legacy",
+        hits / iterations, latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6));
+  }
+
+  @SuppressWarnings("deprecation")
+  private static Query rangeQuery(boolean points, int lower, int span) {
+    if (points) {
+      return PointFields.intRange("size", lower, lower + span);
+    }
+    return org.apache.lucene.search.LegacyNumericRangeQuery.newIntRange("size", lower, lower + span, true, true);
+  }
+
+  private static long indexBytes(Directory dir) throws IOException {
+    long bytes = 0;
+    for (String file : dir.listAll()) {
+      bytes += dir.fileLength(file);
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,243 @@
+package indexing;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.util.InfoStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Loads records into an {@link IndexWriter} from several producer threads.
+ * <p>
+ * Each producer pulls a batch of records from the shared source, fills one reusable
+ * {@link DocumentTemplate} per batch slot and hands the whole batch to
+ * {@link IndexWriter#addDocuments(Iterable)}. Templates are created once per thread, so
+ * building documents does not allocate per record.
+ * <p>
+ * When the writer holds more than {@code maxRamBytes} of buffered documents, because
+ * flushing is falling behind, producers stop adding and one of them flushes the writer
+ * before they continue.
+ */
+public class BulkIndexer {
+
+  /**
+   * A document whose fields are created once and refilled for every record.
+   */
+  public interface DocumentTemplate<T> {
+
+    Document document();
+
+    /**
+     * Sets the field values for the record and returns the approximate size of the
+     * record's source data in bytes.
+     */
+    long fill(T record);
+  }
+
+  private final IndexWriter writer;
+  private final int producerThreads;
+  private final int batchSize;
+  private final long maxRamBytes;
+  private final Object flushLock = new Object();
+
+  public BulkIndexer(IndexWriter writer, int producerThreads, int batchSize) {
+    this(writer, producerThreads, batchSize,
+        (long) (2 * writer.getConfig().getRAMBufferSizeMB() * 1024 * 1024));
+  }
+
+  public BulkIndexer(IndexWriter writer, int producerThreads, int batchSize, long maxRamBytes) {
+    if (producerThreads < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("producerThreads and batchSize must be positive");
+    }
+    this.writer = writer;
+    this.producerThreads = producerThreads;
+    this.batchSize = batchSize;
+    this.maxRamBytes = maxRamBytes > 0 ? maxRamBytes : Long.MAX_VALUE;
+  }
+
+  /**
+   * Indexes every record of the source and returns once all of them were added. The
+   * caller decides when to commit.
+   */
+  public <T> Stats index(Iterator<T> source, Supplier<? extends DocumentTemplate<T>> templates)
+      throws IOException {
+    Stats stats = new Stats(flushCount());
+    AtomicBoolean failed = new AtomicBoolean();
+    ExecutorService producers = Executors.newFixedThreadPool(producerThreads);
+    try {
+      List<Future<?>> futures = new ArrayList<>(producerThreads);
+      for (int i = 0; i < producerThreads; i++) {
+        futures.add(producers.submit(() -> {
+          produce(source, templates, stats, failed);
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      failed.set(true);
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while indexing", e);
+    } catch (ExecutionException e) {
+      failed.set(true);
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Bulk indexing failed", cause);
+    } finally {
+      awaitProducers(producers);
+      stats.finish(flushCount());
+    }
+    return stats;
+  }
+
+  // after a failure the others stop at the end of their batch; an interrupt inside the writer
+  // could close a channel of its directory, so they are only interrupted with the caller
+  private static void awaitProducers(ExecutorService producers) {
+    producers.shutdown();
+    try {
+      while (!producers.awaitTermination(1, TimeUnit.MINUTES)) {
+        // a batch can wait for a long flush
+      }
+    } catch (InterruptedException e) {
+      producers.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // the source iterator is shared, producers take whole batches from it under its lock
+  private <T> void produce(Iterator<T> source, Supplier<? extends DocumentTemplate<T>> templateFactory,
+                           Stats stats, AtomicBoolean failed) throws IOException {
+    List<DocumentTemplate<T>> templates = new ArrayList<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      templates.add(templateFactory.get());
+    }
+    List<Document> batch = new ArrayList<>(batchSize);
+    try {
+      while (!failed.get()) {
+        batch.clear();
+        long bytes = 0;
+        synchronized (source) {
+          while (batch.size() < batchSize && source.hasNext()) {
+            DocumentTemplate<T> template = templates.get(batch.size());
+            bytes += template.fill(source.next());
+            batch.add(template.document());
+          }
+        }
+        if (batch.isEmpty()) {
+          return;
+        }
+        awaitRam(stats);
+        writer.addDocuments(batch);
+        stats.docs.addAndGet(batch.size());
+        stats.bytes.addAndGet(bytes);
+        stats.batches.incrementAndGet();
+      }
+    } catch (IOException | RuntimeException e) {
+      failed.set(true);
+      throw e;
+    }
+  }
+
+  private void awaitRam(Stats stats) throws IOException {
+    if (writer.ramBytesUsed() <= maxRamBytes) {
+      return;
+    }
+    long start = System.nanoTime();
+    synchronized (flushLock) {
+      // another producer may have flushed while this one waited for the lock
+      if (writer.ramBytesUsed() > maxRamBytes) {
+        writer.flush();
+        stats.forcedFlushes.incrementAndGet();
+      }
+    }
+    stats.stallNanos.addAndGet(System.nanoTime() - start);
+  }
+
+  private int flushCount() {
+    InfoStream infoStream = writer.getConfig().getInfoStream();
+    return infoStream instanceof FlushCounter ? ((FlushCounter) infoStream).getFlushCount() : -1;
+  }
+
+  public static class Stats {
+    private final AtomicLong docs = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong forcedFlushes = new AtomicLong();
+    private final AtomicLong stallNanos = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final int startFlushes;
+    private volatile long elapsedNanos;
+    private volatile int flushes = -1;
+
+    Stats(int startFlushes) {
+      this.startFlushes = startFlushes;
+    }
+
+    void finish(int endFlushes) {
+      elapsedNanos = System.nanoTime() - startNanos;
+      if (startFlushes >= 0) {
+        flushes = endFlushes - startFlushes;
+      }
+    }
+
+    public long getDocs() {
+      return docs.get();
+    }
+
+    public long getBytes() {
+      return bytes.get();
+    }
+
+    public long getBatches() {
+      return batches.get();
+    }
+
+    /**
+     * Segments flushed while indexing, or -1 when the writer has no {@link FlushCounter}.
+     */
+    public int getFlushes() {
+      return flushes;
+    }
+
+    public long getForcedFlushes() {
+      return forcedFlushes.get();
+    }
+
+    public long getStallMillis() {
+      return stallNanos.get() / 1_000_000;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedNanos / 1_000_000;
+    }
+
+    public double getDocsPerSecond() {
+      return elapsedNanos == 0 ? 0 : docs.get() * 1e9 / elapsedNanos;
+    }
+
+    public double getBytesPerSecond() {
+      return elapsedNanos == 0 ? 0 : bytes.get() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d docs in %d ms: %.0f docs/sec, %.1f MB/sec, %d flushes, %d forced flushes, " +
+              "%d ms stalled", getDocs(), getElapsedMillis(), getDocsPerSecond(), getBytesPerSecond() / (1024 * 1024),
+          getFlushes(), getForcedFlushes(), getStallMillis());
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package indexing;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene62.Lucene62Codec;
+import org.apache.lucene.codecs.simpletext.SimpleTextCodec;
+import org.apache.lucene.index.IndexWriterConfig;
+
+import java.util.Locale;
+
+/**
+ * Codecs the writer helpers can pick from. {@link #TEXT} is the human readable
+ * format and is only meant for debugging small indexes, the others are the binary
+ * default codec with different stored fields trade-offs.
+ * <p>
+ * The codec used by the examples is chosen with {@code -Dlucene.codec=<name>}
+ * and defaults to {@link #DEFAULT}.
+ */
+public enum CodecType {
+  TEXT(new SimpleTextCodec()),
+  DEFAULT(Codec.getDefault()),
+  BEST_SPEED(new Lucene62Codec(Lucene50StoredFieldsFormat.Mode.BEST_SPEED)),
+  BEST_COMPRESSION(new Lucene62Codec(Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION));
+
+  public static final String SYSTEM_PROPERTY = "lucene.codec";
+
+  private final Codec codec;
+
+  CodecType(Codec codec) {
+    this.codec = codec;
+  }
+
+  public Codec getCodec() {
+    return codec;
+  }
+
+  public IndexWriterConfig apply(IndexWriterConfig config) {
+    return config.setCodec(codec);
+  }
+
+  public static CodecType fromName(String name) {
+    return valueOf(name.trim().toUpperCase(Locale.ROOT));
+  }
+
+  public static CodecType fromSystemProperty() {
+    return fromName(System.getProperty(SYSTEM_PROPERTY, DEFAULT.name()));
+  }
+}
@@ -0,0 +1,237 @@
+package indexing;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps a directory and counts the files and bytes read and written through it.
+ * Counters are striped {@link LongAdder}s so concurrent searches do not contend on them.
+ */
+public class CountingDirectory extends FilterDirectory {
+
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder inputsOpened = new LongAdder();
+  private final LongAdder outputsCreated = new LongAdder();
+  private final LongAdder syncs = new LongAdder();
+
+  public CountingDirectory(Directory in) {
+    super(in);
+  }
+
+  @Override
+  public IndexOutput createOutput(String name, IOContext context) throws IOException {
+    outputsCreated.increment();
+    return new CountingOutput(in.createOutput(name, context));
+  }
+
+  @Override
+  public IndexOutput createTempOutput(String prefix, String suffix, IOContext context) throws IOException {
+    outputsCreated.increment();
+    return new CountingOutput(in.createTempOutput(prefix, suffix, context));
+  }
+
+  @Override
+  public IndexInput openInput(String name, IOContext context) throws IOException {
+    inputsOpened.increment();
+    return new CountingInput(in.openInput(name, context));
+  }
+
+  @Override
+  public void sync(Collection<String> names) throws IOException {
+    syncs.increment();
+    super.sync(names);
+  }
+
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  public long getInputsOpened() {
+    return inputsOpened.sum();
+  }
+
+  public long getOutputsCreated() {
+    return outputsCreated.sum();
+  }
+
+  public long getSyncs() {
+    return syncs.sum();
+  }
+
+  public String getStats() {
+    return String.format("read=%d bytes written=%d bytes inputs=%d outputs=%d syncs=%d", getBytesRead(),
+        getBytesWritten(), getInputsOpened(), getOutputsCreated(), getSyncs());
+  }
+
+  private final class CountingOutput extends IndexOutput {
+    private final IndexOutput out;
+
+    CountingOutput(IndexOutput out) {
+      super(out.toString(), out.getName());
+      this.out = out;
+    }
+
+    @Override
+    public void writeByte(byte b) throws IOException {
+      out.writeByte(b);
+      bytesWritten.increment();
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int offset, int length) throws IOException {
+      out.writeBytes(b, offset, length);
+      bytesWritten.add(length);
+    }
+
+    @Override
+    public long getFilePointer() {
+      return out.getFilePointer();
+    }
+
+    @Override
+    public long getChecksum() throws IOException {
+      return out.getChecksum();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  // delegates the multi-byte reads and random access slices too, so the wrapped input keeps its fast paths
+  private final class CountingInput extends IndexInput {
+    private final IndexInput in;
+
+    CountingInput(IndexInput in) {
+      super(in.toString());
+      this.in = in;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+      bytesRead.increment();
+      return in.readByte();
+    }
+
+    @Override
+    public void readBytes(byte[] b, int offset, int len) throws IOException {
+      bytesRead.add(len);
+      in.readBytes(b, offset, len);
+    }
+
+    @Override
+    public short readShort() throws IOException {
+      bytesRead.add(Short.BYTES);
+      return in.readShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+      bytesRead.add(Integer.BYTES);
+      return in.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+      bytesRead.add(Long.BYTES);
+      return in.readLong();
+    }
+
+    @Override
+    public int readVInt() throws IOException {
+      long start = in.getFilePointer();
+      int value = in.readVInt();
+      bytesRead.add(in.getFilePointer() - start);
+      return value;
+    }
+
+    @Override
+    public long readVLong() throws IOException {
+      long start = in.getFilePointer();
+      long value = in.readVLong();
+      bytesRead.add(in.getFilePointer() - start);
+      return value;
+    }
+
+    @Override
+    public long getFilePointer() {
+      return in.getFilePointer();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+      in.seek(pos);
+    }
+
+    @Override
+    public long length() {
+      return in.length();
+    }
+
+    @Override
+    public IndexInput slice(String sliceDescription, long offset, long length) throws IOException {
+      return new CountingInput(in.slice(sliceDescription, offset, length));
+    }
+
+    @Override
+    public RandomAccessInput randomAccessSlice(long offset, long length) throws IOException {
+      return new CountingRandomAccessInput(in.randomAccessSlice(offset, length));
+    }
+
+    @Override
+    public CountingInput clone() {
+      return new CountingInput(in.clone());
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private final class CountingRandomAccessInput implements RandomAccessInput {
+    private final RandomAccessInput in;
+
+    CountingRandomAccessInput(RandomAccessInput in) {
+      this.in = in;
+    }
+
+    @Override
+    public byte readByte(long pos) throws IOException {
+      bytesRead.increment();
+      return in.readByte(pos);
+    }
+
+    @Override
+    public short readShort(long pos) throws IOException {
+      bytesRead.add(Short.BYTES);
+      return in.readShort(pos);
+    }
+
+    @Override
+    public int readInt(long pos) throws IOException {
+      bytesRead.add(Integer.BYTES);
+      return in.readInt(pos);
+    }
+
+    @Override
+    public long readLong(long pos) throws IOException {
+      bytesRead.add(Long.BYTES);
+      return in.readLong(pos);
+    }
+  }
+}
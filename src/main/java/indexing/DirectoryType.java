@@ -0,0 +1,65 @@
+package indexing;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Directory implementations the examples can open an index with. File based types
+ * use the given path, {@link #OFF_HEAP} ignores it.
+ */
+public enum DirectoryType {
+  /**
+   * Memory-mapped files, the best choice for 64 bit JVMs.
+   */
+  MMAP {
+    @Override
+    public Directory open(Path path) throws IOException {
+      return new MMapDirectory(path);
+    }
+  },
+  /**
+   * Positional reads through file channels, for platforms where mmap is not an option.
+   */
+  NIO {
+    @Override
+    public Directory open(Path path) throws IOException {
+      return new NIOFSDirectory(path);
+    }
+  },
+  /**
+   * Memory-mapped files with small newly flushed segments kept in memory, for
+   * near-real-time search with frequent reopens.
+   */
+  NRT_CACHING {
+    @Override
+    public Directory open(Path path) throws IOException {
+      return new NRTCachingDirectory(new MMapDirectory(path), NRT_MAX_MERGE_SIZE_MB, NRT_MAX_CACHED_MB);
+    }
+  },
+  /**
+   * In-memory index in direct buffers, see {@link OffHeapDirectory}.
+   */
+  OFF_HEAP {
+    @Override
+    public Directory open(Path path) {
+      return new OffHeapDirectory();
+    }
+  };
+
+  private static final double NRT_MAX_MERGE_SIZE_MB = 5.0;
+  private static final double NRT_MAX_CACHED_MB = 60.0;
+
+  public abstract Directory open(Path path) throws IOException;
+
+  /**
+   * Opens the directory wrapped in a {@link CountingDirectory}.
+   */
+  public CountingDirectory openCounting(Path path) throws IOException {
+    return new CountingDirectory(open(path));
+  }
+}
@@ -0,0 +1,213 @@
+package indexing;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableFieldType;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies field changes to existing documents, found by a key term, in batches.
+ * <p>
+ * Changes that only touch numeric and binary doc values, such as prices and stock levels,
+ * are written in place with {@link IndexWriter#updateDocValues}: nothing is re-analyzed
+ * and the document keeps its postings and stored fields. Only documents where an indexed
+ * or stored field changed are rebuilt by the {@link Reindexer} and replaced with
+ * {@link IndexWriter#updateDocument}. Within a batch, changes to the same key are merged,
+ * the last value of a field wins.
+ * <p>
+ * Sorted doc values cannot be updated in place, fields that change often must be indexed
+ * as {@link org.apache.lucene.document.BinaryDocValuesField} or
+ * {@link org.apache.lucene.document.NumericDocValuesField} to take the fast path.
+ */
+public class DocValuesUpdater {
+
+  /**
+   * Builds the new version of a document whose indexed fields changed, from the record it
+   * was indexed from: a document loaded from the index only has its stored fields.
+   */
+  public interface Reindexer {
+    Document rebuild(Term key, List<Field> changes) throws IOException;
+  }
+
+  private final IndexWriter writer;
+  private final int batchSize;
+  private final Reindexer reindexer;
+
+  /**
+   * @param reindexer rebuilds documents whose indexed fields changed, or {@code null} if
+   *                  only doc values may change
+   */
+  public DocValuesUpdater(IndexWriter writer, int batchSize, Reindexer reindexer) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be positive, got " + batchSize);
+    }
+    this.writer = writer;
+    this.batchSize = batchSize;
+    this.reindexer = reindexer;
+  }
+
+  /**
+   * Whether a change to this field can be written without reindexing the document.
+   */
+  public static boolean isInPlace(Field field) {
+    IndexableFieldType type = field.fieldType();
+    DocValuesType docValuesType = type.docValuesType();
+    return type.indexOptions() == IndexOptions.NONE && !type.stored() && type.pointDimensionCount() == 0 &&
+        (docValuesType == DocValuesType.NUMERIC || docValuesType == DocValuesType.BINARY);
+  }
+
+  /**
+   * Applies every update of the source and returns once all of them were handed to the
+   * writer. The caller decides when to commit.
+   */
+  public Stats apply(Iterator<Update> updates) throws IOException {
+    Stats stats = new Stats();
+    Map<Term, Update> batch = new LinkedHashMap<>();
+    try {
+      while (updates.hasNext()) {
+        Update update = updates.next();
+        stats.updates.incrementAndGet();
+        Update pending = batch.get(update.key);
+        if (pending == null) {
+          batch.put(update.key, update.copy());
+        } else {
+          pending.merge(update);
+        }
+        if (batch.size() == batchSize) {
+          flushBatch(batch, stats);
+        }
+      }
+      flushBatch(batch, stats);
+    } finally {
+      stats.finish();
+    }
+    return stats;
+  }
+
+  private void flushBatch(Map<Term, Update> batch, Stats stats) throws IOException {
+    if (batch.isEmpty()) {
+      return;
+    }
+    for (Update update : batch.values()) {
+      if (update.isInPlace()) {
+        writer.updateDocValues(update.key, update.fields.values().toArray(new Field[update.fields.size()]));
+        stats.inPlace.incrementAndGet();
+      } else {
+        if (reindexer == null) {
+          throw new IllegalArgumentException("Update of " + update.key + " changes indexed fields " +
+              update.fields.keySet() + " but there is no reindexer");
+        }
+        writer.updateDocument(update.key, reindexer.rebuild(update.key,
+            Collections.unmodifiableList(new ArrayList<>(update.fields.values()))));
+        stats.reindexed.incrementAndGet();
+      }
+    }
+    stats.batches.incrementAndGet();
+    batch.clear();
+  }
+
+  /**
+   * New field values for the document with the given key term; the key should match at
+   * most one document.
+   */
+  public static class Update {
+    private final Term key;
+    private final Map<String, Field> fields = new LinkedHashMap<>();
+
+    public Update(Term key) {
+      this.key = key;
+    }
+
+    /**
+     * Sets a field, replacing any earlier value of this update for the same field.
+     */
+    public Update set(Field field) {
+      fields.put(field.name(), field);
+      return this;
+    }
+
+    public Term getKey() {
+      return key;
+    }
+
+    boolean isInPlace() {
+      for (Field field : fields.values()) {
+        if (!DocValuesUpdater.isInPlace(field)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    Update copy() {
+      Update copy = new Update(key);
+      copy.fields.putAll(fields);
+      return copy;
+    }
+
+    void merge(Update later) {
+      fields.putAll(later.fields);
+    }
+  }
+
+  public static class Stats {
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong inPlace = new AtomicLong();
+    private final AtomicLong reindexed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private volatile long elapsedNanos;
+
+    void finish() {
+      elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    public long getUpdates() {
+      return updates.get();
+    }
+
+    /**
+     * Documents updated through doc values only.
+     */
+    public long getInPlace() {
+      return inPlace.get();
+    }
+
+    /**
+     * Documents rebuilt and replaced because an indexed field changed.
+     */
+    public long getReindexed() {
+      return reindexed.get();
+    }
+
+    public long getBatches() {
+      return batches.get();
+    }
+
+    public long getElapsedMillis() {
+      return elapsedNanos / 1_000_000;
+    }
+
+    public double getUpdatesPerSecond() {
+      return elapsedNanos == 0 ? 0 : updates.get() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d updates in %d ms: %.0f updates/sec, %d in place, %d reindexed, %d batches",
+          getUpdates(), getElapsedMillis(), getUpdatesPerSecond(), getInPlace(), getReindexed(), getBatches());
+    }
+  }
+}
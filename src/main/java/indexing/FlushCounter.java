@@ -0,0 +1,39 @@
+package indexing;
+
+import org.apache.lucene.util.InfoStream;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts segment flushes of an {@link org.apache.lucene.index.IndexWriter}. Install it
+ * with {@link org.apache.lucene.index.IndexWriterConfig#setInfoStream(InfoStream)}; it
+ * only listens to the per-thread writer messages, so the cost is a few messages per
+ * flushed segment.
+ */
+public class FlushCounter extends InfoStream {
+
+  private static final String COMPONENT = "DWPT";
+  private static final String FLUSH_MESSAGE = "flush postings as segment";
+
+  private final AtomicInteger flushes = new AtomicInteger();
+
+  @Override
+  public void message(String component, String message) {
+    if (message.startsWith(FLUSH_MESSAGE)) {
+      flushes.incrementAndGet();
+    }
+  }
+
+  @Override
+  public boolean isEnabled(String component) {
+    return COMPONENT.equals(component);
+  }
+
+  public int getFlushCount() {
+    return flushes.get();
+  }
+
+  @Override
+  public void close() {
+  }
+}
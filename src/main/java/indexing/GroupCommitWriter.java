@@ -0,0 +1,294 @@
+package indexing;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes keyed updates and deletes through a {@link WriteAheadLog} and commits the
+ * {@link IndexWriter} in groups instead of after every request.
+ * <p>
+ * An operation is serialized first, so a document the log cannot hold is rejected before
+ * it reaches the writer. It is then applied to the writer, appended to the log and
+ * acknowledged once the log is synced; concurrent operations share one fsync. A background thread commits when
+ * the oldest uncommitted operation is {@code maxDelayMillis} old, or when {@code maxDocs}
+ * operations or {@code maxBytes} of log are waiting. Each commit records the sequence
+ * number of the last operation it holds in its user data, and the log files it covers
+ * are deleted. On startup the operations logged after the last commit are replayed into
+ * the writer, which must therefore be opened in {@code CREATE_OR_APPEND} or {@code APPEND}
+ * mode.
+ * <p>
+ * Operations on the same key are applied and logged in the same order, so a replay ends
+ * in the same state as the writer. If writing the log fails after the writer took an
+ * operation, the writer is rolled back and closed: what it had since its last commit is
+ * in the log, except that operation, and is replayed when the writer is opened again.
+ */
+public class GroupCommitWriter implements Closeable {
+
+  public static final String WAL_SEQ = "wal_seq";
+  private static final int KEY_LOCKS = 64;
+
+  private final IndexWriter writer;
+  private final WriteAheadLog log;
+  private final long maxDelayNanos;
+  private final long maxDocs;
+  private final long maxBytes;
+  private final Object[] keyLocks = new Object[KEY_LOCKS];
+  private final Object commitLock = new Object();
+  private final ScheduledExecutorService committer;
+  private final AtomicBoolean commitRequested = new AtomicBoolean();
+
+  private final AtomicLong pendingDocs = new AtomicLong();
+  private volatile long firstPendingNanos;
+  private volatile long committedBytes;
+
+  private final AtomicLong operations = new AtomicLong();
+  private final AtomicLong commits = new AtomicLong();
+  private final AtomicLong commitNanos = new AtomicLong();
+  private volatile long lastCommitNanos;
+  private volatile long maxCommitNanos;
+  private volatile long committedSeq;
+  private final long replayed;
+  private final long replayNanos;
+
+  public GroupCommitWriter(IndexWriter writer, Path logDir, long maxDelayMillis, long maxDocs, long maxBytes)
+      throws IOException {
+    if (maxDelayMillis < 1 || maxDocs < 1 || maxBytes < 1) {
+      throw new IllegalArgumentException("maxDelayMillis, maxDocs and maxBytes must be positive");
+    }
+    this.writer = writer;
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    this.maxDocs = maxDocs;
+    this.maxBytes = maxBytes;
+    for (int i = 0; i < KEY_LOCKS; i++) {
+      keyLocks[i] = new Object();
+    }
+    this.log = new WriteAheadLog(logDir);
+
+    long start = System.nanoTime();
+    committedSeq = committedSeq(writer);
+    log.skipTo(committedSeq + 1);
+    List<WriteAheadLog.Record> records = log.replay(committedSeq);
+    for (WriteAheadLog.Record record : records) {
+      if (record.operation == WriteAheadLog.Operation.UPDATE) {
+        writer.updateDocument(record.key, record.document);
+      } else {
+        writer.deleteDocuments(record.key);
+      }
+    }
+    if (!records.isEmpty()) {
+      commit();
+    }
+    this.replayed = records.size();
+    this.replayNanos = System.nanoTime() - start;
+
+    committer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "group-committer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long tickMillis = Math.max(1, maxDelayMillis / 4);
+    committer.scheduleWithFixedDelay(this::commitIfDueQuietly, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private static long committedSeq(IndexWriter writer) {
+    for (Map.Entry<String, String> entry : writer.getLiveCommitData()) {
+      if (WAL_SEQ.equals(entry.getKey())) {
+        return Long.parseLong(entry.getValue());
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Adds or replaces the document with the key and returns once the operation is durable.
+   */
+  public long updateDocument(Term key, Iterable<? extends IndexableField> doc) throws IOException {
+    WriteAheadLog.Entry entry = WriteAheadLog.encode(WriteAheadLog.Operation.UPDATE, key, doc);
+    long seq;
+    synchronized (keyLock(key)) {
+      writer.updateDocument(key, doc);
+      seq = append(entry);
+    }
+    afterOperation(seq);
+    return seq;
+  }
+
+  /**
+   * Deletes the documents with the key and returns once the operation is durable.
+   */
+  public long deleteDocuments(Term key) throws IOException {
+    WriteAheadLog.Entry entry = WriteAheadLog.encode(WriteAheadLog.Operation.DELETE, key, Collections.emptyList());
+    long seq;
+    synchronized (keyLock(key)) {
+      writer.deleteDocuments(key);
+      seq = append(entry);
+    }
+    afterOperation(seq);
+    return seq;
+  }
+
+  // the operation is already in the writer; if it cannot be logged the writer must not commit it
+  private long append(WriteAheadLog.Entry entry) throws IOException {
+    try {
+      return log.append(entry);
+    } catch (IOException | RuntimeException e) {
+      try {
+        writer.rollback();
+      } catch (IOException | RuntimeException rollbackFailure) {
+        e.addSuppressed(rollbackFailure);
+      }
+      throw e;
+    }
+  }
+
+  private Object keyLock(Term key) {
+    return keyLocks[(key.hashCode() & 0x7fffffff) % KEY_LOCKS];
+  }
+
+  private void afterOperation(long seq) throws IOException {
+    operations.incrementAndGet();
+    if (pendingDocs.getAndIncrement() == 0) {
+      firstPendingNanos = System.nanoTime();
+    }
+    if (log.getSyncedSeq() < seq) {
+      log.sync();
+    }
+    if (isFull() && commitRequested.compareAndSet(false, true)) {
+      committer.execute(this::commitIfDueQuietly);
+    }
+  }
+
+  private boolean isFull() {
+    return pendingDocs.get() >= maxDocs || log.getAppendedBytes() - committedBytes >= maxBytes;
+  }
+
+  private boolean isDue() {
+    return isFull() || (pendingDocs.get() > 0 && System.nanoTime() - firstPendingNanos >= maxDelayNanos);
+  }
+
+  private void commitIfDueQuietly() {
+    commitRequested.set(false);
+    try {
+      if (isDue()) {
+        commit();
+      }
+    } catch (Exception e) {
+      System.err.println("Group commit failed: " + e);
+    }
+  }
+
+  /**
+   * Commits every operation applied so far and deletes the log files they were in.
+   */
+  public void commit() throws IOException {
+    synchronized (commitLock) {
+      long start = System.nanoTime();
+      // operations are applied to the writer before they get a sequence number
+      long seq = log.getNextSeq() - 1;
+      long bytes = log.getAppendedBytes();
+      long docs = pendingDocs.get();
+      writer.setLiveCommitData(Collections.singletonMap(WAL_SEQ, Long.toString(seq)).entrySet());
+      writer.commit();
+      log.truncate(seq);
+      committedSeq = seq;
+      committedBytes = bytes;
+      pendingDocs.addAndGet(-docs);
+      firstPendingNanos = System.nanoTime();
+
+      long elapsed = System.nanoTime() - start;
+      commits.incrementAndGet();
+      commitNanos.addAndGet(elapsed);
+      lastCommitNanos = elapsed;
+      maxCommitNanos = Math.max(maxCommitNanos, elapsed);
+    }
+  }
+
+  /**
+   * Commits what is pending and closes the log; the writer stays open.
+   */
+  @Override
+  public void close() throws IOException {
+    committer.shutdown();
+    try {
+      committer.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    commit();
+    log.close();
+  }
+
+  public long getOperationCount() {
+    return operations.get();
+  }
+
+  /**
+   * Number of fsyncs of the log, lower than the number of operations when they were grouped.
+   */
+  public long getSyncCount() {
+    return log.getSyncCount();
+  }
+
+  public long getCommitCount() {
+    return commits.get();
+  }
+
+  public long getCommittedSeq() {
+    return committedSeq;
+  }
+
+  public long getLastCommitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(lastCommitNanos);
+  }
+
+  public long getMaxCommitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxCommitNanos);
+  }
+
+  public double getAvgCommitMillis() {
+    long count = commits.get();
+    return count == 0 ? 0 : commitNanos.get() / 1e6 / count;
+  }
+
+  public long getLogSizeInBytes() throws IOException {
+    return log.sizeInBytes();
+  }
+
+  /**
+   * Operations replayed from the log on startup.
+   */
+  public long getReplayedCount() {
+    return replayed;
+  }
+
+  public long getReplayMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(replayNanos);
+  }
+
+  @Override
+  public String toString() {
+    long logBytes;
+    try {
+      logBytes = getLogSizeInBytes();
+    } catch (IOException e) {
+      logBytes = -1;
+    }
+    return String.format("GroupCommitWriter<ops=%d syncs=%d commits=%d committedSeq=%d commitMs(last=%d avg=%.1f " +
+            "max=%d) logBytes=%d replayed=%d replayMs=%d>", getOperationCount(), getSyncCount(), getCommitCount(),
+        getCommittedSeq(), getLastCommitMillis(), getAvgCommitMillis(), getMaxCommitMillis(), logBytes,
+        getReplayedCount(), getReplayMillis());
+  }
+}
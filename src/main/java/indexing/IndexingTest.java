@@ -1,12 +1,10 @@
 package indexing;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.codecs.Codec;
-import org.apache.lucene.codecs.simpletext.SimpleTextCodec;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DoubleDocValuesField;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
@@ -19,48 +17,54 @@ import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 import org.junit.Assert;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 public class IndexingTest {
 
   private final static Version version = Version.LUCENE_6_6_0;
   private static final String INDEX_DIR = "/tmp/luceneidx_indexing_test1";
-  private static boolean simpleTextCodec = true;
+  private static final String GROUP_COMMIT_DIR = "/tmp/luceneidx_group_commit";
+  private static final long GROUP_COMMIT_DELAY_MS = 1000;
+  private static final long MERGE_REPORT_INTERVAL_MS = 1000;
+  private static CodecType codecType = CodecType.fromSystemProperty();
   private static IndexWriter indexWriter;
+  private static MergeManager mergeManager;
 
   public IndexingTest() throws Exception {
     indexWriter = getIndexWriter();
   }
 
-  public static Directory getDirectory(String name) throws IOException {
-    if (name.equals("ram")) {
-      return new RAMDirectory();
-    } else if (name.equals("dir")) {
-      return FSDirectory.open(Paths.get(INDEX_DIR));
-    }
-    return null;
+  public static Directory getDirectory(DirectoryType type) throws IOException {
+    return getDirectory(type, INDEX_DIR);
+  }
+
+  private static Directory getDirectory(DirectoryType type, String path) throws IOException {
+    return type.open(Paths.get(path));
   }
 
   public static IndexWriterConfig getWriterConfig() {
     IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer())
-        .setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-    if (simpleTextCodec) {
-      Codec textCodec = new SimpleTextCodec();
-      config.setCodec(textCodec);
-    }
-    return config;
+        .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+        .setInfoStream(new FlushCounter());
+    return codecType.apply(config);
   }
 
   public static IndexWriter getIndexWriter() throws IOException {
-    Directory index = getDirectory("dir");
-    IndexWriterConfig config = getWriterConfig();
+    Directory index = getDirectory(DirectoryType.MMAP);
+    mergeManager = MergeManager.forHardware(Paths.get(INDEX_DIR));
+    IndexWriterConfig config = mergeManager.apply(getWriterConfig());
     return new IndexWriter(index, config);
 
   }
@@ -72,6 +76,9 @@ public class IndexingTest {
   public static void main(String args[]) throws Exception {
     IndexingTest t = new IndexingTest();
     t.addDocsTest();
+    // t.bulkAddDocsTest(1_000_000);
+    // t.bulkUpdateDocValuesTest(1_000_000);
+    // t.groupCommitTest(100_000, 8);
     // t.deleteDocsTest();
 //    t.updateDocsTest();
     //t.testMerge();
@@ -80,36 +87,120 @@ public class IndexingTest {
 
   public void addDocsTest() throws IOException {
 
-    Document doc = new Document();
-    doc.add(new TextField("id", "1", Field.Store.YES));
-    doc.add(new SortedDocValuesField("doc_s_dV", new BytesRef("123")));
-    doc.add(new DoubleDocValuesField("doc_d_dV", 1.23));
-    doc.add(new TextField("author", "kitty cat", Field.Store.NO));
-    doc.add(new TextField("email", "kitty@cat.com", Field.Store.YES));
-    doc.add(new TextField("specials", "13e12exoxoe45e66", Field.Store.YES));
-    doc.add(new TextField("specials_synonyms", "green is my favourite Elephant", Field.Store.YES));
-    doc.add(new TextField("specials_stop", "hi i am not your friend browny brother", Field.Store.YES));
-    doc.add(new TextField("specials_stem", "hi its a big day for us to stay together ", Field.Store.YES));
-    doc.add(new TextField("specials_multiple", "hi its a big day for us to stay together as lucky is the steming " +
-        "word hie lucene" +
-        " ", Field.Store
-        .YES));
+    Document doc = originalDoc();
     indexWriter.addDocument(doc);
     indexWriter.addDocument(updatedDoc());
     indexWriter.commit();
 
 
-    IndexReader indexReader = DirectoryReader.open(getDirectory("dir"));
+    IndexReader indexReader = DirectoryReader.open(getDirectory(DirectoryType.MMAP));
     Assert.assertEquals(1, indexReader.numDocs());
     Assert.assertEquals(indexReader.numDeletedDocs(), 0);
     System.out.println("All assetion passed");
   }
 
+  public void bulkAddDocsTest(int numDocs) throws IOException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    BulkIndexer bulkIndexer = new BulkIndexer(indexWriter, threads, 500);
+    Iterator<Integer> ids = IntStream.range(0, numDocs).iterator();
+    BulkIndexer.Stats stats = bulkIndexer.index(ids, SampleDocTemplate::new);
+    indexWriter.commit();
+    System.out.println(stats);
+  }
+
+  // many small durable writes, committed in groups; the log is replayed if the last run crashed
+  public void groupCommitTest(int numDocs, int threads) throws Exception {
+    IndexWriterConfig config = getWriterConfig().setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+    try (IndexWriter writer = new IndexWriter(getDirectory(DirectoryType.MMAP, GROUP_COMMIT_DIR), config);
+         GroupCommitWriter groupCommit = new GroupCommitWriter(writer, Paths.get(GROUP_COMMIT_DIR + "_wal"),
+             GROUP_COMMIT_DELAY_MS, 10_000, 16 * 1024 * 1024)) {
+      System.out.println("Opened " + groupCommit);
+      AtomicInteger next = new AtomicInteger();
+      long start = System.nanoTime();
+      List<Thread> writers = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        Thread thread = new Thread(() -> {
+          SampleDocTemplate template = new SampleDocTemplate();
+          try {
+            for (int record = next.getAndIncrement(); record < numDocs; record = next.getAndIncrement()) {
+              template.fill(record);
+              groupCommit.updateDocument(new Term("id", Integer.toString(record)), template.document());
+            }
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        thread.start();
+        writers.add(thread);
+      }
+      for (Thread thread : writers) {
+        thread.join();
+      }
+      System.out.println(String.format("%d durable updates/sec", (long) (numDocs * 1e9 / (System.nanoTime() - start))));
+      System.out.println(groupCommit);
+    }
+  }
+
+  // reprices every bulk added doc in place, the ids are not touched
+  public void bulkUpdateDocValuesTest(int numDocs) throws IOException {
+    DocValuesUpdater updater = new DocValuesUpdater(indexWriter, 10_000, null);
+    Iterator<DocValuesUpdater.Update> updates = IntStream.range(0, numDocs).mapToObj(record -> {
+      String value = Integer.toString(record);
+      return new DocValuesUpdater.Update(new Term("id", value))
+          .set(new DoubleDocValuesField("doc_d_dV", record / 50.0))
+          .set(new BinaryDocValuesField("doc_s_dV", new BytesRef(value + "-v2")));
+    }).iterator();
+    DocValuesUpdater.Stats stats = updater.apply(updates);
+    indexWriter.commit();
+    System.out.println(stats);
+  }
+
+  private static class SampleDocTemplate implements BulkIndexer.DocumentTemplate<Integer> {
+    private final Document doc = new Document();
+    private final TextField id = new TextField("id", "", Field.Store.YES);
+    private final BinaryDocValuesField sortValue = new BinaryDocValuesField("doc_s_dV", new BytesRef());
+    private final DoubleDocValuesField doubleValue = new DoubleDocValuesField("doc_d_dV", 0);
+    private final TextField author = new TextField("author", "", Field.Store.YES);
+    private final TextField email = new TextField("email", "", Field.Store.YES);
+    private final TextField specials = new TextField("specials", "", Field.Store.YES);
+    private final BytesRef sortBytes = new BytesRef(new byte[16]);
+
+    SampleDocTemplate() {
+      doc.add(id);
+      doc.add(sortValue);
+      doc.add(doubleValue);
+      doc.add(author);
+      doc.add(email);
+      doc.add(specials);
+    }
+
+    @Override
+    public Document document() {
+      return doc;
+    }
+
+    @Override
+    public long fill(Integer record) {
+      String value = record.toString();
+      id.setStringValue(value);
+      sortBytes.length = 0;
+      for (int i = 0; i < value.length(); i++) {
+        sortBytes.bytes[sortBytes.length++] = (byte) value.charAt(i);
+      }
+      sortValue.setBytesValue(sortBytes);
+      doubleValue.setDoubleValue(record / 100.0);
+      author.setStringValue(record % 2 == 0 ? "kitty cat" : "logan cat");
+      email.setStringValue(record % 2 == 0 ? "kitty@cat.com" : "logan@cat.com");
+      specials.setStringValue("13e12exoxoe45e66");
+      return 2 * value.length() + Long.BYTES + Double.BYTES + 9 + 13 + 16;
+    }
+  }
+
   void deleteDocsTest() throws IOException {
 
     Assert.assertEquals(1, indexWriter.numDocs());
 
-    IndexReader indexReader = DirectoryReader.open(getDirectory("dir"));
+    IndexReader indexReader = DirectoryReader.open(getDirectory(DirectoryType.MMAP));
     Query query = new TermQuery(new Term("email", "kitty"));
     query = new TermQuery(new Term("id", "1"));
     printSearchResults(10, query, indexReader);
@@ -126,28 +217,46 @@ public class IndexingTest {
   }
 
   void updateDocsTest() throws IOException {
-    IndexReader indexReader = DirectoryReader.open(getDirectory("dir"));
-    IndexSearcher searcher = new IndexSearcher(indexReader);
+    IndexReader indexReader = DirectoryReader.open(getDirectory(DirectoryType.MMAP));
     Query query = new TermQuery(new Term("id", "1"));
-    TopDocs docs = searcher.search(query, 10);
-
-    if (docs.totalHits > 0) {
-      Document doc = searcher.doc(docs.scoreDocs[0].doc);
-      doc.removeField("id");
-      doc.add(new TextField("id", "2", Field.Store.YES));
-      indexWriter.updateDocument(new Term("email", "kitty"), doc);
-     // indexWriter.updateDocuments()
-      indexWriter.commit();
-    }
+
+    // id is indexed, so doc 1 is rebuilt from the record it was indexed from: read back from
+    // the index it would lose author and the doc values, which are not stored; the price of
+    // doc 2 is only a doc value and is updated in place
+    DocValuesUpdater updater = new DocValuesUpdater(indexWriter, 100, (key, changes) -> {
+      Document doc = sourceDocument(key);
+      for (Field change : changes) {
+        doc.removeFields(change.name());
+        doc.add(change);
+      }
+      return doc;
+    });
+    DocValuesUpdater.Stats stats = updater.apply(Arrays.asList(
+        new DocValuesUpdater.Update(new Term("id", "1")).set(new TextField("id", "3", Field.Store.YES)),
+        new DocValuesUpdater.Update(new Term("id", "2")).set(new DoubleDocValuesField("doc_d_dV", 2.99))
+    ).iterator());
+    indexWriter.commit();
+    System.out.println(stats);
 
     printSearchResults(10, query, indexReader);
     indexReader.close();
-    indexReader = DirectoryReader.open(getDirectory("dir"));
-    query = new TermQuery(new Term("id", "2"));
+    indexReader = DirectoryReader.open(getDirectory(DirectoryType.MMAP));
+    query = new TermQuery(new Term("id", "3"));
     printSearchResults(10, query, indexReader);
 
   }
 
+  private Document sourceDocument(Term key) {
+    switch (key.text()) {
+      case "1":
+        return originalDoc();
+      case "2":
+        return updatedDoc();
+      default:
+        throw new IllegalArgumentException("No source record for " + key);
+    }
+  }
+
   private void printSearchResults(
       final int limit, final Query query,
       final IndexReader reader) throws IOException {
@@ -162,12 +271,30 @@ public class IndexingTest {
     }
   }
 
+  public Document originalDoc() {
+    Document doc = new Document();
+    doc.add(new TextField("id", "1", Field.Store.YES));
+    doc.add(new BinaryDocValuesField("doc_s_dV", new BytesRef("123")));
+    doc.add(new DoubleDocValuesField("doc_d_dV", 1.23));
+    doc.add(new TextField("author", "kitty cat", Field.Store.NO));
+    doc.add(new TextField("email", "kitty@cat.com", Field.Store.YES));
+    doc.add(new TextField("specials", "13e12exoxoe45e66", Field.Store.YES));
+    doc.add(new TextField("specials_synonyms", "green is my favourite Elephant", Field.Store.YES));
+    doc.add(new TextField("specials_stop", "hi i am not your friend browny brother", Field.Store.YES));
+    doc.add(new TextField("specials_stem", "hi its a big day for us to stay together ", Field.Store.YES));
+    doc.add(new TextField("specials_multiple", "hi its a big day for us to stay together as lucky is the steming " +
+        "word hie lucene" +
+        " ", Field.Store
+        .YES));
+    return doc;
+  }
+
   public Document updatedDoc() {
     Document doc = new Document();
     doc.add(new TextField("id", "2", Field.Store.YES));
     doc.add(new TextField("author", "logan cat", Field.Store.YES));
     doc.add(new TextField("email", "logan@cat.com", Field.Store.YES));
-    doc.add(new SortedDocValuesField("doc_s_dV", new BytesRef("1243")));
+    doc.add(new BinaryDocValuesField("doc_s_dV", new BytesRef("1243")));
     doc.add(new DoubleDocValuesField("doc_d_dV", 3.23));
     doc.add(new TextField("email", "logan2@cat.com", Field.Store.YES));
     doc.add(new TextField("specials", "13e12exoxoe45e66", Field.Store.YES));
@@ -181,13 +308,20 @@ public class IndexingTest {
     return doc;
   }
 
-  public void testMerge() throws IOException {
+  public void testMerge() throws Exception {
     Document doc = updatedDoc();
     indexWriter.addDocument(doc);
     indexWriter.commit();
 
     System.out.println(indexWriter.numDocs());
-    indexWriter.forceMerge(1);
-
+    // merges in the background, searches and indexing go on; cancel() stops it between merges
+    MergeManager.MergeDownJob job = mergeManager.mergeDown(indexWriter, 1);
+    while (!job.isDone()) {
+      Thread.sleep(MERGE_REPORT_INTERVAL_MS);
+      System.out.println(job + " " + mergeManager);
+    }
+    job.await();
+    indexWriter.commit();
+    System.out.println(job + " " + mergeManager);
   }
 }
@@ -2,8 +2,6 @@ package indexing;
 
 import java.nio.file.Paths;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.codecs.Codec;
-import org.apache.lucene.codecs.simpletext.SimpleTextCodec;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
@@ -13,27 +11,25 @@ import org.apache.lucene.facet.Facets;
 import org.apache.lucene.facet.FacetsCollector;
 import org.apache.lucene.facet.FacetsConfig;
 import org.apache.lucene.facet.LabelAndValue;
-import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
 import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.DocValuesType;
 import org.apache.lucene.index.IndexOptions;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.RAMDirectory;
+import searching.EarlyTerminatingCollectorManager;
+import searching.HitFetcher;
+import searching.ManagedSearcher;
+import searching.SortedSetStateCache;
 
 import java.io.IOException;
 
@@ -46,31 +42,32 @@ public class IndexingTest1 {
   protected String[] city = {"Amsterdam", "Venice"};
   protected String[] city_other = {"Venice", "Delhi"};
   private Directory directory;
+  private IndexWriter writer;
+  private ManagedSearcher searcherManager;
+  private final SortedSetStateCache facetStates = new SortedSetStateCache("city_f");
   private static final String INDEX_DIR = "/tmp/luceneidx_indexing_test12";
+  private static CodecType codecType = CodecType.fromSystemProperty();
+  private static final Sort ID_SORT = new Sort(new SortField("id", SortField.Type.INT, true));
 
   public static void main(String args[]) throws Exception {
     IndexingTest1 t = new IndexingTest1();
     t.init();
     t.indexReaderTest();
+    t.close();
   }
 
   private IndexWriter getWriter() throws IOException {
-    IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
-    Codec textCodec = new SimpleTextCodec();
-    config.setCodec(textCodec);
+    IndexWriterConfig config = codecType.apply(new IndexWriterConfig(new StandardAnalyzer())
+        .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+        .setIndexSort(ID_SORT));
     return new IndexWriter(directory, config);
   }
 
-  private IndexSearcher getSearrcher() throws IOException {
-    IndexReader indexReader = DirectoryReader.open(directory);
-    IndexSearcher searcher = new IndexSearcher(indexReader);
-    return searcher;
-  }
-
   public void init() throws Exception {
-    directory = FSDirectory.open(Paths.get(INDEX_DIR));
-    IndexWriter writer = getWriter();
-    ;
+    directory = DirectoryType.MMAP.open(Paths.get(INDEX_DIR));
+    writer = getWriter();
+    searcherManager = new ManagedSearcher(writer, 0);
+    searcherManager.addWarmer(facetStates);
 
     FieldType storedField = new FieldType();
     storedField.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
@@ -124,25 +121,39 @@ public class IndexingTest1 {
 //          textField));
       writer.addDocument(config.build(doc));
     }
-    writer.close();
+    writer.commit();
+    searcherManager.maybeRefreshBlocking();
+  }
 
+  public void close() throws IOException {
+    System.out.println("Facet states: " + facetStates);
+    searcherManager.close();
+    writer.close();
+    directory.close();
   }
 
   public void indexReaderTest() throws IOException {
-    IndexSearcher searcher = getSearrcher();
+    IndexSearcher searcher = searcherManager.acquire();
+    try {
+      indexReaderTest(searcher);
+    } finally {
+      searcherManager.release(searcher);
+    }
+  }
+
+  private void indexReaderTest(IndexSearcher searcher) throws IOException {
     Term t = new Term("contents", "lots");
     Query query = new TermQuery(t);
-    TopDocs topDocs = searcher.search(query, 10, new Sort(new SortField("id", SortField.Type.INT, true)));
+    TopDocs topDocs = EarlyTerminatingCollectorManager.search(searcher, query, 10, ID_SORT, true);
     System.out.println("Data");
     if (topDocs.totalHits > 0) {
-      for (ScoreDoc scdoc : topDocs.scoreDocs) {
-        System.out.println(searcher.doc(scdoc.doc));
+      for (HitFetcher.Hit hit : new HitFetcher("id", "country").fetch(searcher, topDocs.scoreDocs)) {
+        System.out.println(hit);
       }
     }
     FacetsCollector fc = new FacetsCollector();
     FacetsCollector.search(searcher, query, 10, fc);
-    SortedSetDocValuesReaderState state =
-        new DefaultSortedSetDocValuesReaderState(searcher.getIndexReader(), "city_f");
+    SortedSetDocValuesReaderState state = facetStates.get(searcher.getIndexReader(), "city_f");
 
     Facets facets = new SortedSetDocValuesFacetCounts(state, fc);
     FacetResult result = facets.getTopChildren(10, "city");
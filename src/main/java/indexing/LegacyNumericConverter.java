@@ -0,0 +1,448 @@
+package indexing;
+
+import org.apache.lucene.codecs.FieldsProducer;
+import org.apache.lucene.codecs.PointsReader;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.FilterCodecReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.NumericUtils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites an index whose numeric fields were indexed with the legacy trie encoding
+ * ({@code LegacyIntField}, {@code LegacyLongField}, ...) into a new index where those
+ * fields are points, without re-analyzing any document.
+ * <p>
+ * Every segment is wrapped in a reader that hides the trie terms of the converted fields
+ * and exposes their full-precision values as points instead, then the wrapped segments
+ * are added to the target with {@link IndexWriter#addIndexes(CodecReader...)}. Stored
+ * fields, doc values and all other fields are copied as they are. The values are read
+ * from the terms, so the fields do not need to be stored. The converted fields are no
+ * longer searchable with legacy queries, use {@link PointFields} instead.
+ * <p>
+ * Usage: {@code LegacyNumericConverter <source> <target> <field>:<INT|LONG|FLOAT|DOUBLE>...}
+ */
+public class LegacyNumericConverter {
+
+  private static final String SOURCE_DIR = "/tmp/lucene6idx";
+  private static final String TARGET_DIR = "/tmp/lucene6idx_points";
+
+  /**
+   * Encoding of a legacy field. The trie terms of a float or double hold the same sortable
+   * bits as its point, so they are converted like ints and longs.
+   */
+  @SuppressWarnings("deprecation")
+  public enum LegacyType {
+    INT(Integer.BYTES), FLOAT(Integer.BYTES), LONG(Long.BYTES), DOUBLE(Long.BYTES);
+
+    private final int bytes;
+
+    LegacyType(int bytes) {
+      this.bytes = bytes;
+    }
+
+    TermsEnum fullPrecisionTerms(TermsEnum termsEnum) {
+      return bytes == Integer.BYTES ? org.apache.lucene.util.LegacyNumericUtils.filterPrefixCodedInts(termsEnum)
+          : org.apache.lucene.util.LegacyNumericUtils.filterPrefixCodedLongs(termsEnum);
+    }
+
+    void encode(BytesRef term, byte[] packed, int offset) {
+      if (bytes == Integer.BYTES) {
+        NumericUtils.intToSortableBytes(org.apache.lucene.util.LegacyNumericUtils.prefixCodedToInt(term), packed,
+            offset);
+      } else {
+        NumericUtils.longToSortableBytes(org.apache.lucene.util.LegacyNumericUtils.prefixCodedToLong(term), packed,
+            offset);
+      }
+    }
+  }
+
+  private final Map<String, LegacyType> fields;
+
+  public LegacyNumericConverter(Map<String, LegacyType> fields) {
+    if (fields.isEmpty()) {
+      throw new IllegalArgumentException("No field to convert");
+    }
+    this.fields = Collections.unmodifiableMap(new HashMap<>(fields));
+  }
+
+  public static void main(String args[]) throws Exception {
+    String source = args.length > 0 ? args[0] : SOURCE_DIR;
+    String target = args.length > 1 ? args[1] : TARGET_DIR;
+    Map<String, LegacyType> fields = new LinkedHashMap<>();
+    for (int i = 2; i < args.length; i++) {
+      String[] field = args[i].split(":");
+      fields.put(field[0], LegacyType.valueOf(field[1].toUpperCase()));
+    }
+    if (fields.isEmpty()) {
+      // the legacy fields of CodecExample
+      fields.put("size", LegacyType.INT);
+      fields.put("page", LegacyType.INT);
+    }
+
+    try (Directory sourceDir = FSDirectory.open(Paths.get(source));
+         Directory targetDir = FSDirectory.open(Paths.get(target))) {
+      long start = System.nanoTime();
+      new LegacyNumericConverter(fields).convert(sourceDir, targetDir);
+      System.out.println(String.format("converted %s from %s to %s in %d ms", fields.keySet(), source, target,
+          (System.nanoTime() - start) / 1_000_000));
+      try (DirectoryReader reader = DirectoryReader.open(targetDir)) {
+        for (String field : fields.keySet()) {
+          System.out.println(String.format("%s: %d points in %d docs", field, PointValues.size(reader, field),
+              PointValues.getDocCount(reader, field)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the converted copy of the latest commit of {@code source} to {@code target},
+   * replacing any index there. The commit user data is carried over.
+   */
+  public void convert(Directory source, Directory target) throws IOException {
+    try (DirectoryReader reader = DirectoryReader.open(source)) {
+      List<CodecReader> converted = new ArrayList<>();
+      Sort indexSort = null;
+      for (LeafReaderContext context : reader.leaves()) {
+        CodecReader leaf = SlowCodecReaderWrapper.wrap(context.reader());
+        if (leaf.getIndexSort() != null) {
+          indexSort = leaf.getIndexSort();
+        }
+        converted.add(wrap(leaf));
+      }
+      // addIndexes does not analyze anything
+      IndexWriterConfig config = new IndexWriterConfig(null)
+          .setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+      if (indexSort != null) {
+        config.setIndexSort(indexSort);
+      }
+      try (IndexWriter writer = new IndexWriter(target, config)) {
+        writer.addIndexes(converted.toArray(new CodecReader[converted.size()]));
+        writer.setLiveCommitData(reader.getIndexCommit().getUserData().entrySet());
+        writer.commit();
+      }
+    }
+  }
+
+  /**
+   * A view of the segment where the legacy fields are points.
+   */
+  public CodecReader wrap(CodecReader reader) {
+    return new ConvertingCodecReader(reader, fields);
+  }
+
+  private static final class ConvertingCodecReader extends FilterCodecReader {
+    private final Map<String, LegacyType> converted = new HashMap<>();
+    private final FieldInfos fieldInfos;
+    private final Map<String, PointField> points = new HashMap<>();
+    private final PointsReader pointsReader;
+
+    ConvertingCodecReader(CodecReader in, Map<String, LegacyType> fields) {
+      super(in);
+      List<FieldInfo> infos = new ArrayList<>();
+      for (FieldInfo info : in.getFieldInfos()) {
+        LegacyType type = fields.get(info.name);
+        if (type == null || info.getIndexOptions() == IndexOptions.NONE) {
+          infos.add(info);
+          continue;
+        }
+        if (info.getPointDimensionCount() != 0) {
+          throw new IllegalArgumentException("Field " + info.name + " is indexed both as terms and as points");
+        }
+        converted.put(info.name, type);
+        infos.add(new FieldInfo(info.name, info.number, false, false, false, IndexOptions.NONE,
+            info.getDocValuesType(), info.getDocValuesGen(), info.attributes(), 1, type.bytes));
+      }
+      this.fieldInfos = new FieldInfos(infos.toArray(new FieldInfo[infos.size()]));
+      this.pointsReader = new ConvertingPointsReader(in.getPointsReader());
+    }
+
+    @Override
+    public FieldInfos getFieldInfos() {
+      return fieldInfos;
+    }
+
+    @Override
+    public FieldsProducer getPostingsReader() {
+      FieldsProducer postings = in.getPostingsReader();
+      return postings == null ? null : new HidingFieldsProducer(postings, converted.keySet());
+    }
+
+    @Override
+    public PointsReader getPointsReader() {
+      return pointsReader;
+    }
+
+    @Override
+    public PointValues getPointValues() {
+      return pointsReader;
+    }
+
+    private synchronized PointField pointField(String field) throws IOException {
+      PointField pointField = points.get(field);
+      if (pointField == null) {
+        pointField = uninvert(field, converted.get(field));
+        points.put(field, pointField);
+      }
+      return pointField;
+    }
+
+    // one point per full precision term of each document, terms come in value order
+    private PointField uninvert(String field, LegacyType type) throws IOException {
+      PointField pointField = new PointField(type.bytes);
+      Terms terms = in.getPostingsReader().terms(field);
+      if (terms == null) {
+        return pointField;
+      }
+      FixedBitSet docsWithValue = new FixedBitSet(in.maxDoc());
+      TermsEnum termsEnum = type.fullPrecisionTerms(terms.iterator());
+      PostingsEnum postings = null;
+      BytesRef term;
+      while ((term = termsEnum.next()) != null) {
+        postings = termsEnum.postings(postings, PostingsEnum.NONE);
+        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+          pointField.add(doc, term, type);
+          docsWithValue.set(doc);
+        }
+      }
+      pointField.docCount = docsWithValue.cardinality();
+      return pointField;
+    }
+
+    private final class ConvertingPointsReader extends PointsReader {
+      private final PointsReader in;
+
+      ConvertingPointsReader(PointsReader in) {
+        this.in = in;
+      }
+
+      @Override
+      public void checkIntegrity() throws IOException {
+        if (in != null) {
+          in.checkIntegrity();
+        }
+      }
+
+      @Override
+      public void intersect(String field, IntersectVisitor visitor) throws IOException {
+        if (converted.containsKey(field)) {
+          pointField(field).intersect(visitor);
+        } else if (in != null) {
+          in.intersect(field, visitor);
+        }
+      }
+
+      @Override
+      public long estimatePointCount(String field, IntersectVisitor visitor) {
+        if (converted.containsKey(field)) {
+          try {
+            return pointField(field).count;
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+        return in == null ? 0 : in.estimatePointCount(field, visitor);
+      }
+
+      @Override
+      public byte[] getMinPackedValue(String field) throws IOException {
+        if (converted.containsKey(field)) {
+          return pointField(field).minPackedValue();
+        }
+        return in == null ? null : in.getMinPackedValue(field);
+      }
+
+      @Override
+      public byte[] getMaxPackedValue(String field) throws IOException {
+        if (converted.containsKey(field)) {
+          return pointField(field).maxPackedValue();
+        }
+        return in == null ? null : in.getMaxPackedValue(field);
+      }
+
+      @Override
+      public int getNumDimensions(String field) throws IOException {
+        if (converted.containsKey(field)) {
+          return 1;
+        }
+        return in == null ? 0 : in.getNumDimensions(field);
+      }
+
+      @Override
+      public int getBytesPerDimension(String field) throws IOException {
+        if (converted.containsKey(field)) {
+          return converted.get(field).bytes;
+        }
+        return in == null ? 0 : in.getBytesPerDimension(field);
+      }
+
+      @Override
+      public long size(String field) {
+        if (converted.containsKey(field)) {
+          try {
+            return pointField(field).count;
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+        return in == null ? 0 : in.size(field);
+      }
+
+      @Override
+      public int getDocCount(String field) {
+        if (converted.containsKey(field)) {
+          try {
+            return pointField(field).docCount;
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+        return in == null ? 0 : in.getDocCount(field);
+      }
+
+      @Override
+      public void close() {
+        // the wrapped points reader belongs to the segment
+      }
+
+      @Override
+      public long ramBytesUsed() {
+        return in == null ? 0 : in.ramBytesUsed();
+      }
+    }
+  }
+
+  /**
+   * The points of one field of a segment, sorted by value.
+   */
+  private static final class PointField {
+    private final int bytes;
+    private int[] docs = new int[16];
+    private byte[] packed;
+    private int count;
+    private int docCount;
+
+    PointField(int bytes) {
+      this.bytes = bytes;
+      this.packed = new byte[16 * bytes];
+    }
+
+    void add(int doc, BytesRef term, LegacyType type) {
+      docs = ArrayUtil.grow(docs, count + 1);
+      packed = ArrayUtil.grow(packed, (count + 1) * bytes);
+      docs[count] = doc;
+      type.encode(term, packed, count * bytes);
+      count++;
+    }
+
+    byte[] minPackedValue() {
+      return count == 0 ? null : Arrays.copyOfRange(packed, 0, bytes);
+    }
+
+    byte[] maxPackedValue() {
+      return count == 0 ? null : Arrays.copyOfRange(packed, (count - 1) * bytes, count * bytes);
+    }
+
+    void intersect(PointValues.IntersectVisitor visitor) throws IOException {
+      if (count == 0) {
+        return;
+      }
+      PointValues.Relation relation = visitor.compare(minPackedValue(), maxPackedValue());
+      if (relation == PointValues.Relation.CELL_OUTSIDE_QUERY) {
+        return;
+      }
+      visitor.grow(count);
+      if (relation == PointValues.Relation.CELL_INSIDE_QUERY) {
+        for (int i = 0; i < count; i++) {
+          visitor.visit(docs[i]);
+        }
+        return;
+      }
+      byte[] value = new byte[bytes];
+      for (int i = 0; i < count; i++) {
+        System.arraycopy(packed, i * bytes, value, 0, bytes);
+        visitor.visit(docs[i], value);
+      }
+    }
+  }
+
+  private static final class HidingFieldsProducer extends FieldsProducer {
+    private final FieldsProducer in;
+    private final Set<String> hidden;
+
+    HidingFieldsProducer(FieldsProducer in, Set<String> hidden) {
+      this.in = in;
+      this.hidden = hidden;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      List<String> visible = new ArrayList<>();
+      for (String field : in) {
+        if (!hidden.contains(field)) {
+          visible.add(field);
+        }
+      }
+      return visible.iterator();
+    }
+
+    @Override
+    public Terms terms(String field) throws IOException {
+      return hidden.contains(field) ? null : in.terms(field);
+    }
+
+    @Override
+    public int size() {
+      return -1;
+    }
+
+    @Override
+    public void checkIntegrity() throws IOException {
+      in.checkIntegrity();
+    }
+
+    @Override
+    public FieldsProducer getMergeInstance() throws IOException {
+      return new HidingFieldsProducer(in.getMergeInstance(), hidden);
+    }
+
+    @Override
+    public void close() {
+      // the wrapped postings belong to the segment
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return in.ramBytesUsed();
+    }
+  }
+}
@@ -0,0 +1,303 @@
+package indexing;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeTrigger;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merge policy, merge scheduler and merge metrics for one {@link IndexWriter}.
+ * <p>
+ * Install it with {@link #apply(IndexWriterConfig)} before the writer is created. The
+ * {@link TieredMergePolicy} and {@link ConcurrentMergeScheduler} are exposed to be tuned;
+ * {@link #forHardware(Path)} sizes the merge threads for the disk the index lives on and
+ * lets the scheduler throttle merge I/O while indexing is light.
+ * <p>
+ * Instead of a blocking {@code forceMerge(1)}, {@link #mergeDown(IndexWriter, int)} reduces
+ * the segment count on a background thread, one bounded merge at a time, starting with the
+ * smallest segments. The job can be cancelled between merges, and cancelling aborts the
+ * merge it is running, so the index stays usable and the extra disk space is bounded by
+ * one merge until the last step.
+ * <p>
+ * Segment count and deleted-document ratio are taken whenever the writer checks for
+ * merges: after every flush, merge and commit.
+ */
+public class MergeManager {
+
+  private final ObservedMergePolicy mergePolicy = new ObservedMergePolicy();
+  private final TimedMergeScheduler mergeScheduler = new TimedMergeScheduler();
+
+  private final AtomicLong merges = new AtomicLong();
+  private final AtomicLong abortedMerges = new AtomicLong();
+  private final AtomicLong mergeNanos = new AtomicLong();
+  private final AtomicLong maxMergeNanos = new AtomicLong();
+  private final AtomicLong bytesMerged = new AtomicLong();
+  private final AtomicLong docsMerged = new AtomicLong();
+  private final Set<MergePolicy.OneMerge> running = ConcurrentHashMap.newKeySet();
+  private final Set<MergePolicy.OneMerge> forced = ConcurrentHashMap.newKeySet();
+
+  private volatile int segmentCount;
+  private volatile int maxDoc;
+  private volatile int deletedDocs;
+
+  /**
+   * Uses Lucene's default merge settings.
+   */
+  public MergeManager() {
+  }
+
+  /**
+   * One merge thread on a spinning disk, where concurrent merges only add seeks, otherwise
+   * up to half the cores, at most 4, with room for 5 more pending merges before indexing
+   * threads are stalled. Merge I/O is throttled automatically.
+   */
+  public static MergeManager forHardware(Path indexDir) throws IOException {
+    MergeManager manager = new MergeManager();
+    boolean spins = IOUtils.spins(indexDir);
+    int threads = spins ? 1 : Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    manager.mergeScheduler.setMaxMergesAndThreads(threads + 5, threads);
+    manager.mergeScheduler.enableAutoIOThrottle();
+    return manager;
+  }
+
+  public IndexWriterConfig apply(IndexWriterConfig config) {
+    return config.setMergePolicy(mergePolicy).setMergeScheduler(mergeScheduler);
+  }
+
+  public TieredMergePolicy getMergePolicy() {
+    return mergePolicy;
+  }
+
+  public ConcurrentMergeScheduler getMergeScheduler() {
+    return mergeScheduler;
+  }
+
+  /**
+   * Starts merging the writer's index down to at most {@code maxSegments} segments.
+   */
+  public MergeDownJob mergeDown(IndexWriter writer, int maxSegments) {
+    if (maxSegments < 1) {
+      throw new IllegalArgumentException("maxSegments must be positive, got " + maxSegments);
+    }
+    MergeDownJob job = new MergeDownJob(writer, maxSegments);
+    Thread thread = new Thread(job::run, "merge-down");
+    thread.setDaemon(true);
+    thread.start();
+    return job;
+  }
+
+  private class ObservedMergePolicy extends TieredMergePolicy {
+
+    @Override
+    public MergeSpecification findMerges(MergeTrigger trigger, SegmentInfos infos, IndexWriter writer)
+        throws IOException {
+      observe(infos, writer);
+      return super.findMerges(trigger, infos, writer);
+    }
+
+    @Override
+    public MergeSpecification findForcedMerges(SegmentInfos infos, int maxSegmentCount,
+                                               Map<SegmentCommitInfo, Boolean> segmentsToMerge,
+                                               IndexWriter writer) throws IOException {
+      observe(infos, writer);
+      MergeSpecification spec = super.findForcedMerges(infos, maxSegmentCount, segmentsToMerge, writer);
+      if (spec != null) {
+        forced.addAll(spec.merges);
+      }
+      return spec;
+    }
+
+    private void observe(SegmentInfos infos, IndexWriter writer) {
+      int deleted = 0;
+      for (SegmentCommitInfo info : infos) {
+        deleted += writer.numDeletedDocs(info);
+      }
+      segmentCount = infos.size();
+      maxDoc = infos.totalMaxDoc();
+      deletedDocs = deleted;
+    }
+  }
+
+  private class TimedMergeScheduler extends ConcurrentMergeScheduler {
+
+    @Override
+    protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+      long bytes = merge.totalBytesSize();
+      int docs = merge.totalNumDocs();
+      long start = System.nanoTime();
+      running.add(merge);
+      try {
+        super.doMerge(writer, merge);
+      } finally {
+        running.remove(merge);
+        forced.remove(merge);
+        long elapsed = System.nanoTime() - start;
+        if (merge.isAborted()) {
+          abortedMerges.incrementAndGet();
+        } else {
+          merges.incrementAndGet();
+          bytesMerged.addAndGet(bytes);
+          docsMerged.addAndGet(docs);
+        }
+        mergeNanos.addAndGet(elapsed);
+        maxMergeNanos.accumulateAndGet(elapsed, Math::max);
+      }
+    }
+  }
+
+  /**
+   * A background merge down to a segment count.
+   */
+  public class MergeDownJob {
+    private final IndexWriter writer;
+    private final int maxSegments;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private volatile int steps;
+    private volatile Throwable failure;
+    private volatile long elapsedNanos;
+
+    MergeDownJob(IndexWriter writer, int maxSegments) {
+      this.writer = writer;
+      this.maxSegments = maxSegments;
+    }
+
+    private void run() {
+      try {
+        // the writer's view of the segments, also refreshes the metrics
+        writer.maybeMerge();
+        while (!cancelled && segmentCount > maxSegments) {
+          // one forced merge of at most maxMergeAtOnceExplicit of the smallest segments per step
+          int before = segmentCount;
+          int target = Math.max(maxSegments, before - mergePolicy.getMaxMergeAtOnceExplicit() + 1);
+          writer.forceMerge(target, true);
+          steps++;
+          writer.maybeMerge();
+          if (segmentCount >= before) {
+            break;
+          }
+        }
+      } catch (Throwable t) {
+        if (!cancelled) {
+          failure = t;
+        }
+      } finally {
+        elapsedNanos = System.nanoTime() - startNanos;
+        synchronized (this) {
+          done = true;
+          notifyAll();
+        }
+      }
+    }
+
+    /**
+     * Stops the job, aborting the merge it is running; segments already merged stay merged.
+     */
+    public void cancel() {
+      cancelled = true;
+      for (MergePolicy.OneMerge merge : forced) {
+        merge.setAborted();
+      }
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    public boolean isDone() {
+      return done;
+    }
+
+    /**
+     * Waits until the job finished or was cancelled, rethrowing its failure.
+     */
+    public void await() throws IOException, InterruptedException {
+      synchronized (this) {
+        while (!done) {
+          wait();
+        }
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      } else if (failure != null) {
+        throw new IOException("Merge down to " + maxSegments + " segments failed", failure);
+      }
+    }
+
+    public int getSteps() {
+      return steps;
+    }
+
+    public long getElapsedMillis() {
+      return (done ? elapsedNanos : System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("MergeDownJob<maxSegments=%d segments=%d steps=%d %s ms=%d>", maxSegments,
+          segmentCount, steps, cancelled ? "cancelled" : done ? "done" : "running", getElapsedMillis());
+    }
+  }
+
+  public long getMergeCount() {
+    return merges.get();
+  }
+
+  public long getAbortedMergeCount() {
+    return abortedMerges.get();
+  }
+
+  public int getRunningMergeCount() {
+    return running.size();
+  }
+
+  public long getMergeMillis() {
+    return mergeNanos.get() / 1_000_000;
+  }
+
+  public long getMaxMergeMillis() {
+    return maxMergeNanos.get() / 1_000_000;
+  }
+
+  /**
+   * Size of the segments that went into completed merges.
+   */
+  public long getBytesMerged() {
+    return bytesMerged.get();
+  }
+
+  public long getDocsMerged() {
+    return docsMerged.get();
+  }
+
+  public int getSegmentCount() {
+    return segmentCount;
+  }
+
+  public double getDeletedDocsRatio() {
+    int docs = maxDoc;
+    return docs == 0 ? 0 : (double) deletedDocs / docs;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("MergeManager<merges=%d aborted=%d running=%d mergeMs(total=%d max=%d) mbMerged=%.1f " +
+            "docsMerged=%d segments=%d deletedRatio=%.3f threads=%d ioThrottle=%s>", getMergeCount(),
+        getAbortedMergeCount(), getRunningMergeCount(), getMergeMillis(), getMaxMergeMillis(),
+        getBytesMerged() / 1024.0 / 1024.0, getDocsMerged(), getSegmentCount(), getDeletedDocsRatio(),
+        mergeScheduler.getMaxThreadCount(), mergeScheduler.getAutoIOThrottle());
+  }
+}
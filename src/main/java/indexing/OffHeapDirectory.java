@@ -0,0 +1,322 @@
+package indexing;
+
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.BaseDirectory;
+import org.apache.lucene.store.BufferedChecksum;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+import org.apache.lucene.util.Accountable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * An in-memory {@link org.apache.lucene.store.Directory} that keeps file contents in
+ * direct byte buffers outside the Java heap.
+ * <p>
+ * {@link org.apache.lucene.store.RAMDirectory} stores files as lists of 1 KB heap
+ * arrays, so a multi-GB index means millions of long lived objects for the collector
+ * to trace. Here files are written in 64 KB direct blocks and the last block is
+ * trimmed to size on close; the heap only holds the small buffer headers. Memory is
+ * released when a deleted file's buffers are collected, and the total is limited by
+ * {@code -XX:MaxDirectMemorySize}.
+ */
+public class OffHeapDirectory extends BaseDirectory implements Accountable {
+
+  private static final int BLOCK_BITS = 16;
+  private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+  private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+  private static final ByteBuffer[] NO_BLOCKS = new ByteBuffer[0];
+
+  private final Map<String, OffHeapFile> files = new ConcurrentHashMap<>();
+  private final AtomicLong bytesUsed = new AtomicLong();
+  private final AtomicLong tempFileCounter = new AtomicLong();
+
+  public OffHeapDirectory() {
+    super(new SingleInstanceLockFactory());
+  }
+
+  @Override
+  public String[] listAll() {
+    ensureOpen();
+    return files.keySet().stream().sorted().toArray(String[]::new);
+  }
+
+  @Override
+  public void deleteFile(String name) throws IOException {
+    ensureOpen();
+    OffHeapFile file = files.remove(name);
+    if (file == null) {
+      throw new NoSuchFileException(name);
+    }
+    bytesUsed.addAndGet(-file.capacity());
+  }
+
+  @Override
+  public long fileLength(String name) throws IOException {
+    ensureOpen();
+    return getFile(name).length;
+  }
+
+  @Override
+  public IndexOutput createOutput(String name, IOContext context) throws IOException {
+    ensureOpen();
+    OffHeapFile file = new OffHeapFile();
+    if (files.putIfAbsent(name, file) != null) {
+      throw new FileAlreadyExistsException(name);
+    }
+    return new OffHeapOutput(name, file);
+  }
+
+  @Override
+  public IndexOutput createTempOutput(String prefix, String suffix, IOContext context) throws IOException {
+    ensureOpen();
+    while (true) {
+      String name = IndexFileNames.segmentFileName(prefix,
+          suffix + "_" + Long.toString(tempFileCounter.getAndIncrement(), Character.MAX_RADIX), "tmp");
+      OffHeapFile file = new OffHeapFile();
+      if (files.putIfAbsent(name, file) == null) {
+        return new OffHeapOutput(name, file);
+      }
+    }
+  }
+
+  @Override
+  public void sync(Collection<String> names) {
+  }
+
+  @Override
+  public void rename(String source, String dest) throws IOException {
+    ensureOpen();
+    OffHeapFile file = getFile(source);
+    if (files.putIfAbsent(dest, file) != null) {
+      throw new FileAlreadyExistsException(dest);
+    }
+    files.remove(source);
+  }
+
+  @Override
+  public void syncMetaData() {
+  }
+
+  @Override
+  public IndexInput openInput(String name, IOContext context) throws IOException {
+    ensureOpen();
+    OffHeapFile file = getFile(name);
+    return new OffHeapInput("OffHeapInput(name=" + name + ")", file.blocks, 0, file.length);
+  }
+
+  @Override
+  public void close() {
+    isOpen = false;
+    files.clear();
+    bytesUsed.set(0);
+  }
+
+  /**
+   * Direct memory held by the files of this directory.
+   */
+  @Override
+  public long ramBytesUsed() {
+    return bytesUsed.get();
+  }
+
+  private OffHeapFile getFile(String name) throws IOException {
+    OffHeapFile file = files.get(name);
+    if (file == null) {
+      throw new NoSuchFileException(name);
+    }
+    return file;
+  }
+
+  private static final class OffHeapFile {
+    // published by the output on close, files are write once
+    volatile ByteBuffer[] blocks = NO_BLOCKS;
+    volatile long length;
+
+    long capacity() {
+      long capacity = 0;
+      for (ByteBuffer block : blocks) {
+        capacity += block.capacity();
+      }
+      return capacity;
+    }
+  }
+
+  private final class OffHeapOutput extends IndexOutput {
+    private final OffHeapFile file;
+    private final List<ByteBuffer> blocks = new ArrayList<>();
+    private final BufferedChecksum checksum = new BufferedChecksum(new CRC32());
+    private ByteBuffer current;
+    private long position;
+    private boolean closed;
+
+    OffHeapOutput(String name, OffHeapFile file) {
+      super("OffHeapOutput(name=" + name + ")", name);
+      this.file = file;
+    }
+
+    private void nextBlock() {
+      current = ByteBuffer.allocateDirect(BLOCK_SIZE);
+      blocks.add(current);
+      bytesUsed.addAndGet(BLOCK_SIZE);
+    }
+
+    @Override
+    public void writeByte(byte b) {
+      if (current == null || !current.hasRemaining()) {
+        nextBlock();
+      }
+      current.put(b);
+      checksum.update(b);
+      position++;
+    }
+
+    @Override
+    public void writeBytes(byte[] b, int offset, int length) {
+      checksum.update(b, offset, length);
+      position += length;
+      while (length > 0) {
+        if (current == null || !current.hasRemaining()) {
+          nextBlock();
+        }
+        int chunk = Math.min(length, current.remaining());
+        current.put(b, offset, chunk);
+        offset += chunk;
+        length -= chunk;
+      }
+    }
+
+    @Override
+    public long getFilePointer() {
+      return position;
+    }
+
+    @Override
+    public long getChecksum() {
+      return checksum.getValue();
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (current != null && current.position() < BLOCK_SIZE) {
+        // trim the tail so small files do not pin a whole block
+        ByteBuffer trimmed = ByteBuffer.allocateDirect(current.position());
+        current.flip();
+        trimmed.put(current);
+        blocks.set(blocks.size() - 1, trimmed);
+        bytesUsed.addAndGet(trimmed.capacity() - BLOCK_SIZE);
+      }
+      for (ByteBuffer block : blocks) {
+        block.clear();
+      }
+      file.length = position;
+      file.blocks = blocks.toArray(new ByteBuffer[blocks.size()]);
+      if (files.get(getName()) != file) {
+        // deleted while it was being written
+        bytesUsed.addAndGet(-file.capacity());
+      }
+    }
+  }
+
+  private static final class OffHeapInput extends IndexInput {
+    private final ByteBuffer[] blocks;
+    private final long offset;
+    private final long length;
+    private long position;
+    private boolean closed;
+
+    OffHeapInput(String description, ByteBuffer[] blocks, long offset, long length) {
+      super(description);
+      this.blocks = blocks;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+      if (position >= length) {
+        throw new EOFException("read past EOF: " + this);
+      }
+      long absolute = offset + position++;
+      // absolute gets keep the shared buffers free of position state
+      return blocks[(int) (absolute >>> BLOCK_BITS)].get((int) (absolute & BLOCK_MASK));
+    }
+
+    @Override
+    public void readBytes(byte[] b, int off, int len) throws IOException {
+      if (position + len > length) {
+        throw new EOFException("read past EOF: " + this);
+      }
+      long absolute = offset + position;
+      position += len;
+      while (len > 0) {
+        ByteBuffer block = blocks[(int) (absolute >>> BLOCK_BITS)].duplicate();
+        int blockOffset = (int) (absolute & BLOCK_MASK);
+        int chunk = Math.min(len, block.capacity() - blockOffset);
+        block.position(blockOffset);
+        block.get(b, off, chunk);
+        off += chunk;
+        len -= chunk;
+        absolute += chunk;
+      }
+    }
+
+    @Override
+    public long getFilePointer() {
+      return position;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+      if (pos < 0 || pos > length) {
+        throw new EOFException("seek past EOF: pos=" + pos + " " + this);
+      }
+      position = pos;
+    }
+
+    @Override
+    public long length() {
+      return length;
+    }
+
+    @Override
+    public IndexInput slice(String sliceDescription, long sliceOffset, long sliceLength) throws IOException {
+      if (sliceOffset < 0 || sliceLength < 0 || sliceOffset + sliceLength > length) {
+        throw new IllegalArgumentException("slice() " + sliceDescription + " out of bounds: " + this);
+      }
+      return new OffHeapInput(getFullSliceDescription(sliceDescription), blocks, offset + sliceOffset,
+          sliceLength);
+    }
+
+    @Override
+    public OffHeapInput clone() {
+      if (closed) {
+        throw new AlreadyClosedException("already closed: " + this);
+      }
+      return (OffHeapInput) super.clone();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
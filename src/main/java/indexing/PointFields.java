@@ -0,0 +1,129 @@
+package indexing;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.search.IndexOrDocValuesQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+
+/**
+ * Numeric fields indexed as points, the replacement of the legacy trie fields
+ * ({@code LegacyIntField}, {@code LegacyLongField}), and the queries to filter on them.
+ * <p>
+ * A point is only indexed, so the {@code add} methods also add a stored field and a
+ * single-valued {@link NumericDocValuesField} when asked. Ranges over a field with doc
+ * values can use {@link #intRange(String, int, int, boolean)}: the points are used when
+ * the range leads the query, doc values when another clause is much more selective.
+ */
+public final class PointFields {
+
+  private PointFields() {
+  }
+
+  public static void addInt(Document doc, String field, int value, Field.Store store, boolean docValues) {
+    doc.add(new IntPoint(field, value));
+    if (store == Field.Store.YES) {
+      doc.add(new StoredField(field, value));
+    }
+    if (docValues) {
+      doc.add(new NumericDocValuesField(field, value));
+    }
+  }
+
+  public static void addLong(Document doc, String field, long value, Field.Store store, boolean docValues) {
+    doc.add(new LongPoint(field, value));
+    if (store == Field.Store.YES) {
+      doc.add(new StoredField(field, value));
+    }
+    if (docValues) {
+      doc.add(new NumericDocValuesField(field, value));
+    }
+  }
+
+  public static Query intExact(String field, int value) {
+    return IntPoint.newExactQuery(field, value);
+  }
+
+  public static Query intSet(String field, int... values) {
+    return IntPoint.newSetQuery(field, values);
+  }
+
+  /**
+   * Documents with a value between {@code lower} and {@code upper}, both inclusive.
+   */
+  public static Query intRange(String field, int lower, int upper) {
+    return IntPoint.newRangeQuery(field, lower, upper);
+  }
+
+  /**
+   * @param docValues whether the field was added with doc values, which lets the range
+   *                  be verified per document instead of read from the points
+   */
+  public static Query intRange(String field, int lower, int upper, boolean docValues) {
+    Query points = intRange(field, lower, upper);
+    if (!docValues) {
+      return points;
+    }
+    return new IndexOrDocValuesQuery(points, NumericDocValuesField.newRangeQuery(field, lower, upper));
+  }
+
+  public static Query intRange(String field, int lower, boolean lowerInclusive, int upper, boolean upperInclusive) {
+    if (!lowerInclusive) {
+      if (lower == Integer.MAX_VALUE) {
+        return new MatchNoDocsQuery("empty range on " + field);
+      }
+      lower++;
+    }
+    if (!upperInclusive) {
+      if (upper == Integer.MIN_VALUE) {
+        return new MatchNoDocsQuery("empty range on " + field);
+      }
+      upper--;
+    }
+    return intRange(field, lower, upper);
+  }
+
+  public static Query longExact(String field, long value) {
+    return LongPoint.newExactQuery(field, value);
+  }
+
+  public static Query longSet(String field, long... values) {
+    return LongPoint.newSetQuery(field, values);
+  }
+
+  /**
+   * Documents with a value between {@code lower} and {@code upper}, both inclusive.
+   */
+  public static Query longRange(String field, long lower, long upper) {
+    return LongPoint.newRangeQuery(field, lower, upper);
+  }
+
+  public static Query longRange(String field, long lower, long upper, boolean docValues) {
+    Query points = longRange(field, lower, upper);
+    if (!docValues) {
+      return points;
+    }
+    return new IndexOrDocValuesQuery(points, NumericDocValuesField.newRangeQuery(field, lower, upper));
+  }
+
+  public static Query longRange(String field, long lower, boolean lowerInclusive, long upper,
+                                boolean upperInclusive) {
+    if (!lowerInclusive) {
+      if (lower == Long.MAX_VALUE) {
+        return new MatchNoDocsQuery("empty range on " + field);
+      }
+      lower++;
+    }
+    if (!upperInclusive) {
+      if (upper == Long.MIN_VALUE) {
+        return new MatchNoDocsQuery("empty range on " + field);
+      }
+      upper--;
+    }
+    return longRange(field, lower, upper);
+  }
+}
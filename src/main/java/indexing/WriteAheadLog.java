@@ -0,0 +1,493 @@
+package indexing;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.IndexableFieldType;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of keyed index operations, so that operations acknowledged after
+ * {@link #sync()} survive a crash before the next commit of the index.
+ * <p>
+ * The log is a sequence of files named after the sequence number of their first record.
+ * Every record holds its length, a CRC32 of its body, its sequence number, the operation,
+ * the key term and, for updates, the document. Replay stops at the first torn or corrupt
+ * record, the tail of a write that never completed. Operations are
+ * {@link org.apache.lucene.index.IndexWriter#updateDocument} and
+ * {@link org.apache.lucene.index.IndexWriter#deleteDocuments(Term...)} by key, so replaying
+ * a record that already made it into a commit is harmless.
+ * <p>
+ * Documents are logged field by field, with their {@link FieldType}, and must not use
+ * token stream or reader values.
+ */
+public class WriteAheadLog implements Closeable {
+
+  public enum Operation {UPDATE, DELETE}
+
+  private static final String PREFIX = "wal-";
+  private static final String SUFFIX = ".log";
+  // length, checksum and sequence number
+  private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES + Long.BYTES;
+  private static final int MAX_RECORD_BYTES = 256 * 1024 * 1024;
+
+  private static final byte STRING = 0;
+  private static final byte BYTES = 1;
+  private static final byte INT = 2;
+  private static final byte LONG = 3;
+  private static final byte FLOAT = 4;
+  private static final byte DOUBLE = 5;
+
+  private final Path dir;
+  // first sequence number of each file
+  private final TreeMap<Long, Path> files = new TreeMap<>();
+  private final CRC32 crc = new CRC32();
+  private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+  private final Object syncLock = new Object();
+  private FileChannel channel;
+  private long nextSeq;
+  private long syncedSeq;
+  private long appendedBytes;
+  private long syncs;
+  private Exception failure;
+
+  /**
+   * A logged operation, as returned by {@link #replay}.
+   */
+  public static final class Record {
+    public final long seq;
+    public final Operation operation;
+    public final Term key;
+    public final List<IndexableField> document;
+
+    Record(long seq, Operation operation, Term key, List<IndexableField> document) {
+      this.seq = seq;
+      this.operation = operation;
+      this.key = key;
+      this.document = document;
+    }
+  }
+
+  /**
+   * An operation serialized by {@link #encode}, waiting for its sequence number.
+   */
+  public static final class Entry {
+    private final byte[] bytes;
+
+    private Entry(byte[] bytes) {
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Opens the log in {@code dir}; new records are appended to a new file, numbered after
+   * the last intact record of the existing ones.
+   */
+  public WriteAheadLog(Path dir) throws IOException {
+    this.dir = Files.createDirectories(dir);
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+      for (Path file : stream) {
+        String name = file.getFileName().toString();
+        files.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+      }
+    }
+    long lastSeq = -1;
+    for (Record record : replay(-1)) {
+      lastSeq = record.seq;
+    }
+    this.nextSeq = lastSeq + 1;
+    this.syncedSeq = lastSeq;
+    roll();
+  }
+
+  /**
+   * Serializes an operation for {@link #append(Entry)}. This fails for a document the log
+   * cannot hold, so call it before the operation is applied to the index.
+   */
+  public static Entry encode(Operation operation, Term key, Iterable<? extends IndexableField> document)
+      throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(body);
+    out.writeByte(operation.ordinal());
+    writeString(out, key.field());
+    writeBytes(out, key.bytes());
+    if (operation == Operation.UPDATE) {
+      List<IndexableField> fields = new ArrayList<>();
+      for (IndexableField field : document) {
+        fields.add(field);
+      }
+      out.writeInt(fields.size());
+      for (IndexableField field : fields) {
+        writeField(out, field);
+      }
+    }
+    out.flush();
+    return new Entry(body.toByteArray());
+  }
+
+  /**
+   * Appends an operation and returns its sequence number. The record reaches the disk
+   * with the next {@link #sync()}.
+   * <p>
+   * A write that fails is cut off the file so the records after it stay readable; if that
+   * fails too, every further append fails.
+   */
+  public synchronized long append(Entry entry) throws IOException {
+    if (failure != null) {
+      throw new IOException("Write-ahead log is unusable after a failed write", failure);
+    }
+    long seq = nextSeq;
+    crc.reset();
+    header.clear();
+    header.putLong(Integer.BYTES + Long.BYTES, seq);
+    crc.update(header.array(), Integer.BYTES + Long.BYTES, Long.BYTES);
+    crc.update(entry.bytes, 0, entry.bytes.length);
+    header.putInt(0, Long.BYTES + entry.bytes.length).putLong(Integer.BYTES, crc.getValue());
+    long start = channel.position();
+    try {
+      writeFully(header);
+      writeFully(ByteBuffer.wrap(entry.bytes));
+    } catch (IOException | RuntimeException e) {
+      try {
+        channel.truncate(start);
+        channel.position(start);
+      } catch (IOException | RuntimeException truncateFailure) {
+        e.addSuppressed(truncateFailure);
+        failure = e;
+      }
+      throw e;
+    }
+    appendedBytes += HEADER_BYTES + entry.bytes.length;
+    nextSeq++;
+    return seq;
+  }
+
+  /**
+   * Makes the next record start at {@code seq} at least, when the index already holds
+   * operations that are no longer in the log.
+   */
+  public synchronized void skipTo(long seq) throws IOException {
+    if (seq > nextSeq) {
+      nextSeq = seq;
+      roll();
+    }
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Forces every appended record to disk and returns the last one's sequence number.
+   * Concurrent callers share a single fsync.
+   */
+  public long sync() throws IOException {
+    long target;
+    FileChannel current;
+    synchronized (this) {
+      target = nextSeq - 1;
+      current = channel;
+    }
+    synchronized (syncLock) {
+      // a roll forces and closes the file it replaces
+      if (syncedSeq >= target) {
+        return syncedSeq;
+      }
+      current.force(false);
+      syncs++;
+      syncedSeq = target;
+      return target;
+    }
+  }
+
+  /**
+   * Highest sequence number known to be on disk.
+   */
+  public long getSyncedSeq() {
+    synchronized (syncLock) {
+      return syncedSeq;
+    }
+  }
+
+  /**
+   * Number of fsyncs done by {@link #sync()}.
+   */
+  public long getSyncCount() {
+    synchronized (syncLock) {
+      return syncs;
+    }
+  }
+
+  public synchronized long getNextSeq() {
+    return nextSeq;
+  }
+
+  /**
+   * Bytes appended since the log was opened.
+   */
+  public synchronized long getAppendedBytes() {
+    return appendedBytes;
+  }
+
+  /**
+   * Starts a new file and deletes the ones whose records are all covered by a commit.
+   *
+   * @param committedSeq every operation up to this sequence number is in a commit
+   */
+  public synchronized void truncate(long committedSeq) throws IOException {
+    roll();
+    List<Long> firstSeqs = new ArrayList<>(files.keySet());
+    for (int i = 0; i + 1 < firstSeqs.size(); i++) {
+      // the records of a file end right before the first one of the next file
+      if (firstSeqs.get(i + 1) - 1 <= committedSeq) {
+        Files.deleteIfExists(files.remove(firstSeqs.get(i)));
+      }
+    }
+  }
+
+  private void roll() throws IOException {
+    if (channel != null) {
+      if (files.lastEntry().getKey() == nextSeq) {
+        // nothing was appended to the current file
+        return;
+      }
+      synchronized (syncLock) {
+        channel.force(false);
+        channel.close();
+        syncedSeq = Math.max(syncedSeq, nextSeq - 1);
+      }
+    }
+    Path file = dir.resolve(String.format("%s%020d%s", PREFIX, nextSeq, SUFFIX));
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    files.put(nextSeq, file);
+  }
+
+  /**
+   * Size of the log files on disk.
+   */
+  public synchronized long sizeInBytes() throws IOException {
+    long bytes = 0;
+    for (Path file : files.values()) {
+      bytes += Files.size(file);
+    }
+    return bytes;
+  }
+
+  /**
+   * The intact records with a sequence number above {@code afterSeq}, in order.
+   */
+  public synchronized List<Record> replay(long afterSeq) throws IOException {
+    List<Record> records = new ArrayList<>();
+    for (Path file : files.values()) {
+      try (InputStream in = Files.newInputStream(file)) {
+        DataInputStream data = new DataInputStream(in);
+        while (true) {
+          Record record = readRecord(data);
+          if (record == null) {
+            break;
+          }
+          if (record.seq > afterSeq) {
+            records.add(record);
+          }
+        }
+      }
+    }
+    return records;
+  }
+
+  private Record readRecord(DataInputStream in) throws IOException {
+    int length;
+    long checksum;
+    byte[] bytes;
+    try {
+      length = in.readInt();
+      checksum = in.readLong();
+      if (length < 0 || length > MAX_RECORD_BYTES) {
+        return null;
+      }
+      bytes = new byte[length];
+      in.readFully(bytes);
+    } catch (EOFException e) {
+      return null;
+    }
+    CRC32 check = new CRC32();
+    check.update(bytes, 0, length);
+    if (check.getValue() != checksum) {
+      return null;
+    }
+    DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+    long seq = data.readLong();
+    Operation operation = Operation.values()[data.readByte()];
+    Term key = new Term(readString(data), readBytes(data));
+    List<IndexableField> document = Collections.emptyList();
+    if (operation == Operation.UPDATE) {
+      int numFields = data.readInt();
+      document = new ArrayList<>(numFields);
+      for (int i = 0; i < numFields; i++) {
+        document.add(readField(data));
+      }
+    }
+    return new Record(seq, operation, key, document);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null && channel.isOpen()) {
+      channel.force(false);
+      channel.close();
+    }
+  }
+
+  private static void writeField(DataOutputStream out, IndexableField field) throws IOException {
+    IndexableFieldType type = field.fieldType();
+    writeString(out, field.name());
+    int flags = (type.stored() ? 1 : 0) | (type.tokenized() ? 2 : 0) | (type.storeTermVectors() ? 4 : 0) |
+        (type.storeTermVectorOffsets() ? 8 : 0) | (type.storeTermVectorPositions() ? 16 : 0) |
+        (type.storeTermVectorPayloads() ? 32 : 0) | (type.omitNorms() ? 64 : 0);
+    out.writeByte(flags);
+    out.writeByte(type.indexOptions().ordinal());
+    out.writeByte(type.docValuesType().ordinal());
+    out.writeByte(type.pointDimensionCount());
+    out.writeByte(type.pointNumBytes());
+    out.writeFloat(boost(field));
+    Number number = field.numericValue();
+    BytesRef bytes = field.binaryValue();
+    String string = field.stringValue();
+    if (bytes != null && type.pointDimensionCount() > 0) {
+      // points report their decoded value as numericValue but index the packed bytes
+      out.writeByte(BYTES);
+      writeBytes(out, bytes);
+    } else if (number instanceof Integer || number instanceof Short || number instanceof Byte) {
+      out.writeByte(INT);
+      out.writeInt(number.intValue());
+    } else if (number instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong(number.longValue());
+    } else if (number instanceof Float) {
+      out.writeByte(FLOAT);
+      out.writeFloat(number.floatValue());
+    } else if (number instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble(number.doubleValue());
+    } else if (bytes != null) {
+      out.writeByte(BYTES);
+      writeBytes(out, bytes);
+    } else if (string != null) {
+      out.writeByte(STRING);
+      writeString(out, string);
+    } else {
+      throw new IllegalArgumentException("Field " + field.name() + " has no value that can be logged");
+    }
+  }
+
+  // index-time boosts are deprecated but still change the norms of the fields that have them
+  @SuppressWarnings("deprecation")
+  private static float boost(IndexableField field) {
+    return field.boost();
+  }
+
+  private static IndexableField readField(DataInputStream in) throws IOException {
+    String name = readString(in);
+    int flags = in.readByte();
+    FieldType type = new FieldType();
+    type.setStored((flags & 1) != 0);
+    type.setTokenized((flags & 2) != 0);
+    type.setStoreTermVectors((flags & 4) != 0);
+    type.setStoreTermVectorOffsets((flags & 8) != 0);
+    type.setStoreTermVectorPositions((flags & 16) != 0);
+    type.setStoreTermVectorPayloads((flags & 32) != 0);
+    type.setOmitNorms((flags & 64) != 0);
+    type.setIndexOptions(IndexOptions.values()[in.readByte()]);
+    type.setDocValuesType(DocValuesType.values()[in.readByte()]);
+    int dimensions = in.readByte();
+    int numBytes = in.readByte();
+    if (dimensions > 0) {
+      type.setDimensions(dimensions, numBytes);
+    }
+    type.freeze();
+    float boost = in.readFloat();
+    Object value;
+    byte kind = in.readByte();
+    switch (kind) {
+      case INT:
+        value = in.readInt();
+        break;
+      case LONG:
+        value = in.readLong();
+        break;
+      case FLOAT:
+        value = in.readFloat();
+        break;
+      case DOUBLE:
+        value = in.readDouble();
+        break;
+      case BYTES:
+        value = readBytes(in);
+        break;
+      case STRING:
+        value = readString(in);
+        break;
+      default:
+        throw new IOException("Unknown value kind " + kind + " for field " + name);
+    }
+    return new LoggedField(name, type, value, boost);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeBytes(DataOutputStream out, BytesRef bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes.bytes, bytes.offset, bytes.length);
+  }
+
+  private static BytesRef readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new BytesRef(bytes);
+  }
+
+  private static final class LoggedField extends Field {
+    LoggedField(String name, FieldType type, Object value, float boost) {
+      super(name, type);
+      this.fieldsData = value;
+      this.boost = boost;
+    }
+  }
+}
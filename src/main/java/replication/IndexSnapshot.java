@@ -0,0 +1,115 @@
+package replication;
+
+import org.apache.lucene.index.DirectoryReader;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * A point-in-time view of the primary index that replicas copy: the names, lengths and
+ * checksums of the files of its segments and the serialized segment infos that tie them
+ * together.
+ * <p>
+ * The snapshot holds a near-real-time reader open on the primary, which keeps the writer
+ * from deleting its files while replicas copy them. Snapshots are handed out by
+ * {@link PrimaryIndex#acquire()} and must be given back with
+ * {@link PrimaryIndex#release(IndexSnapshot)}.
+ */
+public final class IndexSnapshot {
+
+  private final DirectoryReader reader;
+  private final Path path;
+  private final long version;
+  private final long generation;
+  private final Map<String, FileMetaData> files;
+  private final byte[] segmentInfos;
+  private final long publishedNanos;
+
+  IndexSnapshot(DirectoryReader reader, Path path, long version, long generation, Map<String, FileMetaData> files,
+                byte[] segmentInfos) {
+    this.reader = reader;
+    this.path = path;
+    this.version = version;
+    this.generation = generation;
+    this.files = files;
+    this.segmentInfos = segmentInfos;
+    this.publishedNanos = System.nanoTime();
+  }
+
+  DirectoryReader getReader() {
+    return reader;
+  }
+
+  /**
+   * The primary's index directory, where the files are read from.
+   */
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * The segment infos version, which grows with every change to the index.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public long getGeneration() {
+    return generation;
+  }
+
+  public Map<String, FileMetaData> getFiles() {
+    return files;
+  }
+
+  public long getSizeInBytes() {
+    long size = 0;
+    for (FileMetaData file : files.values()) {
+      size += file.getLength();
+    }
+    return size;
+  }
+
+  byte[] getSegmentInfos() {
+    return segmentInfos;
+  }
+
+  /**
+   * {@link System#nanoTime()} when the snapshot was published.
+   */
+  public long getPublishedNanos() {
+    return publishedNanos;
+  }
+
+  public int numDocs() {
+    return reader.numDocs();
+  }
+
+  /**
+   * The length of a file and the checksum in its footer. Segment names start over when an
+   * index is created again, so a replica compares both before it keeps a file it has.
+   */
+  public static final class FileMetaData {
+    private final long length;
+    private final long checksum;
+
+    FileMetaData(long length, long checksum) {
+      this.length = length;
+      this.checksum = checksum;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public long getChecksum() {
+      return checksum;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("IndexSnapshot<version=%d files=%d bytes=%d docs=%d>", version, files.size(),
+        getSizeInBytes(), numDocs());
+  }
+}
@@ -0,0 +1,173 @@
+package replication;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.StandardDirectoryReader;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.store.RAMFile;
+import org.apache.lucene.store.RAMOutputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The writing side of local index replication. After a commit or a near-real-time refresh
+ * the primary publishes an {@link IndexSnapshot} of the writer's current segments, including
+ * the ones that were flushed but not committed, and {@link ReplicaIndex}es copy the files
+ * they are missing.
+ * <p>
+ * Register it with {@link searching.ManagedSearcher#addListener} to publish on every
+ * refresh, or call {@link #publish()} after a commit. Deletes are written to the index
+ * with each snapshot so the replicas see them. The writer's directory must be a file
+ * system directory, possibly wrapped; an {@link NRTCachingDirectory} keeps new segments in
+ * memory, where replicas cannot read them.
+ */
+public class PrimaryIndex implements ReferenceManager.RefreshListener, Closeable {
+
+  private final IndexWriter writer;
+  private final Path path;
+  private IndexSnapshot current;
+  // checksums of the files of the current snapshot; files are never rewritten under the same name
+  private Map<String, IndexSnapshot.FileMetaData> files = new HashMap<>();
+  private final AtomicLong publishes = new AtomicLong();
+
+  public PrimaryIndex(IndexWriter writer) throws IOException {
+    this.writer = writer;
+    this.path = fileSystemPath(writer.getDirectory());
+    publish();
+  }
+
+  private static Path fileSystemPath(Directory directory) {
+    while (true) {
+      if (directory instanceof NRTCachingDirectory) {
+        throw new IllegalArgumentException("Cannot replicate from an NRTCachingDirectory, it keeps new segments " +
+            "in memory");
+      }
+      if (directory instanceof FSDirectory) {
+        return ((FSDirectory) directory).getDirectory();
+      }
+      if (!(directory instanceof FilterDirectory)) {
+        throw new IllegalArgumentException("Cannot replicate from " + directory + ", it is not on the file system");
+      }
+      directory = ((FilterDirectory) directory).getDelegate();
+    }
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Publishes the writer's current segments if they changed since the last snapshot, and
+   * returns the latest snapshot.
+   */
+  public synchronized IndexSnapshot publish() throws IOException {
+    DirectoryReader reader = current == null
+        ? DirectoryReader.open(writer, true, true)
+        : DirectoryReader.openIfChanged(current.getReader(), writer, true);
+    if (reader == null) {
+      return current;
+    }
+    IndexSnapshot previous = current;
+    try {
+      current = snapshot(reader);
+    } catch (IOException | RuntimeException e) {
+      reader.decRef();
+      throw e;
+    }
+    publishes.incrementAndGet();
+    if (previous != null) {
+      // replicas still copying hold their own reference
+      previous.getReader().decRef();
+    }
+    return current;
+  }
+
+  private IndexSnapshot snapshot(DirectoryReader reader) throws IOException {
+    SegmentInfos infos = ((StandardDirectoryReader) reader).getSegmentInfos();
+    Directory directory = writer.getDirectory();
+    Map<String, IndexSnapshot.FileMetaData> files = new LinkedHashMap<>();
+    for (String file : infos.files(false)) {
+      IndexSnapshot.FileMetaData metaData = this.files.get(file);
+      if (metaData == null) {
+        try (IndexInput in = directory.openInput(file, IOContext.READONCE)) {
+          metaData = new IndexSnapshot.FileMetaData(in.length(), CodecUtil.retrieveChecksum(in));
+        }
+      }
+      files.put(file, metaData);
+    }
+    this.files = new HashMap<>(files);
+    RAMOutputStream out = new RAMOutputStream("segments", new RAMFile(), true);
+    infos.write(directory, out);
+    byte[] bytes = new byte[(int) out.getFilePointer()];
+    out.writeTo(bytes, 0);
+    out.close();
+    return new IndexSnapshot(reader, path, infos.getVersion(), infos.getGeneration(),
+        Collections.unmodifiableMap(files), bytes);
+  }
+
+  /**
+   * The latest snapshot, kept alive until it is released.
+   */
+  public synchronized IndexSnapshot acquire() {
+    if (current == null) {
+      throw new IllegalStateException("Primary index is closed");
+    }
+    current.getReader().incRef();
+    return current;
+  }
+
+  public void release(IndexSnapshot snapshot) throws IOException {
+    snapshot.getReader().decRef();
+  }
+
+  public synchronized long getVersion() {
+    return current == null ? -1 : current.getVersion();
+  }
+
+  synchronized long getPublishedNanos() {
+    return current == null ? 0 : current.getPublishedNanos();
+  }
+
+  public long getPublishCount() {
+    return publishes.get();
+  }
+
+  @Override
+  public void beforeRefresh() {
+  }
+
+  @Override
+  public void afterRefresh(boolean didRefresh) throws IOException {
+    if (didRefresh) {
+      publish();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("PrimaryIndex<path=%s publishes=%d current=%s>", path, getPublishCount(), current);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (current != null) {
+      current.getReader().decRef();
+      current = null;
+    }
+  }
+}
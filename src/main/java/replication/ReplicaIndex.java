@@ -0,0 +1,388 @@
+package replication;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.StandardDirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.BufferedChecksumIndexInput;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RAMFile;
+import org.apache.lucene.store.RAMInputStream;
+import org.apache.lucene.store.RAMOutputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-only copy of a {@link PrimaryIndex} in another directory, searched through
+ * reference counted searchers like {@link searching.ManagedSearcher}.
+ * <p>
+ * A sync takes the primary's latest {@link IndexSnapshot}, copies the files the replica
+ * does not have yet with {@link FileChannel#transferTo}, which lets the kernel move the
+ * bytes without passing them through the heap, and opens a reader on the copied segments,
+ * reusing the segment readers that did not change. Lucene never rewrites a file, so a file
+ * that is already there with the same length and checksum is not copied again; after a
+ * restart only the segments written in the meantime are copied. Files are deleted when no open reader
+ * uses them any more; those of the last snapshot stay when the replica is closed.
+ * <p>
+ * The replica has no commit point of its own and is opened from the primary on start.
+ */
+public class ReplicaIndex implements Closeable {
+
+  private static final String PARTIAL_SUFFIX = ".copying";
+
+  private final PrimaryIndex primary;
+  private final Path path;
+  private final Directory directory;
+  private final SearcherFactory searcherFactory;
+  private final ReplicaSearcherManager manager;
+  private final ScheduledExecutorService syncer;
+  // open readers using each file
+  private final Map<String, Integer> fileReferences = new HashMap<>();
+  private volatile long version = -1;
+  private volatile boolean closing;
+  private DirectoryReader pending;
+
+  private final AtomicLong syncs = new AtomicLong();
+  private final AtomicLong filesCopied = new AtomicLong();
+  private final AtomicLong filesReused = new AtomicLong();
+  private final AtomicLong bytesCopied = new AtomicLong();
+  private final AtomicLong filesDeleted = new AtomicLong();
+  private final AtomicLong lastSyncMillis = new AtomicLong();
+  private final AtomicLong lastLagMillis = new AtomicLong();
+
+  /**
+   * @param syncIntervalMillis how often to copy the primary's latest snapshot, or 0 to only
+   *                           sync on demand
+   */
+  public ReplicaIndex(PrimaryIndex primary, Path path, SearcherFactory searcherFactory,
+                      long syncIntervalMillis) throws IOException {
+    this.primary = primary;
+    this.path = path;
+    this.searcherFactory = searcherFactory;
+    Files.createDirectories(path);
+    deletePartialCopies();
+    this.directory = new MMapDirectory(path);
+    IndexSnapshot snapshot = primary.acquire();
+    try {
+      DirectoryReader reader = copyAndOpen(snapshot, null);
+      this.manager = new ReplicaSearcherManager(SearcherManager.getSearcher(searcherFactory, reader, null));
+    } finally {
+      primary.release(snapshot);
+    }
+    deleteUnreferencedFiles();
+    if (syncIntervalMillis > 0) {
+      syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "replica-sync-" + path.getFileName());
+        thread.setDaemon(true);
+        return thread;
+      });
+      syncer.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis,
+          TimeUnit.MILLISECONDS);
+    } else {
+      syncer = null;
+    }
+  }
+
+  private void deletePartialCopies() throws IOException {
+    try (DirectoryStream<Path> partial = Files.newDirectoryStream(path, "*" + PARTIAL_SUFFIX)) {
+      for (Path file : partial) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  // files of snapshots the replica no longer needs, left from before a restart
+  private void deleteUnreferencedFiles() throws IOException {
+    synchronized (fileReferences) {
+      for (String file : directory.listAll()) {
+        if (!fileReferences.containsKey(file)) {
+          directory.deleteFile(file);
+          filesDeleted.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Copies the primary's latest snapshot if it is newer than the replica's and switches
+   * the searchers to it. Returns whether the replica changed.
+   */
+  public synchronized boolean sync() throws IOException {
+    IndexSnapshot snapshot = primary.acquire();
+    try {
+      if (snapshot.getVersion() == version) {
+        return false;
+      }
+      IndexSearcher current = manager.acquire();
+      try {
+        pending = copyAndOpen(snapshot, (DirectoryReader) current.getIndexReader());
+      } finally {
+        manager.release(current);
+      }
+      manager.maybeRefreshBlocking();
+      lastLagMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - snapshot.getPublishedNanos()));
+      return true;
+    } finally {
+      primary.release(snapshot);
+    }
+  }
+
+  private void syncQuietly() {
+    try {
+      sync();
+    } catch (Exception e) {
+      System.err.println("Replica sync of " + path + " failed: " + e);
+    }
+  }
+
+  private DirectoryReader copyAndOpen(IndexSnapshot snapshot, DirectoryReader previous) throws IOException {
+    long start = System.nanoTime();
+    for (Map.Entry<String, IndexSnapshot.FileMetaData> file : snapshot.getFiles().entrySet()) {
+      if (isCopied(file.getKey(), file.getValue())) {
+        filesReused.incrementAndGet();
+      } else {
+        copy(snapshot.getPath().resolve(file.getKey()), path.resolve(file.getKey()), file.getValue().getLength());
+      }
+    }
+    SegmentInfos infos = readSegmentInfos(snapshot);
+    List<LeafReader> reusable = new ArrayList<>();
+    if (previous != null) {
+      for (LeafReaderContext leaf : previous.leaves()) {
+        reusable.add(leaf.reader());
+      }
+    }
+    DirectoryReader reader = StandardDirectoryReader.open(directory, infos, reusable);
+    reference(infos.files(false), reader);
+    version = snapshot.getVersion();
+    syncs.incrementAndGet();
+    lastSyncMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return reader;
+  }
+
+  private boolean isCopied(String file, IndexSnapshot.FileMetaData metaData) throws IOException {
+    synchronized (fileReferences) {
+      if (fileReferences.containsKey(file)) {
+        // in use by an open reader, so it was checked when it was copied
+        return true;
+      }
+    }
+    Path target = path.resolve(file);
+    if (!Files.exists(target) || Files.size(target) != metaData.getLength()) {
+      return false;
+    }
+    try (IndexInput in = directory.openInput(file, IOContext.READONCE)) {
+      return CodecUtil.retrieveChecksum(in) == metaData.getChecksum();
+    } catch (CorruptIndexException e) {
+      return false;
+    }
+  }
+
+  // copied under a temporary name so a crash never leaves a short file with the real name
+  private void copy(Path source, Path target, long length) throws IOException {
+    Path partial = target.resolveSibling(target.getFileName() + PARTIAL_SUFFIX);
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+             StandardOpenOption.TRUNCATE_EXISTING)) {
+      long position = 0;
+      while (position < length) {
+        long transferred = in.transferTo(position, length - position, out);
+        if (transferred <= 0) {
+          throw new IOException("Primary file " + source + " ended at " + position + " of " + length + " bytes");
+        }
+        position += transferred;
+      }
+      out.force(true);
+    }
+    Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+    filesCopied.incrementAndGet();
+    bytesCopied.addAndGet(length);
+  }
+
+  private SegmentInfos readSegmentInfos(IndexSnapshot snapshot) throws IOException {
+    byte[] bytes = snapshot.getSegmentInfos();
+    RAMFile file = new RAMFile();
+    try (RAMOutputStream out = new RAMOutputStream(file, false)) {
+      out.writeBytes(bytes, 0, bytes.length);
+    }
+    try (ChecksumIndexInput in = new BufferedChecksumIndexInput(new RAMInputStream("segments", file))) {
+      return SegmentInfos.readCommit(directory, in, snapshot.getGeneration());
+    }
+  }
+
+  private void reference(Collection<String> files, IndexReader reader) {
+    synchronized (fileReferences) {
+      for (String file : files) {
+        fileReferences.merge(file, 1, Integer::sum);
+      }
+    }
+    reader.addReaderClosedListener(closed -> release(files));
+  }
+
+  // called by whichever thread releases the last searcher on a reader, not under the sync lock
+  private void release(Collection<String> files) {
+    synchronized (fileReferences) {
+      for (String file : files) {
+        if (fileReferences.merge(file, -1, Integer::sum) == 0) {
+          fileReferences.remove(file);
+          if (closing) {
+            // kept for the next start
+            continue;
+          }
+          try {
+            directory.deleteFile(file);
+            filesDeleted.incrementAndGet();
+          } catch (IOException e) {
+            System.err.println("Could not delete replica file " + file + ": " + e);
+          }
+        }
+      }
+    }
+  }
+
+  public IndexSearcher acquire() throws IOException {
+    return manager.acquire();
+  }
+
+  public void release(IndexSearcher searcher) throws IOException {
+    manager.release(searcher);
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * How long the newest snapshot of the primary has been waiting to be copied, or 0 when
+   * the replica is up to date.
+   */
+  public long getLagMillis() {
+    long published = primary.getPublishedNanos();
+    return primary.getVersion() == version ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - published);
+  }
+
+  /**
+   * Time from the publication of the last copied snapshot until it was searchable.
+   */
+  public long getLastLagMillis() {
+    return lastLagMillis.get();
+  }
+
+  public long getLastSyncMillis() {
+    return lastSyncMillis.get();
+  }
+
+  public long getSyncCount() {
+    return syncs.get();
+  }
+
+  public long getFilesCopied() {
+    return filesCopied.get();
+  }
+
+  /**
+   * Files of a snapshot that the replica already had.
+   */
+  public long getFilesReused() {
+    return filesReused.get();
+  }
+
+  public long getBytesCopied() {
+    return bytesCopied.get();
+  }
+
+  public long getFilesDeleted() {
+    return filesDeleted.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ReplicaIndex<path=%s version=%d syncs=%d copied=%d files/%d bytes reused=%d deleted=%d " +
+            "lastSync=%dms lastLag=%dms lag=%dms>", path, getVersion(), getSyncCount(), getFilesCopied(),
+        getBytesCopied(), getFilesReused(), getFilesDeleted(), getLastSyncMillis(), getLastLagMillis(),
+        getLagMillis());
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (syncer != null) {
+      syncer.shutdownNow();
+    }
+    closing = true;
+    synchronized (this) {
+      if (pending != null) {
+        pending.close();
+        pending = null;
+      }
+      manager.close();
+    }
+    directory.close();
+  }
+
+  /**
+   * Switches to the reader of the last sync on refresh.
+   */
+  private final class ReplicaSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    ReplicaSearcherManager(IndexSearcher searcher) {
+      current = searcher;
+    }
+
+    @Override
+    protected void decRef(IndexSearcher reference) throws IOException {
+      reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+      DirectoryReader reader;
+      synchronized (ReplicaIndex.this) {
+        reader = pending;
+        pending = null;
+      }
+      return reader == null ? null
+          : SearcherManager.getSearcher(searcherFactory, reader, referenceToRefresh.getIndexReader());
+    }
+
+    @Override
+    protected boolean tryIncRef(IndexSearcher reference) {
+      return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected int getRefCount(IndexSearcher reference) {
+      return reference.getIndexReader().getRefCount();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package replication;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Assert;
+import searching.ManagedSearcher;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Replicates an index between two directories on this machine: batches are added, updated
+ * and deleted on the primary and published on each refresh of its searcher, and after
+ * every sync the replica must find the same documents.
+ */
+public class ReplicationTest {
+  private static final Path PRIMARY_DIR = Paths.get("/tmp/luceneidx_replication_primary");
+  private static final Path REPLICA_DIR = Paths.get("/tmp/luceneidx_replication_replica");
+  private static final int ROUNDS = 5;
+  private static final int DOCS_PER_ROUND = 20_000;
+
+  public static void main(String args[]) throws Exception {
+    IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer())
+        .setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    try (FSDirectory directory = FSDirectory.open(PRIMARY_DIR);
+         IndexWriter writer = new IndexWriter(directory, config);
+         PrimaryIndex primary = new PrimaryIndex(writer);
+         ManagedSearcher searcher = new ManagedSearcher(writer, 0)) {
+      searcher.addListener(primary);
+      ReplicaIndex replica = new ReplicaIndex(primary, REPLICA_DIR, new SearcherFactory(), 0);
+      try {
+        int nextId = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+          for (int i = 0; i < DOCS_PER_ROUND; i++, nextId++) {
+            writer.addDocument(document(nextId, "round" + round));
+          }
+          // rewrites half of the previous round and deletes a tenth of it
+          for (int id = nextId - 2 * DOCS_PER_ROUND; round > 0 && id < nextId - DOCS_PER_ROUND; id += 2) {
+            writer.updateDocument(new Term("id", Integer.toString(id)), document(id, "updated"));
+          }
+          for (int id = nextId - 2 * DOCS_PER_ROUND + 1; round > 0 && id < nextId - DOCS_PER_ROUND; id += 10) {
+            writer.deleteDocuments(new Term("id", Integer.toString(id)));
+          }
+          searcher.maybeRefreshBlocking();
+          syncAndCheck("refresh " + round, searcher, replica);
+        }
+        writer.commit();
+        writer.forceMerge(1);
+        searcher.maybeRefreshBlocking();
+        syncAndCheck("merged", searcher, replica);
+      } finally {
+        replica.close();
+      }
+
+      // a restarted replica only copies what changed while it was down
+      writer.addDocument(document(-1, "restart"));
+      searcher.maybeRefreshBlocking();
+      replica = new ReplicaIndex(primary, REPLICA_DIR, new SearcherFactory(), 0);
+      try {
+        syncAndCheck("restarted", searcher, replica);
+      } finally {
+        replica.close();
+      }
+      System.out.println(primary);
+    }
+  }
+
+  private static Document document(int id, String body) {
+    Document doc = new Document();
+    doc.add(new StringField("id", Integer.toString(id), Field.Store.YES));
+    doc.add(new TextField("body", body + " document number " + id, Field.Store.YES));
+    return doc;
+  }
+
+  private static void syncAndCheck(String step, ManagedSearcher primary, ReplicaIndex replica) throws IOException {
+    long bytesBefore = replica.getBytesCopied();
+    replica.sync();
+    IndexSearcher expected = primary.acquire();
+    IndexSearcher actual = replica.acquire();
+    try {
+      Assert.assertEquals(expected.getIndexReader().numDocs(), actual.getIndexReader().numDocs());
+      for (String term : new String[]{"updated", "round0", "restart"}) {
+        TermQuery query = new TermQuery(new Term("body", term));
+        Assert.assertEquals(step + " " + term, expected.count(query), actual.count(query));
+      }
+      System.out.println(String.format("%-10s docs=%d copied=%d bytes %s", step, actual.getIndexReader().numDocs(),
+          replica.getBytesCopied() - bytesBefore, replica));
+    } finally {
+      primary.release(expected);
+      replica.release(actual);
+    }
+  }
+}
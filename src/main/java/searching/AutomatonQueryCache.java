@@ -0,0 +1,249 @@
+package searching;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.WildcardQuery;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of wildcard and fuzzy queries, keyed by field and pattern.
+ * <p>
+ * A {@link WildcardQuery} parses, determinizes and compiles its pattern into an automaton
+ * when it is constructed, and a {@link FuzzyQuery} builds its Levenshtein automata on
+ * every execution; the cached queries are compiled once and can be run by any number of
+ * searches at the same time. Fuzzy queries are cached as {@link CompiledFuzzyQuery}.
+ * <p>
+ * A field can be given a companion field indexed with
+ * {@link analysis.ReversedTokenAnalyzer}: a pattern whose literal suffix is longer than its
+ * literal prefix, {@code *ington}, is then reversed and run on the companion, where it
+ * becomes a prefix scan, {@code notgni*}, instead of a walk of the whole term dictionary.
+ */
+public class AutomatonQueryCache {
+
+  private static final char WILDCARD_STRING = '*';
+  private static final char WILDCARD_CHAR = '?';
+  private static final char WILDCARD_ESCAPE = '\\';
+
+  private final int maxEntries;
+  private final Map<String, String> reversedFields = new ConcurrentHashMap<>();
+  private final LinkedHashMap<Key, Query> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong reversed = new AtomicLong();
+  private final AtomicLong compileNanos = new AtomicLong();
+
+  public AutomatonQueryCache(int maxEntries) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries must be positive, got " + maxEntries);
+    }
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Runs the leading-wildcard patterns on {@code field} against {@code reversedField}, which
+   * must hold the same text analyzed with {@link analysis.ReversedTokenAnalyzer}.
+   */
+  public void setReversedField(String field, String reversedField) {
+    reversedFields.put(field, reversedField);
+    // patterns on the field compiled before are not reversed
+    clear();
+  }
+
+  public Query wildcard(String field, String pattern) {
+    Key key = new Key(Key.WILDCARD, field, pattern, 0, 0);
+    Query query = get(key);
+    return query != null ? query : put(key, compileWildcard(field, pattern));
+  }
+
+  public Query fuzzy(String field, String text) {
+    return fuzzy(field, text, FuzzyQuery.defaultMaxEdits, FuzzyQuery.defaultPrefixLength);
+  }
+
+  public Query fuzzy(String field, String text, int maxEdits, int prefixLength) {
+    Key key = new Key(Key.FUZZY, field, text, maxEdits, prefixLength);
+    Query query = get(key);
+    if (query != null) {
+      return query;
+    }
+    long start = System.nanoTime();
+    query = new CompiledFuzzyQuery(new Term(field, text), maxEdits, prefixLength, FuzzyQuery.defaultMaxExpansions,
+        FuzzyQuery.defaultTranspositions);
+    compileNanos.addAndGet(System.nanoTime() - start);
+    return put(key, query);
+  }
+
+  private Query compileWildcard(String field, String pattern) {
+    long start = System.nanoTime();
+    try {
+      List<String> units = units(pattern);
+      String reversedField = reversedFields.get(field);
+      if (reversedField == null || literalSuffix(units) <= literalPrefix(units)) {
+        return new WildcardQuery(new Term(field, pattern));
+      }
+      reversed.incrementAndGet();
+      List<String> reversedUnits = new ArrayList<>(units.size());
+      for (int i = units.size() - 1; i >= 0; i--) {
+        reversedUnits.add(units.get(i));
+      }
+      int prefix = literalPrefix(reversedUnits);
+      if (prefix == reversedUnits.size() - 1 && reversedUnits.get(prefix).charAt(0) == WILDCARD_STRING) {
+        return new PrefixQuery(new Term(reversedField, unescape(reversedUnits.subList(0, prefix))));
+      }
+      return new WildcardQuery(new Term(reversedField, String.join("", reversedUnits)));
+    } finally {
+      compileNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  // code points, escaped characters with their escape, so the pattern can be reversed
+  private static List<String> units(String pattern) {
+    List<String> units = new ArrayList<>(pattern.length());
+    for (int i = 0; i < pattern.length(); ) {
+      int length = Character.charCount(pattern.codePointAt(i));
+      if (pattern.charAt(i) == WILDCARD_ESCAPE && i + length < pattern.length()) {
+        length += Character.charCount(pattern.codePointAt(i + length));
+      }
+      units.add(pattern.substring(i, i + length));
+      i += length;
+    }
+    return units;
+  }
+
+  private static boolean isWildcard(String unit) {
+    return unit.length() == 1 && (unit.charAt(0) == WILDCARD_STRING || unit.charAt(0) == WILDCARD_CHAR);
+  }
+
+  private static int literalPrefix(List<String> units) {
+    int i = 0;
+    while (i < units.size() && !isWildcard(units.get(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int literalSuffix(List<String> units) {
+    int i = units.size();
+    while (i > 0 && !isWildcard(units.get(i - 1))) {
+      i--;
+    }
+    return units.size() - i;
+  }
+
+  private static String unescape(List<String> units) {
+    StringBuilder text = new StringBuilder();
+    for (String unit : units) {
+      text.append(unit.length() > 1 && unit.charAt(0) == WILDCARD_ESCAPE ? unit.substring(1) : unit);
+    }
+    return text.toString();
+  }
+
+  private synchronized Query get(Key key) {
+    Query query = cache.get(key);
+    if (query != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return query;
+  }
+
+  // two threads missing on the same key both compile, the first query put wins
+  private synchronized Query put(Key key, Query query) {
+    Query previous = cache.putIfAbsent(key, query);
+    if (previous != null) {
+      return previous;
+    }
+    Iterator<Query> eldest = cache.values().iterator();
+    while (cache.size() > maxEntries) {
+      eldest.next();
+      eldest.remove();
+      evictions.incrementAndGet();
+    }
+    return query;
+  }
+
+  public synchronized void clear() {
+    cache.clear();
+  }
+
+  public synchronized int size() {
+    return cache.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Number of compiled patterns that were run against a reversed field.
+   */
+  public long getReversedCount() {
+    return reversed.get();
+  }
+
+  public long getCompileMillis() {
+    return compileNanos.get() / 1_000_000;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("AutomatonQueryCache<entries=%d hits=%d misses=%d evictions=%d reversed=%d compileMs=%d>",
+        size(), getHitCount(), getMissCount(), getEvictionCount(), getReversedCount(), getCompileMillis());
+  }
+
+  private static final class Key {
+    static final int WILDCARD = 0;
+    static final int FUZZY = 1;
+
+    final int type;
+    final String field;
+    final String text;
+    final int maxEdits;
+    final int prefixLength;
+    final int hashCode;
+
+    Key(int type, String field, String text, int maxEdits, int prefixLength) {
+      this.type = type;
+      this.field = field;
+      this.text = text;
+      this.maxEdits = maxEdits;
+      this.prefixLength = prefixLength;
+      this.hashCode = Objects.hash(type, field, text, maxEdits, prefixLength);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return type == other.type && maxEdits == other.maxEdits && prefixLength == other.prefixLength &&
+          field.equals(other.field) && text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package searching;
+
+import org.apache.lucene.index.FilteredTermsEnum;
+import org.apache.lucene.index.SingleTermsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BoostAttribute;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.UnicodeUtil;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Matches the same terms as a {@link FuzzyQuery}, with the same boosts, but builds its
+ * Levenshtein automata once, in the constructor, instead of on every execution.
+ * <p>
+ * Instances are immutable, so one can be kept in an {@link AutomatonQueryCache} and run
+ * concurrently by any number of searches. Unlike {@link FuzzyQuery} the automaton is not
+ * narrowed down while the top terms are collected.
+ */
+public class CompiledFuzzyQuery extends MultiTermQuery {
+
+  private final Term term;
+  private final int maxEdits;
+  private final int prefixLength;
+  private final boolean transpositions;
+  private final int termLength;
+  // automata[i] accepts the terms within i edits
+  private final CompiledAutomaton[] automata;
+
+  public CompiledFuzzyQuery(Term term) {
+    this(term, FuzzyQuery.defaultMaxEdits, FuzzyQuery.defaultPrefixLength, FuzzyQuery.defaultMaxExpansions,
+        FuzzyQuery.defaultTranspositions);
+  }
+
+  public CompiledFuzzyQuery(Term term, int maxEdits, int prefixLength, int maxExpansions, boolean transpositions) {
+    super(term.field());
+    if (maxEdits < 0 || maxEdits > LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE) {
+      throw new IllegalArgumentException("maxEdits must be between 0 and " +
+          LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE);
+    }
+    if (prefixLength < 0) {
+      throw new IllegalArgumentException("prefixLength cannot be negative.");
+    }
+    this.term = term;
+    this.maxEdits = maxEdits;
+    this.prefixLength = prefixLength;
+    this.transpositions = transpositions;
+    setRewriteMethod(new MultiTermQuery.TopTermsBlendedFreqScoringRewrite(maxExpansions));
+
+    String text = term.text();
+    int[] codePoints = text.codePoints().toArray();
+    this.termLength = codePoints.length;
+    int prefixCodePoints = Math.min(prefixLength, termLength);
+    String prefix = new String(codePoints, 0, prefixCodePoints);
+    LevenshteinAutomata builder = new LevenshteinAutomata(
+        new String(codePoints, prefixCodePoints, termLength - prefixCodePoints), transpositions);
+    this.automata = new CompiledAutomaton[maxEdits + 1];
+    for (int i = 0; i <= maxEdits; i++) {
+      automata[i] = new CompiledAutomaton(builder.toAutomaton(i, prefix), true, false);
+    }
+  }
+
+  @Override
+  protected TermsEnum getTermsEnum(Terms terms, AttributeSource atts) throws IOException {
+    if (maxEdits == 0 || prefixLength >= termLength) {
+      return new SingleTermsEnum(terms.iterator(), term.bytes());
+    }
+    return new EditDistanceTermsEnum(automata[maxEdits].getTermsEnum(terms));
+  }
+
+  public Term getTerm() {
+    return term;
+  }
+
+  @Override
+  public String toString(String field) {
+    StringBuilder buffer = new StringBuilder();
+    if (!term.field().equals(field)) {
+      buffer.append(term.field()).append(':');
+    }
+    return buffer.append(term.text()).append('~').append(maxEdits).toString();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!super.equals(other)) {
+      return false;
+    }
+    CompiledFuzzyQuery query = (CompiledFuzzyQuery) other;
+    return maxEdits == query.maxEdits && prefixLength == query.prefixLength &&
+        transpositions == query.transpositions && term.equals(query.term);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * super.hashCode() + Objects.hash(term, maxEdits, prefixLength, transpositions);
+  }
+
+  /**
+   * Boosts each accepted term by its similarity to the query term, as FuzzyQuery does.
+   */
+  private final class EditDistanceTermsEnum extends FilteredTermsEnum {
+    private final BoostAttribute boostAtt = attributes().addAttribute(BoostAttribute.class);
+
+    EditDistanceTermsEnum(TermsEnum tenum) {
+      super(tenum, false);
+    }
+
+    @Override
+    protected AcceptStatus accept(BytesRef candidate) {
+      // the enum only returns terms accepted by automata[maxEdits]
+      int edits = maxEdits;
+      while (edits > 0 && automata[edits - 1].runAutomaton.run(candidate.bytes, candidate.offset,
+          candidate.length)) {
+        edits--;
+      }
+      if (edits == 0) {
+        boostAtt.setBoost(1.0f);
+      } else {
+        int minTermLength = Math.max(1, Math.min(UnicodeUtil.codePointCount(candidate), termLength));
+        boostAtt.setBoost(1.0f - (float) edits / minTermLength);
+      }
+      return AcceptStatus.YES;
+    }
+  }
+}
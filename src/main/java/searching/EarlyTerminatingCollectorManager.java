@@ -0,0 +1,101 @@
+package searching;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.EarlyTerminatingSortingCollector;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopFieldDocs;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Collects the top hits for a sort, stopping early in every segment whose index sort
+ * starts with the requested sort: once such a segment produced {@code numHits} hits, the
+ * rest of it cannot compete. Segments sorted differently, or not at all, are collected in
+ * full, so the manager can be used for any sort.
+ * <p>
+ * A segment that stopped early contributes only the hits it collected to
+ * {@link TopDocs#totalHits}. Use {@link #search(IndexSearcher, Query, int, Sort, boolean)}
+ * to get the exact count with a separate, cheaper, counting pass when it is needed.
+ */
+public class EarlyTerminatingCollectorManager
+    implements CollectorManager<EarlyTerminatingCollectorManager.SortedCollector, TopFieldDocs> {
+
+  private final Sort sort;
+  private final int numHits;
+  private volatile boolean terminatedEarly;
+
+  public EarlyTerminatingCollectorManager(Sort sort, int numHits) {
+    this.sort = sort;
+    this.numHits = numHits;
+  }
+
+  /**
+   * Sorted top hits of the query.
+   *
+   * @param trackTotalHits whether {@link TopDocs#totalHits} must be exact even when
+   *                       segments stopped early; counting all matches costs an extra pass
+   */
+  public static TopFieldDocs search(IndexSearcher searcher, Query query, int numHits, Sort sort,
+                                    boolean trackTotalHits) throws IOException {
+    EarlyTerminatingCollectorManager manager = new EarlyTerminatingCollectorManager(sort, numHits);
+    TopFieldDocs topDocs = searcher.search(query, manager);
+    if (trackTotalHits && manager.terminatedEarly()) {
+      topDocs.totalHits = searcher.count(query);
+    }
+    return topDocs;
+  }
+
+  @Override
+  public SortedCollector newCollector() throws IOException {
+    return new SortedCollector(TopFieldCollector.create(sort, numHits, true, false, false));
+  }
+
+  @Override
+  public TopFieldDocs reduce(Collection<SortedCollector> collectors) throws IOException {
+    TopFieldDocs[] topDocs = new TopFieldDocs[collectors.size()];
+    int i = 0;
+    boolean terminated = false;
+    for (SortedCollector collector : collectors) {
+      topDocs[i++] = collector.topFieldCollector.topDocs();
+      terminated |= collector.earlyTerminating.terminatedEarly();
+    }
+    terminatedEarly = terminated;
+    return TopDocs.merge(sort, numHits, topDocs);
+  }
+
+  /**
+   * Whether at least one segment stopped collecting early, valid after {@link #reduce}.
+   */
+  public boolean terminatedEarly() {
+    return terminatedEarly;
+  }
+
+  public class SortedCollector extends FilterCollector {
+    private final TopFieldCollector topFieldCollector;
+    private final EarlyTerminatingSortingCollector earlyTerminating;
+
+    SortedCollector(TopFieldCollector topFieldCollector) {
+      super(topFieldCollector);
+      this.topFieldCollector = topFieldCollector;
+      this.earlyTerminating = new EarlyTerminatingSortingCollector(topFieldCollector, sort, numHits);
+    }
+
+    @Override
+    public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+      Sort segmentSort = context.reader().getIndexSort();
+      // EarlyTerminatingSortingCollector rejects segments sorted in a different order
+      if (segmentSort != null && EarlyTerminatingSortingCollector.canEarlyTerminate(sort, segmentSort)) {
+        return earlyTerminating.getLeafCollector(context);
+      }
+      return topFieldCollector.getLeafCollector(context);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package searching;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+
+/**
+ * Streams every match of a query to a consumer, with the fields of a {@link HitFetcher},
+ * instead of ranking the matches.
+ * <p>
+ * There is no priority queue and no scoring: matches are handed over as they are
+ * collected, segment by segment in docID order, so memory use does not depend on the
+ * number of matches and doc values and stored fields are read sequentially.
+ */
+public class ExportCollector extends SimpleCollector {
+
+  public interface HitConsumer {
+    void accept(HitFetcher.Hit hit) throws IOException;
+  }
+
+  private final HitFetcher fetcher;
+  private final HitConsumer consumer;
+  private HitFetcher.LeafFetcher leafFetcher;
+  private int docBase;
+  private long exported;
+
+  public ExportCollector(HitFetcher fetcher, HitConsumer consumer) {
+    this.fetcher = fetcher;
+    this.consumer = consumer;
+  }
+
+  /**
+   * Exports all matches of the query and returns how many there were.
+   */
+  public static long export(IndexSearcher searcher, Query query, HitFetcher fetcher, HitConsumer consumer)
+      throws IOException {
+    ExportCollector collector = new ExportCollector(fetcher, consumer);
+    searcher.search(query, collector);
+    return collector.getExported();
+  }
+
+  @Override
+  protected void doSetNextReader(LeafReaderContext context) {
+    leafFetcher = fetcher.forLeaf(context);
+    docBase = context.docBase;
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    consumer.accept(new HitFetcher.Hit(docBase + doc, Float.NaN, leafFetcher.fetch(doc)));
+    exported++;
+  }
+
+  @Override
+  public boolean needsScores() {
+    return false;
+  }
+
+  public long getExported() {
+    return exported;
+  }
+}
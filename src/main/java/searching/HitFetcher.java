@@ -0,0 +1,307 @@
+package searching;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads a projection of fields for search hits instead of whole stored documents.
+ * <p>
+ * Fields that have doc values are read from them. The remaining fields are read with a
+ * stored fields visitor that skips everything else and stops as soon as it has passed
+ * all requested fields. Hits are visited in docID order, segment by segment, so reads
+ * are sequential; the returned hits keep the order of the {@code ScoreDoc}s.
+ * <p>
+ * Numeric doc values are returned as longs unless the field is declared with
+ * {@link #withDouble} or {@link #withFloat}, which decode the bits written by
+ * {@link org.apache.lucene.document.DoubleDocValuesField} and
+ * {@link org.apache.lucene.document.FloatDocValuesField}, or by the sortable encoding of
+ * {@link NumericUtils} for sorted numeric fields.
+ * <p>
+ * A multi-valued stored field is expected to have its values added next to each other,
+ * as {@link org.apache.lucene.document.Document} does when they are added in a row.
+ */
+public class HitFetcher {
+
+  /**
+   * How the longs of a numeric doc values field encode its values.
+   */
+  public enum NumericType {LONG, DOUBLE, FLOAT}
+
+  private final Set<String> fields;
+  private final Map<String, NumericType> numericTypes;
+
+  public HitFetcher(String... fields) {
+    this(new LinkedHashSet<>(Arrays.asList(fields)), Collections.emptyMap());
+  }
+
+  private HitFetcher(Set<String> fields, Map<String, NumericType> numericTypes) {
+    this.fields = Collections.unmodifiableSet(fields);
+    this.numericTypes = Collections.unmodifiableMap(numericTypes);
+  }
+
+  /**
+   * A fetcher that also loads the fields, decoding their numeric doc values as doubles.
+   */
+  public HitFetcher withDouble(String... fields) {
+    return with(NumericType.DOUBLE, fields);
+  }
+
+  /**
+   * A fetcher that also loads the fields, decoding their numeric doc values as floats.
+   */
+  public HitFetcher withFloat(String... fields) {
+    return with(NumericType.FLOAT, fields);
+  }
+
+  private HitFetcher with(NumericType type, String... fields) {
+    Set<String> allFields = new LinkedHashSet<>(this.fields);
+    Map<String, NumericType> types = new HashMap<>(numericTypes);
+    for (String field : fields) {
+      allFields.add(field);
+      types.put(field, type);
+    }
+    return new HitFetcher(allFields, types);
+  }
+
+  public Set<String> getFields() {
+    return fields;
+  }
+
+  public List<Hit> fetch(IndexSearcher searcher, ScoreDoc[] scoreDocs) throws IOException {
+    Hit[] hits = new Hit[scoreDocs.length];
+    Integer[] order = new Integer[scoreDocs.length];
+    for (int i = 0; i < scoreDocs.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Integer.compare(scoreDocs[a].doc, scoreDocs[b].doc));
+
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafFetcher leafFetcher = null;
+    for (int i : order) {
+      ScoreDoc scoreDoc = scoreDocs[i];
+      if (leafFetcher == null || scoreDoc.doc >= leafFetcher.docEnd) {
+        leafFetcher = new LeafFetcher(leaves.get(ReaderUtil.subIndex(scoreDoc.doc, leaves)));
+      }
+      hits[i] = new Hit(scoreDoc.doc, scoreDoc.score, leafFetcher.fetch(scoreDoc.doc - leafFetcher.docBase));
+    }
+    return Arrays.asList(hits);
+  }
+
+  /**
+   * Fetches fields for documents of one segment, by segment docID.
+   */
+  LeafFetcher forLeaf(LeafReaderContext context) {
+    return new LeafFetcher(context);
+  }
+
+  class LeafFetcher {
+    final LeafReader reader;
+    final int docBase;
+    final int docEnd;
+    final Map<String, DocValuesType> docValueFields = new HashMap<>();
+    final Set<String> storedFields = new LinkedHashSet<>();
+
+    LeafFetcher(LeafReaderContext context) {
+      this.reader = context.reader();
+      this.docBase = context.docBase;
+      this.docEnd = context.docBase + reader.maxDoc();
+      for (String field : fields) {
+        FieldInfo info = reader.getFieldInfos().fieldInfo(field);
+        if (info != null && info.getDocValuesType() != DocValuesType.NONE) {
+          docValueFields.put(field, info.getDocValuesType());
+        } else if (info != null) {
+          storedFields.add(field);
+        }
+      }
+    }
+
+    Map<String, List<Object>> fetch(int doc) throws IOException {
+      Map<String, List<Object>> values = new LinkedHashMap<>();
+      for (Map.Entry<String, DocValuesType> entry : docValueFields.entrySet()) {
+        List<Object> docValues = readDocValues(entry.getKey(), entry.getValue(), doc);
+        if (!docValues.isEmpty()) {
+          values.put(entry.getKey(), docValues);
+        }
+      }
+      if (!storedFields.isEmpty()) {
+        reader.document(doc, new ProjectionVisitor(storedFields, values));
+      }
+      return values;
+    }
+
+    private List<Object> readDocValues(String field, DocValuesType type, int doc) throws IOException {
+      List<Object> values = new ArrayList<>(1);
+      switch (type) {
+        case NUMERIC:
+          Bits docsWithField = reader.getDocsWithField(field);
+          NumericDocValues numeric = reader.getNumericDocValues(field);
+          if (docsWithField.get(doc)) {
+            values.add(decode(field, numeric.get(doc), false));
+          }
+          break;
+        case BINARY:
+          Bits docsWithBinary = reader.getDocsWithField(field);
+          BinaryDocValues binary = reader.getBinaryDocValues(field);
+          if (docsWithBinary.get(doc)) {
+            values.add(binary.get(doc).utf8ToString());
+          }
+          break;
+        case SORTED:
+          SortedDocValues sorted = reader.getSortedDocValues(field);
+          int ord = sorted.getOrd(doc);
+          if (ord != -1) {
+            values.add(sorted.lookupOrd(ord).utf8ToString());
+          }
+          break;
+        case SORTED_NUMERIC:
+          SortedNumericDocValues sortedNumeric = reader.getSortedNumericDocValues(field);
+          sortedNumeric.setDocument(doc);
+          for (int i = 0; i < sortedNumeric.count(); i++) {
+            values.add(decode(field, sortedNumeric.valueAt(i), true));
+          }
+          break;
+        case SORTED_SET:
+          SortedSetDocValues sortedSet = reader.getSortedSetDocValues(field);
+          sortedSet.setDocument(doc);
+          for (long o = sortedSet.nextOrd(); o != SortedSetDocValues.NO_MORE_ORDS; o = sortedSet.nextOrd()) {
+            values.add(sortedSet.lookupOrd(o).utf8ToString());
+          }
+          break;
+        default:
+          break;
+      }
+      return values;
+    }
+
+    private Object decode(String field, long value, boolean sortable) {
+      switch (numericTypes.getOrDefault(field, NumericType.LONG)) {
+        case DOUBLE:
+          return sortable ? NumericUtils.sortableLongToDouble(value) : Double.longBitsToDouble(value);
+        case FLOAT:
+          return sortable ? NumericUtils.sortableIntToFloat((int) value) : Float.intBitsToFloat((int) value);
+        default:
+          return value;
+      }
+    }
+  }
+
+  private static class ProjectionVisitor extends StoredFieldVisitor {
+    private final Set<String> wanted;
+    private final Set<String> seen = new LinkedHashSet<>();
+    private final Map<String, List<Object>> values;
+
+    ProjectionVisitor(Set<String> wanted, Map<String, List<Object>> values) {
+      this.wanted = wanted;
+      this.values = values;
+    }
+
+    @Override
+    public Status needsField(FieldInfo fieldInfo) {
+      if (wanted.contains(fieldInfo.name)) {
+        seen.add(fieldInfo.name);
+        return Status.YES;
+      }
+      // every requested field was read and their values are behind us
+      return seen.size() == wanted.size() ? Status.STOP : Status.NO;
+    }
+
+    private void add(FieldInfo fieldInfo, Object value) {
+      values.computeIfAbsent(fieldInfo.name, name -> new ArrayList<>(1)).add(value);
+    }
+
+    @Override
+    public void stringField(FieldInfo fieldInfo, byte[] value) {
+      add(fieldInfo, new String(value, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void binaryField(FieldInfo fieldInfo, byte[] value) {
+      add(fieldInfo, new BytesRef(value));
+    }
+
+    @Override
+    public void intField(FieldInfo fieldInfo, int value) {
+      add(fieldInfo, value);
+    }
+
+    @Override
+    public void longField(FieldInfo fieldInfo, long value) {
+      add(fieldInfo, value);
+    }
+
+    @Override
+    public void floatField(FieldInfo fieldInfo, float value) {
+      add(fieldInfo, value);
+    }
+
+    @Override
+    public void doubleField(FieldInfo fieldInfo, double value) {
+      add(fieldInfo, value);
+    }
+  }
+
+  public static class Hit {
+    private final int doc;
+    private final float score;
+    private final Map<String, List<Object>> fields;
+
+    Hit(int doc, float score, Map<String, List<Object>> fields) {
+      this.doc = doc;
+      this.score = score;
+      this.fields = fields;
+    }
+
+    public int getDoc() {
+      return doc;
+    }
+
+    public float getScore() {
+      return score;
+    }
+
+    public Map<String, List<Object>> getFields() {
+      return fields;
+    }
+
+    public List<Object> getValues(String field) {
+      List<Object> values = fields.get(field);
+      return values == null ? Collections.emptyList() : values;
+    }
+
+    public Object getValue(String field) {
+      List<Object> values = fields.get(field);
+      return values == null ? null : values.get(0);
+    }
+
+    @Override
+    public String toString() {
+      return "Hit<doc=" + doc + " score=" + score + " " + fields + ">";
+    }
+  }
+}
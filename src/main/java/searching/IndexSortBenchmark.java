@@ -0,0 +1,126 @@
+package searching;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Builds the same index twice, unsorted and sorted on {@code timestamp} descending, and
+ * prints the latency of the newest-first top 10 for a match-all and a term query: full
+ * collection on the unsorted index, and early termination on the sorted one with and
+ * without exact hit counts.
+ * <p>
+ * Usage: {@code IndexSortBenchmark [numDocs] [queryIterations]}
+ */
+public class IndexSortBenchmark {
+
+  private static final Sort NEWEST_FIRST = new Sort(new SortField("timestamp", SortField.Type.LONG, true));
+  private static final String[] CATEGORIES = {"books", "music", "games", "garden", "tools"};
+
+  public static void main(String args[]) throws Exception {
+    int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    int queryIterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+    Path unsortedPath = Files.createTempDirectory("index_sort_bench_unsorted");
+    Path sortedPath = Files.createTempDirectory("index_sort_bench_sorted");
+    try (Directory unsortedDir = FSDirectory.open(unsortedPath);
+         Directory sortedDir = FSDirectory.open(sortedPath)) {
+      long start = System.nanoTime();
+      buildIndex(unsortedDir, numDocs, null);
+      System.out.println(String.format("unsorted index: %d docs in %d ms", numDocs,
+          (System.nanoTime() - start) / 1_000_000));
+      start = System.nanoTime();
+      buildIndex(sortedDir, numDocs, NEWEST_FIRST);
+      System.out.println(String.format("sorted index: %d docs in %d ms", numDocs,
+          (System.nanoTime() - start) / 1_000_000));
+
+      try (DirectoryReader unsorted = DirectoryReader.open(unsortedDir);
+           DirectoryReader sorted = DirectoryReader.open(sortedDir)) {
+        System.out.println(String.format("%-10s %-28s %12s %12s %12s", "query", "mode", "totalHits", "p50 (ms)",
+            "p99 (ms)"));
+        Query[] queries = {new MatchAllDocsQuery(), new TermQuery(new Term("category", "books"))};
+        String[] names = {"match_all", "term"};
+        for (int q = 0; q < queries.length; q++) {
+          run(names[q], "unsorted, full collection", new IndexSearcher(unsorted), queries[q], false,
+              queryIterations);
+          run(names[q], "sorted, exact hit count", new IndexSearcher(sorted), queries[q], true, queryIterations);
+          run(names[q], "sorted, no hit count", new IndexSearcher(sorted), queries[q], false, queryIterations);
+        }
+      }
+    } finally {
+      IOUtils.rm(unsortedPath, sortedPath);
+    }
+  }
+
+  private static void buildIndex(Directory dir, int numDocs, Sort indexSort) throws IOException {
+    IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer())
+        .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+        .setRAMBufferSizeMB(256);
+    if (indexSort != null) {
+      config.setIndexSort(indexSort);
+    }
+    // same seed for both indexes, so they hold the same documents
+    Random random = new Random(42);
+    try (IndexWriter writer = new IndexWriter(dir, config)) {
+      Document doc = new Document();
+      NumericDocValuesField timestamp = new NumericDocValuesField("timestamp", 0);
+      StringField category = new StringField("category", "", Field.Store.NO);
+      doc.add(timestamp);
+      doc.add(category);
+      for (int i = 0; i < numDocs; i++) {
+        timestamp.setLongValue(random.nextInt(Integer.MAX_VALUE));
+        category.setStringValue(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+        writer.addDocument(doc);
+      }
+      writer.commit();
+    }
+  }
+
+  private static void run(String queryName, String mode, IndexSearcher searcher, Query query,
+                          boolean trackTotalHits, int iterations) throws IOException {
+    boolean earlyTerminating = mode.startsWith("sorted");
+    TopDocs topDocs = null;
+    for (int i = 0; i < Math.max(1, iterations / 5); i++) {
+      topDocs = execute(searcher, query, earlyTerminating, trackTotalHits);
+    }
+    long[] latencies = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      topDocs = execute(searcher, query, earlyTerminating, trackTotalHits);
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+    System.out.println(String.format("%-10s %-28s %12d %12.2f %12.2f", queryName, mode, topDocs.totalHits,
+        latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6));
+  }
+
+  private static TopDocs execute(IndexSearcher searcher, Query query, boolean earlyTerminating,
+                                 boolean trackTotalHits) throws IOException {
+    if (earlyTerminating) {
+      return EarlyTerminatingCollectorManager.search(searcher, query, 10, NEWEST_FIRST, trackTotalHits);
+    }
+    return searcher.search(query, 10, NEWEST_FIRST);
+  }
+}
@@ -0,0 +1,132 @@
+package searching;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FilterWeight;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScorerSupplier;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A {@link ParallelIndexSearcher} that records how long each phase of a search takes into
+ * {@link SearchMetrics}: rewrite, weight creation, the scoring and collection of every
+ * segment, and the whole search call. Field loading is timed by {@link #fetch}.
+ * <p>
+ * The cost is two {@link System#nanoTime()} calls and a histogram update per phase and per
+ * segment, independent of the number of hits, so it can stay on in production.
+ */
+public class InstrumentedIndexSearcher extends ParallelIndexSearcher {
+
+  private final SearchMetrics metrics;
+  private final boolean concurrent;
+
+  /**
+   * @param executor runs the slices, or null to search all segments on the calling thread
+   */
+  public InstrumentedIndexSearcher(IndexReader reader, ExecutorService executor, SearchMetrics metrics) {
+    super(reader, executor);
+    this.metrics = metrics;
+    this.concurrent = executor != null;
+  }
+
+  public SearchMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public void search(Query query, Collector results) throws IOException {
+    long start = System.nanoTime();
+    try {
+      super.search(query, results);
+    } finally {
+      metrics.record(query, SearchMetrics.Phase.SEARCH, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public <C extends Collector, T> T search(Query query, CollectorManager<C, T> collectorManager)
+      throws IOException {
+    if (!concurrent) {
+      // searches one collector with search(Query, Collector), which records the time
+      return super.search(query, collectorManager);
+    }
+    long start = System.nanoTime();
+    try {
+      return super.search(query, collectorManager);
+    } finally {
+      metrics.record(query, SearchMetrics.Phase.SEARCH, System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public Weight createNormalizedWeight(Query query, boolean needsScores) throws IOException {
+    String type = SearchMetrics.queryType(query);
+    long start = System.nanoTime();
+    Query rewritten = rewrite(query);
+    long rewriteEnd = System.nanoTime();
+    // rewriting a rewritten query again returns it as it is
+    Weight weight = super.createNormalizedWeight(rewritten, needsScores);
+    long end = System.nanoTime();
+    metrics.record(type, SearchMetrics.Phase.REWRITE, rewriteEnd - start);
+    metrics.record(type, SearchMetrics.Phase.WEIGHT, end - rewriteEnd);
+    return new TypedWeight(weight, type);
+  }
+
+  @Override
+  protected void search(List<LeafReaderContext> leaves, Weight weight, Collector collector) throws IOException {
+    if (!(weight instanceof TypedWeight)) {
+      super.search(leaves, weight, collector);
+      return;
+    }
+    String type = ((TypedWeight) weight).type;
+    for (LeafReaderContext leaf : leaves) {
+      long start = System.nanoTime();
+      super.search(Collections.singletonList(leaf), weight, collector);
+      metrics.record(type, SearchMetrics.Phase.SEGMENT, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Loads the fields of the hits of a query and records the time under the query's type.
+   */
+  public List<HitFetcher.Hit> fetch(HitFetcher fetcher, Query query, ScoreDoc[] scoreDocs) throws IOException {
+    long start = System.nanoTime();
+    try {
+      return fetcher.fetch(this, scoreDocs);
+    } finally {
+      metrics.record(query, SearchMetrics.Phase.FETCH, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Carries the type of the searched query to the segment searches, which may run on the
+   * executor's threads.
+   */
+  private static final class TypedWeight extends FilterWeight {
+    private final String type;
+
+    TypedWeight(Weight in, String type) {
+      super(in);
+      this.type = type;
+    }
+
+    @Override
+    public ScorerSupplier scorerSupplier(LeafReaderContext context) throws IOException {
+      return in.scorerSupplier(context);
+    }
+
+    @Override
+    public BulkScorer bulkScorer(LeafReaderContext context) throws IOException {
+      return in.bulkScorer(context);
+    }
+  }
+}
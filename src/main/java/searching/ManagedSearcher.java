@@ -0,0 +1,188 @@
+package searching;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out reference counted searchers over near-real-time readers opened from a
+ * shared {@link IndexWriter}. Readers are reopened in the background every refresh
+ * interval and warmed before they replace the current searcher.
+ * <p>
+ * Every {@link #acquire()} must be paired with a {@link #release(IndexSearcher)},
+ * usually in a finally block.
+ */
+public class ManagedSearcher implements Closeable {
+
+  private final SearcherManager manager;
+  private final List<SearcherWarmer> warmers = new CopyOnWriteArrayList<>();
+  private final ScheduledExecutorService refresher;
+
+  private final AtomicLong acquires = new AtomicLong();
+  private final AtomicLong releases = new AtomicLong();
+  private final AtomicLong refreshes = new AtomicLong();
+  private final AtomicLong lastRefreshMillis = new AtomicLong();
+  private final AtomicLong lastWarmMillis = new AtomicLong();
+
+  public ManagedSearcher(IndexWriter writer, long refreshIntervalMillis) throws IOException {
+    this(writer, new SearcherFactory(), refreshIntervalMillis);
+  }
+
+  /**
+   * @param searcherFactory       creates the searcher for each new reader, before warming
+   * @param refreshIntervalMillis how often to reopen the reader, or 0 to only refresh on demand
+   */
+  public ManagedSearcher(IndexWriter writer, SearcherFactory searcherFactory,
+                         long refreshIntervalMillis) throws IOException {
+    this.manager = new SearcherManager(writer, true, false, new WarmingSearcherFactory(searcherFactory));
+    this.manager.addListener(new ReferenceManager.RefreshListener() {
+      private long start;
+
+      @Override
+      public void beforeRefresh() {
+        start = System.nanoTime();
+      }
+
+      @Override
+      public void afterRefresh(boolean didRefresh) {
+        if (didRefresh) {
+          refreshes.incrementAndGet();
+          lastRefreshMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+      }
+    });
+    if (refreshIntervalMillis > 0) {
+      refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "searcher-refresher");
+        thread.setDaemon(true);
+        return thread;
+      });
+      refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshIntervalMillis, refreshIntervalMillis,
+          TimeUnit.MILLISECONDS);
+    } else {
+      refresher = null;
+    }
+  }
+
+  /**
+   * Adds a warmer for readers opened from now on and runs it on the current searcher.
+   */
+  public void addWarmer(SearcherWarmer warmer) throws IOException {
+    warmers.add(warmer);
+    IndexSearcher searcher = acquire();
+    try {
+      warmer.warm(searcher);
+    } finally {
+      release(searcher);
+    }
+  }
+
+  public void addListener(ReferenceManager.RefreshListener listener) {
+    manager.addListener(listener);
+  }
+
+  public IndexSearcher acquire() throws IOException {
+    IndexSearcher searcher = manager.acquire();
+    acquires.incrementAndGet();
+    return searcher;
+  }
+
+  public void release(IndexSearcher searcher) throws IOException {
+    releases.incrementAndGet();
+    manager.release(searcher);
+  }
+
+  /**
+   * Reopens the reader if the writer has changes, unless another thread is already
+   * refreshing.
+   */
+  public boolean maybeRefresh() throws IOException {
+    return manager.maybeRefresh();
+  }
+
+  /**
+   * Reopens the reader if the writer has changes, waiting for a concurrent refresh to
+   * finish. Use it after a commit when the caller must see its own writes.
+   */
+  public void maybeRefreshBlocking() throws IOException {
+    manager.maybeRefreshBlocking();
+  }
+
+  private void refreshQuietly() {
+    try {
+      manager.maybeRefresh();
+    } catch (Exception e) {
+      System.err.println("Searcher refresh failed: " + e);
+    }
+  }
+
+  public long getAcquireCount() {
+    return acquires.get();
+  }
+
+  public long getReleaseCount() {
+    return releases.get();
+  }
+
+  public long getInUseCount() {
+    return acquires.get() - releases.get();
+  }
+
+  public long getRefreshCount() {
+    return refreshes.get();
+  }
+
+  public long getLastRefreshMillis() {
+    return lastRefreshMillis.get();
+  }
+
+  public long getLastWarmMillis() {
+    return lastWarmMillis.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("acquired=%d released=%d inUse=%d refreshes=%d lastRefresh=%dms lastWarm=%dms",
+        getAcquireCount(), getReleaseCount(), getInUseCount(), getRefreshCount(), getLastRefreshMillis(),
+        getLastWarmMillis());
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (refresher != null) {
+      refresher.shutdownNow();
+    }
+    manager.close();
+  }
+
+  private class WarmingSearcherFactory extends SearcherFactory {
+    private final SearcherFactory delegate;
+
+    WarmingSearcherFactory(SearcherFactory delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+      IndexSearcher searcher = delegate.newSearcher(reader, previousReader);
+      long start = System.nanoTime();
+      for (SearcherWarmer warmer : warmers) {
+        warmer.warm(searcher);
+      }
+      lastWarmMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      return searcher;
+    }
+  }
+}
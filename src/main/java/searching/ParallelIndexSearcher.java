@@ -0,0 +1,75 @@
+package searching;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An {@link IndexSearcher} that searches groups of segments concurrently on an executor.
+ * <p>
+ * The default {@link IndexSearcher} makes one task per segment, which floods the
+ * executor with tiny tasks on indexes with many small segments. Here segments are
+ * grouped into at most one slice per core, largest segments first onto the lightest
+ * slice, so every task has roughly the same number of documents to score. The top
+ * hits of each slice are merged by {@link IndexSearcher} for both relevance and field
+ * sorted searches.
+ */
+public class ParallelIndexSearcher extends IndexSearcher {
+
+  static final int MAX_SLICES = Runtime.getRuntime().availableProcessors();
+  static final int MIN_DOCS_PER_SLICE = 50_000;
+
+  /**
+   * @param executor runs the slices, or null to search all segments on the calling thread
+   */
+  public ParallelIndexSearcher(IndexReader reader, ExecutorService executor) {
+    super(reader, executor);
+  }
+
+  @Override
+  protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+    return balancedSlices(leaves, MAX_SLICES, MIN_DOCS_PER_SLICE);
+  }
+
+  static LeafSlice[] balancedSlices(List<LeafReaderContext> leaves, int maxSlices, int minDocsPerSlice) {
+    if (leaves.isEmpty()) {
+      return new LeafSlice[0];
+    }
+    long totalDocs = 0;
+    for (LeafReaderContext leaf : leaves) {
+      totalDocs += leaf.reader().maxDoc();
+    }
+    int numSlices = (int) Math.max(1, Math.min(Math.min(maxSlices, leaves.size()), totalDocs / minDocsPerSlice));
+
+    List<LeafReaderContext> sorted = new ArrayList<>(leaves);
+    sorted.sort(Comparator.comparingInt((LeafReaderContext leaf) -> leaf.reader().maxDoc()).reversed());
+
+    List<List<LeafReaderContext>> groups = new ArrayList<>(numSlices);
+    long[] groupDocs = new long[numSlices];
+    for (int i = 0; i < numSlices; i++) {
+      groups.add(new ArrayList<>());
+    }
+    for (LeafReaderContext leaf : sorted) {
+      int lightest = 0;
+      for (int i = 1; i < numSlices; i++) {
+        if (groupDocs[i] < groupDocs[lightest]) {
+          lightest = i;
+        }
+      }
+      groups.get(lightest).add(leaf);
+      groupDocs[lightest] += leaf.reader().maxDoc();
+    }
+
+    LeafSlice[] slices = new LeafSlice[numSlices];
+    for (int i = 0; i < numSlices; i++) {
+      List<LeafReaderContext> group = groups.get(i);
+      slices[i] = new LeafSlice(group.toArray(new LeafReaderContext[group.size()]));
+    }
+    return slices;
+  }
+}
@@ -0,0 +1,139 @@
+package searching;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Builds a multi-segment index and prints query latency for a sequential searcher and
+ * for {@link ParallelIndexSearcher} with 1 up to all available cores.
+ * <p>
+ * Usage: {@code ParallelSearchBenchmark [numDocs] [numSegments] [queryIterations]}
+ */
+public class ParallelSearchBenchmark {
+
+  private static final String[] WORDS = {
+      "lucene", "search", "index", "segment", "merge", "query", "score", "token", "field", "term",
+      "analyzer", "codec", "reader", "writer", "commit", "facet", "sort", "shard", "replica", "cache"};
+
+  public static void main(String args[]) throws Exception {
+    int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int numSegments = args.length > 1 ? Integer.parseInt(args[1]) : 24;
+    int queryIterations = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+    Path path = Files.createTempDirectory("parallel_search_bench");
+    try (Directory dir = FSDirectory.open(path)) {
+      buildIndex(dir, numDocs, numSegments);
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        System.out.println(String.format("%d docs in %d segments", reader.maxDoc(), reader.leaves().size()));
+        System.out.println(String.format("%-12s %8s %12s %12s %12s", "searcher", "threads", "slices",
+            "p50 (ms)", "p99 (ms)"));
+        run("sequential", new IndexSearcher(reader), 1, 1, queryIterations);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+          ExecutorService executor = ParallelSearcherFactory.newBoundedExecutor(threads, 1024);
+          try {
+            ParallelIndexSearcher searcher = new ParallelIndexSearcher(reader, executor);
+            int slices = ParallelIndexSearcher.balancedSlices(reader.leaves(),
+                ParallelIndexSearcher.MAX_SLICES, ParallelIndexSearcher.MIN_DOCS_PER_SLICE).length;
+            run("parallel", searcher, threads, slices, queryIterations);
+          } finally {
+            executor.shutdown();
+          }
+        }
+      }
+    } finally {
+      IOUtils.rm(path);
+    }
+  }
+
+  private static void buildIndex(Directory dir, int numDocs, int numSegments) throws IOException {
+    IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer())
+        .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+        .setMergePolicy(NoMergePolicy.INSTANCE)
+        .setMaxBufferedDocs(Math.max(2, numDocs / numSegments))
+        .setRAMBufferSizeMB(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+    Random random = new Random(42);
+    try (IndexWriter writer = new IndexWriter(dir, config)) {
+      Document doc = new Document();
+      TextField body = new TextField("body", "", Field.Store.NO);
+      NumericDocValuesField rank = new NumericDocValuesField("rank", 0);
+      doc.add(body);
+      doc.add(rank);
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < numDocs; i++) {
+        text.setLength(0);
+        for (int w = 0; w < 12; w++) {
+          // skewed word frequencies so terms have different posting list lengths
+          int word = (int) (Math.abs(random.nextGaussian()) * WORDS.length / 3) % WORDS.length;
+          text.append(WORDS[word]).append(' ');
+        }
+        body.setStringValue(text.toString());
+        rank.setLongValue(random.nextInt(1_000_000));
+        writer.addDocument(doc);
+      }
+      writer.commit();
+    }
+  }
+
+  private static void run(String name, IndexSearcher searcher, int threads, int slices,
+                          int iterations) throws IOException {
+    Query[] queries = {
+        new TermQuery(new Term("body", "lucene")),
+        new BooleanQuery.Builder()
+            .add(new TermQuery(new Term("body", "segment")), BooleanClause.Occur.SHOULD)
+            .add(new TermQuery(new Term("body", "merge")), BooleanClause.Occur.SHOULD)
+            .build(),
+        new BooleanQuery.Builder()
+            .add(new TermQuery(new Term("body", "search")), BooleanClause.Occur.MUST)
+            .add(new TermQuery(new Term("body", "index")), BooleanClause.Occur.MUST)
+            .build()
+    };
+    Sort sort = new Sort(new SortField("rank", SortField.Type.LONG, true));
+    for (int i = 0; i < iterations / 5; i++) {
+      execute(searcher, queries[i % queries.length], sort, i);
+    }
+    long[] latencies = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      execute(searcher, queries[i % queries.length], sort, i);
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+    System.out.println(String.format("%-12s %8d %12d %12.2f %12.2f", name, threads, slices,
+        latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6));
+  }
+
+  private static void execute(IndexSearcher searcher, Query query, Sort sort, int i) throws IOException {
+    // alternate relevance and field sorted searches, both are merged across slices
+    if (i % 2 == 0) {
+      searcher.search(query, 10);
+    } else {
+      searcher.search(query, 10, sort);
+    }
+  }
+}
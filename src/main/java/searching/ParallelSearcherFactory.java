@@ -0,0 +1,61 @@
+package searching;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates {@link ParallelIndexSearcher}s that share one search executor. Pass it to
+ * {@link ManagedSearcher} to search every reader it opens in parallel. With
+ * {@link SearchMetrics} the searchers are {@link InstrumentedIndexSearcher}s that all
+ * record into them.
+ */
+public class ParallelSearcherFactory extends SearcherFactory {
+
+  private final ExecutorService executor;
+  private final SearchMetrics metrics;
+
+  public ParallelSearcherFactory(ExecutorService executor) {
+    this(executor, null);
+  }
+
+  public ParallelSearcherFactory(ExecutorService executor, SearchMetrics metrics) {
+    this.executor = executor;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+    if (metrics != null) {
+      return new InstrumentedIndexSearcher(reader, executor, metrics);
+    }
+    return new ParallelIndexSearcher(reader, executor);
+  }
+
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * A fixed size pool with a bounded queue. When the queue is full the searching
+   * thread runs the slice itself, which throttles callers instead of queueing without
+   * limit or rejecting the query.
+   */
+  public static ExecutorService newBoundedExecutor(int threads, int queueCapacity) {
+    AtomicInteger counter = new AtomicInteger();
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity),
+        r -> {
+          Thread thread = new Thread(r, "search-" + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+}
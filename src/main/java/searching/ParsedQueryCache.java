@@ -0,0 +1,211 @@
+package searching;
+
+import analysis.SharedSynonymMap;
+import analysis.SynonymAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of parsed user queries, keyed by default field and query string.
+ * <p>
+ * Parsing runs the classic {@link QueryParser} and the analyzer over every term of the
+ * string, which for short queries costs more than searching a small index. The queries
+ * built by the parser are immutable, so one parsed query is handed to every search with
+ * the same string. The analyzer should be a long-lived one, such as those of
+ * {@link analysis.AnalyzerRegistry}.
+ * <p>
+ * The query parser is not thread-safe and a new one is created for every miss; strings
+ * that do not parse are not cached.
+ * <p>
+ * A parsed query holds the synonyms of the map it was analyzed with. The cache watches
+ * the {@link SharedSynonymMap} of a {@link SynonymAnalyzer}, and the maps passed to it for
+ * other analyzers, and is cleared when one of them is reloaded. Any other state that
+ * changes what the analyzer produces must be followed by {@link #clear()}.
+ */
+public class ParsedQueryCache {
+
+  private final Analyzer analyzer;
+  private final int maxEntries;
+  private final LinkedHashMap<Key, Query> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private final LatencyHistogram parseTimes = new LatencyHistogram();
+  private final SharedSynonymMap[] synonyms;
+  // the maps the cached queries were parsed with
+  private final SynonymMap[] parsedWith;
+  // grows when the cache is cleared, so a parse that started before does not put its query
+  private long generation;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  public ParsedQueryCache(Analyzer analyzer, int maxEntries) {
+    this(analyzer, maxEntries, analyzer instanceof SynonymAnalyzer
+        ? new SharedSynonymMap[]{((SynonymAnalyzer) analyzer).getSynonyms()}
+        : new SharedSynonymMap[0]);
+  }
+
+  /**
+   * @param synonyms the reloadable maps the analyzer expands synonyms from
+   */
+  public ParsedQueryCache(Analyzer analyzer, int maxEntries, SharedSynonymMap... synonyms) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries must be positive, got " + maxEntries);
+    }
+    this.analyzer = analyzer;
+    this.maxEntries = maxEntries;
+    this.synonyms = synonyms.clone();
+    this.parsedWith = new SynonymMap[synonyms.length];
+    for (int i = 0; i < synonyms.length; i++) {
+      parsedWith[i] = synonyms[i].getMap();
+    }
+  }
+
+  public Analyzer getAnalyzer() {
+    return analyzer;
+  }
+
+  public Query parse(String defaultField, String queryString) throws ParseException {
+    Key key = new Key(defaultField, queryString);
+    Query query;
+    long parseGeneration;
+    synchronized (this) {
+      query = get(key);
+      if (query != null) {
+        return query;
+      }
+      parseGeneration = generation;
+    }
+    long start = System.nanoTime();
+    try {
+      query = new QueryParser(defaultField, analyzer).parse(queryString);
+    } catch (ParseException e) {
+      failures.incrementAndGet();
+      throw e;
+    } finally {
+      parseTimes.record(System.nanoTime() - start);
+    }
+    return put(key, query, parseGeneration);
+  }
+
+  private synchronized Query get(Key key) {
+    clearIfReloaded();
+    Query query = cache.get(key);
+    if (query != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return query;
+  }
+
+  // two threads missing on the same key both parse, the first query put wins
+  private synchronized Query put(Key key, Query query, long parseGeneration) {
+    if (parseGeneration != generation) {
+      // the synonyms may have been reloaded during the parse
+      return query;
+    }
+    Query previous = cache.putIfAbsent(key, query);
+    if (previous != null) {
+      return previous;
+    }
+    Iterator<Query> eldest = cache.values().iterator();
+    while (cache.size() > maxEntries) {
+      eldest.next();
+      eldest.remove();
+      evictions.incrementAndGet();
+    }
+    return query;
+  }
+
+  private void clearIfReloaded() {
+    for (int i = 0; i < synonyms.length; i++) {
+      SynonymMap map = synonyms[i].getMap();
+      if (map != parsedWith[i]) {
+        parsedWith[i] = map;
+        clear();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    cache.clear();
+    generation++;
+  }
+
+  public synchronized int size() {
+    return cache.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public double getHitRate() {
+    long lookups = hits.get() + misses.get();
+    return lookups == 0 ? 0 : (double) hits.get() / lookups;
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Query strings that did not parse.
+   */
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  /**
+   * Time taken by the parses of the misses, including the failed ones.
+   */
+  public LatencyHistogram getParseTimes() {
+    return parseTimes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ParsedQueryCache<entries=%d hits=%d misses=%d hitRate=%.2f evictions=%d failures=%d " +
+            "parse: %s>", size(), getHitCount(), getMissCount(), getHitRate(), getEvictionCount(), getFailureCount(),
+        parseTimes);
+  }
+
+  private static final class Key {
+    final String field;
+    final String text;
+    final int hashCode;
+
+    Key(String field, String text) {
+      this.field = field;
+      this.text = text;
+      this.hashCode = Objects.hash(field, text);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return field.equals(other.field) && text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -0,0 +1,390 @@
+package searching;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FilterWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Runs a search with every weight and scorer of the rewritten query wrapped, and returns
+ * the top hits with a tree of timings and counts, one node per clause.
+ * <p>
+ * A node holds the time to build the clause's weight and scorers, how often its iterator
+ * was moved with {@code nextDoc} and {@code advance} and how long that took, how often its
+ * two-phase confirmation ran, how many documents it matched and how long scoring took. The
+ * times of a node include those of its children.
+ * <p>
+ * Profiling times every iterator call, so it is meant to be switched on for a single
+ * request. The search runs on the calling thread, with the query cache disabled so that
+ * cached clauses are not skipped.
+ */
+public class QueryProfiler {
+
+  private QueryProfiler() {
+  }
+
+  public static Result search(IndexSearcher searcher, Query query, int n) throws IOException {
+    ProfilingSearcher profiling = new ProfilingSearcher(searcher);
+    long start = System.nanoTime();
+    Query rewritten = profiling.rewrite(query);
+    long rewriteNanos = System.nanoTime() - start;
+    TopDocs topDocs = profiling.search(rewritten, n);
+    return new Result(topDocs, profiling.root, rewriteNanos, System.nanoTime() - start);
+  }
+
+  public static class Result {
+    private final TopDocs topDocs;
+    private final Node profile;
+    private final long rewriteNanos;
+    private final long totalNanos;
+
+    Result(TopDocs topDocs, Node profile, long rewriteNanos, long totalNanos) {
+      this.topDocs = topDocs;
+      this.profile = profile;
+      this.rewriteNanos = rewriteNanos;
+      this.totalNanos = totalNanos;
+    }
+
+    public TopDocs getTopDocs() {
+      return topDocs;
+    }
+
+    /**
+     * The rewritten query's node, with a child per clause.
+     */
+    public Node getProfile() {
+      return profile;
+    }
+
+    public long getRewriteNanos() {
+      return rewriteNanos;
+    }
+
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+      Node slowest = profile.getSlowestLeaf();
+      return String.format("%d hits, rewrite=%.3fms total=%.3fms slowest clause=[%s] %.3fms%n%s",
+          topDocs.totalHits, rewriteNanos / 1e6, totalNanos / 1e6, slowest.getQuery(), slowest.getTotalNanos() / 1e6,
+          profile);
+    }
+  }
+
+  /**
+   * Timings and counts of one clause.
+   */
+  public static class Node {
+    private final Query query;
+    private final List<Node> children = new ArrayList<>();
+    private long buildNanos;
+    private long scorerNanos;
+    private long nextDocCount;
+    private long advanceCount;
+    private long iterateNanos;
+    private long matchesCount;
+    private long matchNanos;
+    private long matchedDocs;
+    private long scoreCount;
+    private long scoreNanos;
+
+    Node(Query query) {
+      this.query = query;
+    }
+
+    public Query getQuery() {
+      return query;
+    }
+
+    public List<Node> getChildren() {
+      return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * Time spent creating the weight, including the weights of the children.
+     */
+    public long getBuildNanos() {
+      return buildNanos;
+    }
+
+    /**
+     * Time spent creating scorers, over all segments.
+     */
+    public long getScorerNanos() {
+      return scorerNanos;
+    }
+
+    public long getNextDocCount() {
+      return nextDocCount;
+    }
+
+    public long getAdvanceCount() {
+      return advanceCount;
+    }
+
+    public long getIterateNanos() {
+      return iterateNanos;
+    }
+
+    /**
+     * Two-phase confirmations, such as phrase position checks.
+     */
+    public long getMatchesCount() {
+      return matchesCount;
+    }
+
+    public long getMatchNanos() {
+      return matchNanos;
+    }
+
+    /**
+     * Documents the clause was positioned on and, for a two-phase clause, confirmed.
+     */
+    public long getMatchedDocs() {
+      return matchedDocs;
+    }
+
+    public long getScoreCount() {
+      return scoreCount;
+    }
+
+    public long getScoreNanos() {
+      return scoreNanos;
+    }
+
+    public long getTotalNanos() {
+      return buildNanos + scorerNanos + iterateNanos + matchNanos + scoreNanos;
+    }
+
+    /**
+     * The clause without children that took the most time; in a query of hundreds of terms,
+     * the one to look at first.
+     */
+    public Node getSlowestLeaf() {
+      Node slowest = children.isEmpty() ? this : null;
+      for (Node child : children) {
+        Node leaf = child.getSlowestLeaf();
+        if (slowest == null || leaf.getTotalNanos() > slowest.getTotalNanos()) {
+          slowest = leaf;
+        }
+      }
+      return slowest;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder out = new StringBuilder();
+      append(out, 0);
+      return out.toString();
+    }
+
+    private void append(StringBuilder out, int depth) {
+      for (int i = 0; i < depth; i++) {
+        out.append("  ");
+      }
+      out.append(String.format("%s [%s] total=%.3fms build=%.3fms scorer=%.3fms iterate=%.3fms next=%d advance=%d " +
+              "match=%.3fms matches=%d matched=%d score=%.3fms scored=%d", query.getClass().getSimpleName(), query,
+          getTotalNanos() / 1e6, buildNanos / 1e6, scorerNanos / 1e6, iterateNanos / 1e6, nextDocCount, advanceCount,
+          matchNanos / 1e6, matchesCount, matchedDocs, scoreNanos / 1e6, scoreCount));
+      for (Node child : children) {
+        out.append(System.lineSeparator());
+        child.append(out, depth + 1);
+      }
+    }
+  }
+
+  private static class ProfilingSearcher extends IndexSearcher {
+    private final Deque<Node> building = new ArrayDeque<>();
+    private Node root;
+
+    ProfilingSearcher(IndexSearcher searcher) {
+      super(searcher.getTopReaderContext());
+      setSimilarity(searcher.getSimilarity(true));
+      setQueryCache(null);
+    }
+
+    // called again by compound weights for each of their clauses
+    @Override
+    public Weight createWeight(Query query, boolean needsScores) throws IOException {
+      Node node = new Node(query);
+      if (building.isEmpty()) {
+        root = node;
+      } else {
+        building.peek().children.add(node);
+      }
+      building.push(node);
+      long start = System.nanoTime();
+      try {
+        return new ProfileWeight(super.createWeight(query, needsScores), node);
+      } finally {
+        node.buildNanos += System.nanoTime() - start;
+        building.pop();
+      }
+    }
+  }
+
+  private static class ProfileWeight extends FilterWeight {
+    private final Node node;
+
+    ProfileWeight(Weight in, Node node) {
+      super(in);
+      this.node = node;
+    }
+
+    // bulkScorer and scorerSupplier are not delegated, so the scorer below is always used
+    @Override
+    public Scorer scorer(LeafReaderContext context) throws IOException {
+      long start = System.nanoTime();
+      Scorer scorer = in.scorer(context);
+      node.scorerNanos += System.nanoTime() - start;
+      return scorer == null ? null : new ProfileScorer(this, scorer, node);
+    }
+  }
+
+  private static class ProfileScorer extends Scorer {
+    private final Scorer in;
+    private final Node node;
+    private final TwoPhaseIterator twoPhase;
+    private final DocIdSetIterator iterator;
+
+    ProfileScorer(Weight weight, Scorer in, Node node) {
+      super(weight);
+      this.in = in;
+      this.node = node;
+      TwoPhaseIterator inTwoPhase = in.twoPhaseIterator();
+      if (inTwoPhase == null) {
+        this.twoPhase = null;
+        this.iterator = new ProfileIterator(in.iterator(), node, true);
+      } else {
+        this.twoPhase = new ProfileTwoPhaseIterator(inTwoPhase, node);
+        this.iterator = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
+      }
+    }
+
+    @Override
+    public int docID() {
+      return in.docID();
+    }
+
+    @Override
+    public float score() throws IOException {
+      long start = System.nanoTime();
+      try {
+        return in.score();
+      } finally {
+        node.scoreNanos += System.nanoTime() - start;
+        node.scoreCount++;
+      }
+    }
+
+    @Override
+    public int freq() throws IOException {
+      return in.freq();
+    }
+
+    @Override
+    public Collection<ChildScorer> getChildren() throws IOException {
+      return in.getChildren();
+    }
+
+    @Override
+    public DocIdSetIterator iterator() {
+      return iterator;
+    }
+
+    @Override
+    public TwoPhaseIterator twoPhaseIterator() {
+      return twoPhase;
+    }
+  }
+
+  private static class ProfileIterator extends DocIdSetIterator {
+    private final DocIdSetIterator in;
+    private final Node node;
+    private final boolean countMatches;
+
+    ProfileIterator(DocIdSetIterator in, Node node, boolean countMatches) {
+      this.in = in;
+      this.node = node;
+      this.countMatches = countMatches;
+    }
+
+    @Override
+    public int docID() {
+      return in.docID();
+    }
+
+    @Override
+    public int nextDoc() throws IOException {
+      long start = System.nanoTime();
+      int doc = in.nextDoc();
+      node.iterateNanos += System.nanoTime() - start;
+      node.nextDocCount++;
+      return matched(doc);
+    }
+
+    @Override
+    public int advance(int target) throws IOException {
+      long start = System.nanoTime();
+      int doc = in.advance(target);
+      node.iterateNanos += System.nanoTime() - start;
+      node.advanceCount++;
+      return matched(doc);
+    }
+
+    private int matched(int doc) {
+      if (countMatches && doc != NO_MORE_DOCS) {
+        node.matchedDocs++;
+      }
+      return doc;
+    }
+
+    @Override
+    public long cost() {
+      return in.cost();
+    }
+  }
+
+  private static class ProfileTwoPhaseIterator extends TwoPhaseIterator {
+    private final TwoPhaseIterator in;
+    private final Node node;
+
+    ProfileTwoPhaseIterator(TwoPhaseIterator in, Node node) {
+      super(new ProfileIterator(in.approximation(), node, false));
+      this.in = in;
+      this.node = node;
+    }
+
+    @Override
+    public boolean matches() throws IOException {
+      long start = System.nanoTime();
+      boolean matches = in.matches();
+      node.matchNanos += System.nanoTime() - start;
+      node.matchesCount++;
+      if (matches) {
+        node.matchedDocs++;
+      }
+      return matches;
+    }
+
+    @Override
+    public float matchCost() {
+      return in.matchCost();
+    }
+  }
+}
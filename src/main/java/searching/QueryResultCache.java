@@ -0,0 +1,230 @@
+package searching;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of top-N results for repeated queries.
+ * <p>
+ * Entries are keyed by query, sort, number of hits and the version of the reader they
+ * were computed on, and bounded both by count and by an estimate of their heap size.
+ * Queries are compared with {@link Query#equals}, which already ignores the order of
+ * boolean clauses, so equivalent parsed queries share an entry. Registered with
+ * {@link ManagedSearcher#addListener} the cache empties itself whenever a new reader
+ * is published.
+ * <p>
+ * Sorted queries are run through {@link EarlyTerminatingCollectorManager}, with exact
+ * hit counts. Cached {@link TopDocs} are shared between callers and must not be modified.
+ */
+public class QueryResultCache implements ReferenceManager.RefreshListener, Accountable {
+
+  private static final long ENTRY_OVERHEAD = RamUsageEstimator.shallowSizeOfInstance(Key.class) +
+      RamUsageEstimator.shallowSizeOfInstance(TopDocs.class) + 4 * RamUsageEstimator.NUM_BYTES_OBJECT_REF +
+      RamUsageEstimator.NUM_BYTES_OBJECT_HEADER;
+  private static final long SCORE_DOC_BYTES = RamUsageEstimator.shallowSizeOfInstance(ScoreDoc.class) +
+      RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+  private static final long FIELD_DOC_BYTES = RamUsageEstimator.shallowSizeOfInstance(FieldDoc.class) +
+      RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+  private static final long DEFAULT_QUERY_BYTES = 1024;
+
+  private final int maxEntries;
+  private final long maxRamBytes;
+  private final LinkedHashMap<Key, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+  private long ramBytesUsed;
+  private long latestVersion = -1;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  public QueryResultCache(int maxEntries, long maxRamBytes) {
+    if (maxEntries < 1 || maxRamBytes < 1) {
+      throw new IllegalArgumentException("maxEntries and maxRamBytes must be positive");
+    }
+    this.maxEntries = maxEntries;
+    this.maxRamBytes = maxRamBytes;
+  }
+
+  public TopDocs search(IndexSearcher searcher, Query query, int n) throws IOException {
+    return search(searcher, query, n, null);
+  }
+
+  public TopDocs search(IndexSearcher searcher, Query query, int n, Sort sort) throws IOException {
+    Key key = new Key(query, sort, n, version(searcher.getIndexReader()));
+    Entry entry;
+    synchronized (this) {
+      entry = cache.get(key);
+    }
+    if (entry != null) {
+      hits.incrementAndGet();
+      return entry.topDocs;
+    }
+    misses.incrementAndGet();
+    TopDocs topDocs = sort == null ? searcher.search(query, n)
+        : EarlyTerminatingCollectorManager.search(searcher, query, n, sort, true);
+    put(key, new Entry(topDocs, ramBytesUsed(query, topDocs)));
+    return topDocs;
+  }
+
+  private synchronized void put(Key key, Entry entry) {
+    if (key.version < latestVersion || entry.ramBytes > maxRamBytes) {
+      // computed on a reader that was replaced meanwhile, or too large to ever fit
+      return;
+    }
+    latestVersion = key.version;
+    Entry previous = cache.put(key, entry);
+    if (previous != null) {
+      ramBytesUsed -= previous.ramBytes;
+    }
+    ramBytesUsed += entry.ramBytes;
+    Iterator<Entry> eldest = cache.values().iterator();
+    while (cache.size() > maxEntries || ramBytesUsed > maxRamBytes) {
+      ramBytesUsed -= eldest.next().ramBytes;
+      eldest.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  // IndexReader versions only grow for readers of the same index
+  private static long version(IndexReader reader) {
+    if (reader instanceof DirectoryReader) {
+      return ((DirectoryReader) reader).getVersion();
+    }
+    throw new IllegalArgumentException("Results can only be cached for a DirectoryReader, got " + reader);
+  }
+
+  private static long ramBytesUsed(Query query, TopDocs topDocs) {
+    long bytes = ENTRY_OVERHEAD + (query instanceof Accountable ? ((Accountable) query).ramBytesUsed()
+        : DEFAULT_QUERY_BYTES);
+    bytes += RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+    for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+      if (scoreDoc instanceof FieldDoc) {
+        bytes += FIELD_DOC_BYTES;
+        Object[] fields = ((FieldDoc) scoreDoc).fields;
+        bytes += RamUsageEstimator.shallowSizeOf(fields);
+        for (Object field : fields) {
+          if (field instanceof BytesRef) {
+            bytes += RamUsageEstimator.shallowSizeOf(field) + RamUsageEstimator.sizeOf(((BytesRef) field).bytes);
+          } else if (field != null) {
+            bytes += RamUsageEstimator.shallowSizeOf(field);
+          }
+        }
+      } else {
+        bytes += SCORE_DOC_BYTES;
+      }
+    }
+    return bytes;
+  }
+
+  public synchronized void clear() {
+    cache.clear();
+    ramBytesUsed = 0;
+    invalidations.incrementAndGet();
+  }
+
+  @Override
+  public void beforeRefresh() {
+  }
+
+  @Override
+  public void afterRefresh(boolean didRefresh) {
+    if (didRefresh) {
+      clear();
+    }
+  }
+
+  @Override
+  public synchronized long ramBytesUsed() {
+    return ramBytesUsed;
+  }
+
+  public synchronized int size() {
+    return cache.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public double getHitRate() {
+    long lookups = hits.get() + misses.get();
+    return lookups == 0 ? 0 : (double) hits.get() / lookups;
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public long getInvalidationCount() {
+    return invalidations.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("QueryResultCache<entries=%d ram=%d hits=%d misses=%d hitRate=%.2f evictions=%d " +
+            "invalidations=%d>", size(), ramBytesUsed(), getHitCount(), getMissCount(), getHitRate(),
+        getEvictionCount(), getInvalidationCount());
+  }
+
+  private static final class Key {
+    final Query query;
+    final Sort sort;
+    final int n;
+    final long version;
+    final int hashCode;
+
+    Key(Query query, Sort sort, int n, long version) {
+      this.query = query;
+      this.sort = sort;
+      this.n = n;
+      this.version = version;
+      this.hashCode = Objects.hash(query, sort, n, version);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return n == other.n && version == other.version && query.equals(other.query) &&
+          Objects.equals(sort, other.sort);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private static final class Entry {
+    final TopDocs topDocs;
+    final long ramBytes;
+
+    Entry(TopDocs topDocs, long ramBytes) {
+      this.topDocs = topDocs;
+      this.ramBytes = ramBytes;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package searching;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+
+/**
+ * Pages through the hits of a query with search-after instead of from + size.
+ * <p>
+ * Each page only keeps a priority queue of {@code pageSize} entries, whatever its depth:
+ * the last hit of the previous page tells the collector which hits were already returned.
+ * Hits are ranked by relevance, or by a sort such as {@code id_sort}; ties are broken by
+ * docID, so no hit is returned twice or skipped. All pages must be read from the same
+ * searcher, docIDs and scores change when the reader does, so keep it acquired until
+ * the cursor is exhausted.
+ */
+public class SearchCursor {
+
+  private final IndexSearcher searcher;
+  private final Query query;
+  private final Sort sort;
+  private final int pageSize;
+  private ScoreDoc after;
+  private int totalHits = -1;
+  private long returned;
+  private boolean exhausted;
+
+  /**
+   * Cursor ranking by relevance.
+   */
+  public SearchCursor(IndexSearcher searcher, Query query, int pageSize) {
+    this(searcher, query, null, pageSize);
+  }
+
+  /**
+   * @param sort the sort of the pages, or {@code null} for relevance
+   */
+  public SearchCursor(IndexSearcher searcher, Query query, Sort sort, int pageSize) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("pageSize must be positive, got " + pageSize);
+    }
+    this.searcher = searcher;
+    this.query = query;
+    this.sort = sort;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Resumes after a hit returned by an earlier cursor over the same searcher, query and
+   * sort, for example one whose last hit was handed to a client as a page token.
+   */
+  public SearchCursor(IndexSearcher searcher, Query query, Sort sort, int pageSize, ScoreDoc after) {
+    this(searcher, query, sort, pageSize);
+    if (sort != null && after != null && !(after instanceof FieldDoc)) {
+      throw new IllegalArgumentException("Sorted cursors resume after a FieldDoc, got " + after);
+    }
+    this.after = after;
+  }
+
+  public boolean hasNext() {
+    return !exhausted;
+  }
+
+  /**
+   * The next page of hits, empty once all hits were returned.
+   */
+  public ScoreDoc[] nextPage() throws IOException {
+    if (exhausted) {
+      return new ScoreDoc[0];
+    }
+    TopDocs page;
+    if (sort == null) {
+      page = searcher.searchAfter(after, query, pageSize);
+    } else {
+      page = searcher.searchAfter(after, query, pageSize, sort, false, false);
+    }
+    totalHits = page.totalHits;
+    ScoreDoc[] hits = page.scoreDocs;
+    if (hits.length > 0) {
+      after = hits[hits.length - 1];
+      returned += hits.length;
+    }
+    if (hits.length < pageSize) {
+      exhausted = true;
+    }
+    return hits;
+  }
+
+  /**
+   * The last hit returned, the position to resume from.
+   */
+  public ScoreDoc getAfter() {
+    return after;
+  }
+
+  /**
+   * Total number of hits of the query, known after the first page.
+   */
+  public int getTotalHits() {
+    return totalHits;
+  }
+
+  public long getReturnedHits() {
+    return returned;
+  }
+}
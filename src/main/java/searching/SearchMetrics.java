@@ -0,0 +1,252 @@
+package searching;
+
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency histograms per query type and search phase, shared by all the
+ * {@link InstrumentedIndexSearcher}s of an index.
+ * <p>
+ * The query type is the simple class name of the query that was searched, without its
+ * boost. The histograms are published as a JMX {@link DynamicMBean} with one attribute per
+ * type, phase and statistic, such as {@code TermQuery.SEGMENT.p99Micros}, and can be
+ * printed at a fixed interval with {@link #startLogging(long)}.
+ */
+public class SearchMetrics implements DynamicMBean, Closeable {
+
+  public enum Phase {
+    /** Query rewrite, including multi-term expansion. */
+    REWRITE,
+    /** Weight creation, term statistics lookup and normalization. */
+    WEIGHT,
+    /** Scoring and collection of one segment; one sample per segment searched. */
+    SEGMENT,
+    /** The whole search call, from the query to the merged top hits. */
+    SEARCH,
+    /** Loading the fields of the returned hits. */
+    FETCH
+  }
+
+  private static final String[] STATS = {"count", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"};
+  private static final String RESET = "reset";
+
+  private final String name;
+  private final Map<String, Map<Phase, LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+  private ObjectName objectName;
+  private ScheduledExecutorService logger;
+
+  public SearchMetrics(String name) {
+    this.name = name;
+  }
+
+  public static String queryType(Query query) {
+    while (query instanceof BoostQuery) {
+      query = ((BoostQuery) query).getQuery();
+    }
+    String type = query.getClass().getSimpleName();
+    return type.isEmpty() ? query.getClass().getName() : type;
+  }
+
+  public void record(Query query, Phase phase, long nanos) {
+    record(queryType(query), phase, nanos);
+  }
+
+  public void record(String queryType, Phase phase, long nanos) {
+    histograms(queryType).get(phase).record(nanos);
+  }
+
+  private Map<Phase, LatencyHistogram> histograms(String queryType) {
+    Map<Phase, LatencyHistogram> phases = histograms.get(queryType);
+    if (phases == null) {
+      phases = histograms.computeIfAbsent(queryType, type -> {
+        Map<Phase, LatencyHistogram> created = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+          created.put(phase, new LatencyHistogram());
+        }
+        return created;
+      });
+    }
+    return phases;
+  }
+
+  /**
+   * The histogram of a query type and phase, or null if no such query was searched.
+   */
+  public LatencyHistogram getHistogram(String queryType, Phase phase) {
+    Map<Phase, LatencyHistogram> phases = histograms.get(queryType);
+    return phases == null ? null : phases.get(phase);
+  }
+
+  public void reset() {
+    for (Map<Phase, LatencyHistogram> phases : histograms.values()) {
+      for (LatencyHistogram histogram : phases.values()) {
+        histogram.reset();
+      }
+    }
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server as
+   * {@code searching:type=SearchMetrics,name=<name>}.
+   */
+  public synchronized void register() throws JMException {
+    if (objectName == null) {
+      ObjectName name = new ObjectName("searching:type=SearchMetrics,name=" + ObjectName.quote(this.name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      objectName = name;
+    }
+  }
+
+  /**
+   * Prints the histograms to standard out every {@code intervalMillis}.
+   */
+  public synchronized void startLogging(long intervalMillis) {
+    if (logger == null) {
+      logger = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "search-metrics-" + name);
+        thread.setDaemon(true);
+        return thread;
+      });
+      logger.scheduleAtFixedRate(() -> System.out.println(this), intervalMillis, intervalMillis,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (logger != null) {
+      logger.shutdown();
+      logger = null;
+    }
+    if (objectName != null) {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+        server.unregisterMBean(objectName);
+      } catch (JMException e) {
+        System.err.println("Could not unregister " + objectName + ": " + e);
+      }
+      objectName = null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder("SearchMetrics " + name);
+    for (Map.Entry<String, Map<Phase, LatencyHistogram>> type : new TreeMap<>(histograms).entrySet()) {
+      for (Map.Entry<Phase, LatencyHistogram> phase : type.getValue().entrySet()) {
+        if (phase.getValue().getCount() > 0) {
+          out.append(String.format("%n  %-28s %-8s %s", type.getKey(), phase.getKey(), phase.getValue()));
+        }
+      }
+    }
+    return out.toString();
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    int phaseEnd = attribute.lastIndexOf('.');
+    int typeEnd = phaseEnd < 0 ? -1 : attribute.lastIndexOf('.', phaseEnd - 1);
+    if (typeEnd < 0) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    LatencyHistogram histogram;
+    try {
+      histogram = getHistogram(attribute.substring(0, typeEnd),
+          Phase.valueOf(attribute.substring(typeEnd + 1, phaseEnd)));
+    } catch (IllegalArgumentException e) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    if (histogram == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    switch (attribute.substring(phaseEnd + 1)) {
+      case "count":
+        return histogram.getCount();
+      case "meanMicros":
+        return histogram.getMeanNanos() / 1000;
+      case "p50Micros":
+        return histogram.getPercentileNanos(50) / 1000.0;
+      case "p99Micros":
+        return histogram.getPercentileNanos(99) / 1000.0;
+      case "p999Micros":
+        return histogram.getPercentileNanos(99.9) / 1000.0;
+      case "maxMicros":
+        return histogram.getMaxNanos() / 1000.0;
+      default:
+        throw new AttributeNotFoundException(attribute);
+    }
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      try {
+        list.add(new Attribute(attribute, getAttribute(attribute)));
+      } catch (AttributeNotFoundException e) {
+        // left out, as the contract of getAttributes asks
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Search metrics are read-only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+    if (RESET.equals(actionName)) {
+      reset();
+      return null;
+    }
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    List<MBeanAttributeInfo> attributes = new ArrayList<>();
+    for (String type : new TreeMap<>(histograms).keySet()) {
+      for (Phase phase : Phase.values()) {
+        for (String stat : STATS) {
+          String attribute = type + "." + phase + "." + stat;
+          attributes.add(new MBeanAttributeInfo(attribute, stat.equals("count") ? "long" : "double",
+              phase + " latency of " + type, true, false, false));
+        }
+      }
+    }
+    MBeanOperationInfo reset = new MBeanOperationInfo(RESET, "Clears all histograms", null, "void",
+        MBeanOperationInfo.ACTION);
+    return new MBeanInfo(getClass().getName(), "Search latency per query type and phase",
+        attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[]{reset}, null);
+  }
+}
@@ -1,94 +1,121 @@
 package searching;
 
-import analysis.SynonymAnalyzer;
+import analysis.AnalyzerRegistry;
+import analysis.ReversedTokenAnalyzer;
+import indexing.CodecType;
+import indexing.CountingDirectory;
+import indexing.DirectoryType;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.codecs.Codec;
-import org.apache.lucene.codecs.simpletext.SimpleTextCodec;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BoostQuery;
-import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TermRangeQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 import org.junit.Assert;
+import replication.PrimaryIndex;
+import replication.ReplicaIndex;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 
 public class SearcherTest {
   private final static Version version = Version.LUCENE_6_6_0;
   private static final String INDEX_DIR = "/tmp/luceneidx_searching_test";
-  private static boolean simpleTextCodec = true;
+  private static final Path REPLICA_DIR = Paths.get("/tmp/luceneidx_searching_test_replica");
+  private static CodecType codecType = CodecType.fromSystemProperty();
+  private static final long REFRESH_INTERVAL_MS = 1000;
+  private static final int SEARCH_THREADS = Runtime.getRuntime().availableProcessors();
+  // listings sorted on id_sort stop collecting early in every segment
+  private static final Sort INDEX_SORT = new Sort(new SortField("id_sort", SortField.Type.STRING));
+  private static final int RESULT_CACHE_ENTRIES = 10_000;
+  private static final long RESULT_CACHE_BYTES = 64L * 1024 * 1024;
+  private static final int AUTOMATON_CACHE_ENTRIES = 1_000;
+  private static final int PARSED_QUERY_CACHE_ENTRIES = 10_000;
+  private static final long METRICS_LOG_INTERVAL_MS = 60_000;
+  // -Dsearching.profile=true prints a per-clause profile of user queries
+  private static final boolean PROFILE_USER_QUERIES = Boolean.getBoolean("searching.profile");
+  private static final HitFetcher DISPLAY_FIELDS = new HitFetcher("id", "id_sort", "author", "email");
+  private static CountingDirectory directory;
   private static IndexWriter indexWriter;
-  private static IndexReader indexReader;
+  private static ExecutorService searchExecutor;
+  private static SearchMetrics searchMetrics;
+  private static ManagedSearcher searcherManager;
+  private static QueryResultCache resultCache;
+  private static AutomatonQueryCache automatonCache;
+  private static ParsedQueryCache parsedQueryCache;
+  private static PrimaryIndex primaryIndex;
+  private static ReplicaIndex replicaIndex;
+  private static IndexSearcher indexSearcher;
 
   public SearcherTest() throws Exception {
     indexWriter = getIndexWriter();
-
-  }
-
-  private static IndexReader getIndexReader() throws IOException {
-    Directory index = getDirectory("dir");
-    return DirectoryReader.open(index);
+    searchExecutor = ParallelSearcherFactory.newBoundedExecutor(SEARCH_THREADS, 256);
+    searchMetrics = new SearchMetrics(INDEX_DIR);
+    searchMetrics.register();
+    searchMetrics.startLogging(METRICS_LOG_INTERVAL_MS);
+    searcherManager = new ManagedSearcher(indexWriter, new ParallelSearcherFactory(searchExecutor, searchMetrics),
+        REFRESH_INTERVAL_MS);
+    searcherManager.addWarmer(SearcherWarmer.forQueries(new MatchAllDocsQuery()));
+    resultCache = new QueryResultCache(RESULT_CACHE_ENTRIES, RESULT_CACHE_BYTES);
+    searcherManager.addListener(resultCache);
+    automatonCache = new AutomatonQueryCache(AUTOMATON_CACHE_ENTRIES);
+    automatonCache.setReversedField("author", "author_rev");
+    parsedQueryCache = new ParsedQueryCache(AnalyzerRegistry.getInstance().synonyms(), PARSED_QUERY_CACHE_ENTRIES);
+    // every refresh is published to a read replica in another directory
+    primaryIndex = new PrimaryIndex(indexWriter);
+    searcherManager.addListener(primaryIndex);
+    replicaIndex = new ReplicaIndex(primaryIndex, REPLICA_DIR, new SearcherFactory(), REFRESH_INTERVAL_MS);
   }
 
-  public static Directory getDirectory(String name) throws IOException {
-    if (name.equals("ram")) {
-      return new RAMDirectory();
-    } else if (name.equals("dir")) {
-      return FSDirectory.open(Paths.get(INDEX_DIR));
-    }
-    return null;
+  public static Directory getDirectory(DirectoryType type) throws IOException {
+    return type.open(Paths.get(INDEX_DIR));
   }
 
   public static IndexWriterConfig getWriterConfig() {
     Map<String, Analyzer> analyzerPerField = new HashMap<String, Analyzer>();
-    analyzerPerField.put("specials_synonyms", new SynonymAnalyzer());
+    analyzerPerField.put("specials_synonyms", AnalyzerRegistry.getInstance().synonyms());
+    // same tokens as author, reversed, for leading wildcards
+    analyzerPerField.put("author_rev", new ReversedTokenAnalyzer(new StandardAnalyzer()));
     PerFieldAnalyzerWrapper analyzer = new PerFieldAnalyzerWrapper(
         new StandardAnalyzer(), analyzerPerField);
     IndexWriterConfig config = new IndexWriterConfig(analyzer)
-        .setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-
-    if (simpleTextCodec) {
-      Codec textCodec = new SimpleTextCodec();
-      config.setCodec(textCodec);
-    }
-    return config;
+        .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+        .setIndexSort(INDEX_SORT);
+    return codecType.apply(config);
   }
 
   public static IndexWriter getIndexWriter() throws IOException {
-    Directory index = getDirectory("dir");
+    directory = new CountingDirectory(getDirectory(DirectoryType.MMAP));
     IndexWriterConfig config = getWriterConfig();
-    return new IndexWriter(index, config);
+    return new IndexWriter(directory, config);
 
   }
 
@@ -96,7 +123,28 @@ public class SearcherTest {
     SearcherTest test = new SearcherTest();
     test.addDocs();
     test.search();
+    // repeated queries are answered from the result cache
+    test.search();
   // test.sortExample();
+    test.close();
+  }
+
+  public void close() throws IOException {
+    System.out.println("Searcher stats: " + searcherManager);
+    System.out.println("Result cache: " + resultCache);
+    System.out.println("Automaton cache: " + automatonCache);
+    System.out.println("Parsed query cache: " + parsedQueryCache);
+    System.out.println(searchMetrics);
+    replicaIndex.sync();
+    System.out.println("Replica: " + replicaIndex);
+    searchMetrics.close();
+    replicaIndex.close();
+    primaryIndex.close();
+    searcherManager.close();
+    searchExecutor.shutdown();
+    indexWriter.close();
+    System.out.println("Directory I/O: " + directory.getStats());
+    directory.close();
   }
 
   public void addDocs() throws IOException {
@@ -105,6 +153,7 @@ public class SearcherTest {
     doc.add(new TextField("id", "g", Field.Store.YES));
     doc.add(new SortedDocValuesField("id_sort", new BytesRef("9")));
     doc.add(new TextField("author", "kitty cat", Field.Store.YES));
+    doc.add(new TextField("author_rev", "kitty cat", Field.Store.NO));
     doc.add(new TextField("email", "kitty@cat.com", Field.Store.YES));
     doc.add(new TextField("email", "kitty2@cat.com", Field.Store.YES));
     doc.add(new TextField("specials", "13e12exoxoe45e66", Field.Store.YES));
@@ -118,11 +167,16 @@ public class SearcherTest {
     indexWriter.addDocument(doc);
     indexWriter.addDocument(newDOc());
     indexWriter.commit();
-
-
-    IndexReader indexReader = DirectoryReader.open(getDirectory("dir"));
-    Assert.assertEquals(2, indexReader.numDocs());
-    Assert.assertEquals(indexReader.numDeletedDocs(), 0);
+    searcherManager.maybeRefreshBlocking();
+
+    IndexSearcher searcher = searcherManager.acquire();
+    try {
+      IndexReader indexReader = searcher.getIndexReader();
+      Assert.assertEquals(2, indexReader.numDocs());
+      Assert.assertEquals(indexReader.numDeletedDocs(), 0);
+    } finally {
+      searcherManager.release(searcher);
+    }
     System.out.println("Docs added ");
   }
 
@@ -131,6 +185,7 @@ public class SearcherTest {
     doc.add(new TextField("id", "1234", Field.Store.YES));
     doc.add(new SortedDocValuesField("id_sort", new BytesRef("2")));
     doc.add(new TextField("author", "logan cat", Field.Store.YES));
+    doc.add(new TextField("author_rev", "logan cat", Field.Store.NO));
     doc.add(new TextField("email", "logan@cat.com", Field.Store.YES));
     doc.add(new TextField("email", "logan2@cat.com", Field.Store.YES));
     doc.add(new TextField("specials", "13e12exoxoe45e66", Field.Store.YES));
@@ -145,45 +200,73 @@ public class SearcherTest {
   }
 
   public void search() throws IOException, ParseException {
-    indexReader = getIndexReader();
-//    searchByTemQuery();
-//    searchByTemRangeQuery();
-//    searchByPrefixQuery();
-//    searchByPhraseQuery();
-//    searchByWildCardQuery();
-//    searchByFuzzyQuery();
-//    searchByMatchAllDocs();
-    searchByUserQuery();
-
+    indexSearcher = searcherManager.acquire();
+    try {
+//      searchByTemQuery();
+//      searchByTemRangeQuery();
+//      searchByPrefixQuery();
+//      searchByPhraseQuery();
+//      searchByWildCardQuery();
+//      searchByLeadingWildCardQuery();
+//      searchByFuzzyQuery();
+//      searchByMatchAllDocs();
+//      exportMatches();
+      searchByUserQuery();
+    } finally {
+      searcherManager.release(indexSearcher);
+      indexSearcher = null;
+    }
   }
 
   private void searchByUserQuery() throws IOException, ParseException {
     System.out.println(new Object() {
     }.getClass().getEnclosingMethod().getName());
-    Query query = new QueryParser("specials_synonyms", new SynonymAnalyzer()).parse("specials_synonyms:((elephant " +
-        "AND favourite) NOT hello)");
-    printSearchResults(20, query, indexReader);
+    Query query = parsedQueryCache.parse("specials_synonyms", "specials_synonyms:((elephant AND favourite) NOT " +
+        "hello)");
+    if (PROFILE_USER_QUERIES) {
+      QueryProfiler.Result profiled = QueryProfiler.search(indexSearcher, query, 20);
+      System.out.println(profiled);
+      printTopDocs(profiled.getTopDocs(), indexSearcher);
+      return;
+    }
+    printSearchResults(20, query, indexSearcher);
+  }
+
+  private void exportMatches() throws IOException {
+    System.out.println(new Object() {
+    }.getClass().getEnclosingMethod().getName());
+    long exported = ExportCollector.export(indexSearcher, new MatchAllDocsQuery(), DISPLAY_FIELDS,
+        hit -> System.out.println("DOC ID:" + hit.getDoc() + ":" + hit.getFields()));
+    System.out.println(exported + " docs exported");
   }
 
   private void searchByMatchAllDocs() throws IOException {
     System.out.println(new Object() {
     }.getClass().getEnclosingMethod().getName());
     Query query = new MatchAllDocsQuery();
-    printSearchResults(20, query, indexReader);
+    printSearchResults(20, query, indexSearcher);
   }
 
   private void searchByFuzzyQuery() throws IOException {
     System.out.println(new Object() {
     }.getClass().getEnclosingMethod().getName());
-    Query query = new FuzzyQuery(new Term("author", "cut"));
-    printSearchResults(20, query, indexReader);
+    Query query = automatonCache.fuzzy("author", "cut");
+    printSearchResults(20, query, indexSearcher);
   }
 
   private void searchByWildCardQuery() throws IOException {
     System.out.println(new Object() {
     }.getClass().getEnclosingMethod().getName());
-    Query query = new WildcardQuery(new Term("author", "?it*"));
-    printSearchResults(20, query, indexReader);
+    Query query = automatonCache.wildcard("author", "?it*");
+    printSearchResults(20, query, indexSearcher);
+  }
+
+  private void searchByLeadingWildCardQuery() throws IOException {
+    System.out.println(new Object() {
+    }.getClass().getEnclosingMethod().getName());
+    // runs as a prefix query on author_rev
+    Query query = automatonCache.wildcard("author", "*gan");
+    printSearchResults(20, query, indexSearcher);
   }
 
   private void searchByPhraseQuery() throws IOException {
@@ -194,7 +277,7 @@ public class SearcherTest {
         add(new Term("specials_synonyms", "red"))
         .add(new Term("specials_synonyms", "animal"))
         .build();
-    printSearchResults(20, query, indexReader);
+    printSearchResults(20, query, indexSearcher);
 
   }
 
@@ -203,7 +286,7 @@ public class SearcherTest {
     }.getClass().getEnclosingMethod().getName());
     Term term = new Term("id", "12");
     PrefixQuery query = new PrefixQuery(term);
-    printSearchResults(20, query, indexReader);
+    printSearchResults(20, query, indexSearcher);
   }
 
   private void searchByTemRangeQuery() throws IOException {
@@ -211,7 +294,7 @@ public class SearcherTest {
     }.getClass().getEnclosingMethod().getName());
     TermRangeQuery query = new TermRangeQuery("id", new BytesRef("0"), new BytesRef("2"),
         true, true);
-    printSearchResults(20, query, indexReader);
+    printSearchResults(20, query, indexSearcher);
   }
 
   private void searchByTemQuery() throws IOException {
@@ -220,35 +303,38 @@ public class SearcherTest {
 
     Term t = new Term("author", "kitty");
     Query query = new TermQuery(t);
-    printSearchResults(20, query, indexReader);
+    printSearchResults(20, query, indexSearcher);
 
   }
 
   private void printSearchResults(
       final int limit, final Query query,
-      final IndexReader reader) throws IOException {
-    IndexSearcher searcher = new IndexSearcher(reader);
-    TopDocs docs = searcher.search(query, limit);
+      final IndexSearcher searcher) throws IOException {
+    TopDocs docs = resultCache.search(searcher, query, limit);
 
     System.out.println(docs.totalHits + " found for query: " + query);
 
-    for (final ScoreDoc scoreDoc : docs.scoreDocs) {
+    List<HitFetcher.Hit> hits = searcher instanceof InstrumentedIndexSearcher
+        ? ((InstrumentedIndexSearcher) searcher).fetch(DISPLAY_FIELDS, query, docs.scoreDocs)
+        : DISPLAY_FIELDS.fetch(searcher, docs.scoreDocs);
+    for (final HitFetcher.Hit hit : hits) {
 
-      System.out.println("DOC ID:" + scoreDoc.doc + ":" + searcher.doc(scoreDoc.doc));
+      System.out.println("DOC ID:" + hit.getDoc() + ":" + hit.getFields());
     }
   }
 
-  private IndexSearcher getSearrcher() throws IOException {
-    IndexReader indexReader = DirectoryReader.open(getDirectory("dir"));
-    IndexSearcher searcher = new IndexSearcher(indexReader);
-    return searcher;
-  }
-
   public void sortExample() throws IOException {
-    reverseOrderSortField();
-    incOrderSortField();
-    indexSortOrder();
-    relevanceSort();
+    indexSearcher = searcherManager.acquire();
+    try {
+      reverseOrderSortField();
+      incOrderSortField();
+      indexSortOrder();
+      relevanceSort();
+      pageByCursor();
+    } finally {
+      searcherManager.release(indexSearcher);
+      indexSearcher = null;
+    }
   }
 
   private void relevanceSort() throws IOException {
@@ -256,42 +342,52 @@ public class SearcherTest {
     }.getClass().getEnclosingMethod().getName());
     Query query = new TermQuery(new Term("specials_synonyms", "Elephant"));
     query = new BoostQuery(query, 10f);
-    IndexSearcher searcher = getSearrcher();
-    TopDocs topDocs = searcher.search(query, 10);
-    printTopDocs(topDocs, searcher);
+    TopDocs topDocs = resultCache.search(indexSearcher, query, 10);
+    printTopDocs(topDocs, indexSearcher);
+  }
+
+  private void pageByCursor() throws IOException {
+    System.out.println(new Object() {
+    }.getClass().getEnclosingMethod().getName());
+    SearchCursor cursor = new SearchCursor(indexSearcher, new MatchAllDocsQuery(), INDEX_SORT, 1);
+    while (cursor.hasNext()) {
+      ScoreDoc[] page = cursor.nextPage();
+      for (HitFetcher.Hit hit : DISPLAY_FIELDS.fetch(indexSearcher, page)) {
+        System.out.println("page " + cursor.getReturnedHits() + " DOCID-" + hit.getDoc() + " : " + hit.getFields());
+      }
+    }
   }
 
   private void incOrderSortField() throws IOException {
     System.out.println(new Object() {
     }.getClass().getEnclosingMethod().getName());
     Query query = new MatchAllDocsQuery();
-    IndexSearcher searcher = getSearrcher();
-    TopDocs topDocs = searcher.search(query, 10, new Sort(new SortField("id_sort", SortField.Type.STRING, false)));
-    printTopDocs(topDocs, searcher);
+    TopDocs topDocs = resultCache.search(indexSearcher, query, 10,
+        new Sort(new SortField("id_sort", SortField.Type.STRING, false)));
+    printTopDocs(topDocs, indexSearcher);
   }
 
   private void indexSortOrder() throws IOException {
     System.out.println(new Object() {
     }.getClass().getEnclosingMethod().getName());
     Query query = new MatchAllDocsQuery();
-    IndexSearcher searcher = getSearrcher();
-    TopDocs topDocs = searcher.search(query, 10, Sort.INDEXORDER);
-    printTopDocs(topDocs, searcher);
+    TopDocs topDocs = resultCache.search(indexSearcher, query, 10, Sort.INDEXORDER);
+    printTopDocs(topDocs, indexSearcher);
   }
 
   public void reverseOrderSortField() throws IOException {
     System.out.println(new Object() {
     }.getClass().getEnclosingMethod().getName());
     Query query = new MatchAllDocsQuery();
-    IndexSearcher searcher = getSearrcher();
-    TopDocs topDocs = searcher.search(query, 10, new Sort(new SortField("id_sort", SortField.Type.STRING, true)));
-    printTopDocs(topDocs, searcher);
+    TopDocs topDocs = resultCache.search(indexSearcher, query, 10,
+        new Sort(new SortField("id_sort", SortField.Type.STRING, true)));
+    printTopDocs(topDocs, indexSearcher);
   }
 
   void printTopDocs(TopDocs topDocs, IndexSearcher searcher) throws IOException {
     if (topDocs.totalHits > 0) {
-      for (ScoreDoc scdoc : topDocs.scoreDocs) {
-        System.out.println("DOCID-" + scdoc.doc + " || SCORE " + scdoc.score + " : " + searcher.doc(scdoc.doc));
+      for (HitFetcher.Hit hit : DISPLAY_FIELDS.fetch(searcher, topDocs.scoreDocs)) {
+        System.out.println("DOCID-" + hit.getDoc() + " || SCORE " + hit.getScore() + " : " + hit.getFields());
       }
     } else {
       System.out.println("0 Results found");
@@ -0,0 +1,29 @@
+package searching;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs against a newly opened searcher before {@link ManagedSearcher} publishes it, so
+ * the first user queries do not pay for loading terms, norms and doc values.
+ */
+public interface SearcherWarmer {
+
+  void warm(IndexSearcher searcher) throws IOException;
+
+  /**
+   * Warms a searcher by running each query once.
+   */
+  static SearcherWarmer forQueries(Query... queries) {
+    List<Query> warmQueries = Arrays.asList(queries);
+    return searcher -> {
+      for (Query query : warmQueries) {
+        searcher.search(query, 10);
+      }
+    };
+  }
+}
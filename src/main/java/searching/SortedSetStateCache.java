@@ -0,0 +1,146 @@
+package searching;
+
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.Accountable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches one {@link SortedSetDocValuesReaderState} per reader and facet index field.
+ * <p>
+ * Building a state merges the ordinals of every segment into a global ordinal map, which
+ * is expensive on large multi-segment indexes and only changes when the reader does.
+ * Registered as a {@link SearcherWarmer}, the cache builds the states of its fields before
+ * a new searcher is published; entries are dropped when their reader is closed.
+ */
+public class SortedSetStateCache implements SearcherWarmer, Accountable {
+
+  private final Set<String> fields;
+  private final Map<Object, Map<String, SortedSetDocValuesReaderState>> states = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong builds = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong buildNanos = new AtomicLong();
+  private volatile long lastBuildNanos;
+
+  /**
+   * @param fields facet index fields to build eagerly when warming, {@code $facets} unless
+   *               {@link org.apache.lucene.facet.FacetsConfig#setIndexFieldName} was used
+   */
+  public SortedSetStateCache(String... fields) {
+    this.fields = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(fields)));
+  }
+
+  @Override
+  public void warm(IndexSearcher searcher) throws IOException {
+    IndexReader reader = searcher.getIndexReader();
+    for (String field : fields) {
+      FieldInfo info = MultiFields.getMergedFieldInfos(reader).fieldInfo(field);
+      // nothing to build until the first facet of this field is indexed
+      if (info != null && info.getDocValuesType() == DocValuesType.SORTED_SET) {
+        get(reader, field);
+      }
+    }
+  }
+
+  public SortedSetDocValuesReaderState get(IndexReader reader, String field) throws IOException {
+    Map<String, SortedSetDocValuesReaderState> readerStates = states.get(reader.getCombinedCoreAndDeletesKey());
+    SortedSetDocValuesReaderState state = readerStates == null ? null : readerStates.get(field);
+    if (state != null) {
+      hits.incrementAndGet();
+      return state;
+    }
+    return build(reader, field);
+  }
+
+  // builds are rare, one at a time keeps two threads from building the same state
+  private synchronized SortedSetDocValuesReaderState build(IndexReader reader, String field) throws IOException {
+    Object key = reader.getCombinedCoreAndDeletesKey();
+    Map<String, SortedSetDocValuesReaderState> readerStates = states.get(key);
+    if (readerStates == null) {
+      readerStates = new ConcurrentHashMap<>();
+      states.put(key, readerStates);
+      reader.addReaderClosedListener(closed -> {
+        if (states.remove(key) != null) {
+          evictions.incrementAndGet();
+        }
+      });
+    }
+    SortedSetDocValuesReaderState state = readerStates.get(field);
+    if (state != null) {
+      hits.incrementAndGet();
+      return state;
+    }
+    long start = System.nanoTime();
+    state = new DefaultSortedSetDocValuesReaderState(reader, field);
+    // the ordinal map used for counting is built and kept on first use
+    state.getDocValues();
+    lastBuildNanos = System.nanoTime() - start;
+    buildNanos.addAndGet(lastBuildNanos);
+    builds.incrementAndGet();
+    readerStates.put(field, state);
+    return state;
+  }
+
+  /**
+   * Heap used by the states of all open readers.
+   */
+  @Override
+  public long ramBytesUsed() {
+    long bytes = 0;
+    for (Map<String, SortedSetDocValuesReaderState> readerStates : states.values()) {
+      for (SortedSetDocValuesReaderState state : readerStates.values()) {
+        bytes += state.ramBytesUsed();
+      }
+    }
+    return bytes;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Map<String, SortedSetDocValuesReaderState> readerStates : states.values()) {
+      size += readerStates.size();
+    }
+    return size;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getBuildCount() {
+    return builds.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public long getTotalBuildMillis() {
+    return buildNanos.get() / 1_000_000;
+  }
+
+  public long getLastBuildMillis() {
+    return lastBuildNanos / 1_000_000;
+  }
+
+  @Override
+  public String toString() {
+    return "SortedSetStateCache<states=" + size() + " ram=" + ramBytesUsed() + " hits=" + getHitCount() +
+        " builds=" + getBuildCount() + " evictions=" + getEvictionCount() + " buildMs=" + getTotalBuildMillis() +
+        " lastBuildMs=" + getLastBuildMillis() + ">";
+  }
+}
@@ -0,0 +1,143 @@
+package searching;
+
+import analysis.ReversedTokenAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Indexes random author names into {@code author} and its reversed companion
+ * {@code author_rev}, then prints the latency of wildcard and fuzzy queries built on every
+ * call, taken from an {@link AutomatonQueryCache}, and taken from a cache that runs
+ * leading wildcards on the reversed field.
+ * <p>
+ * Usage: {@code WildcardBenchmark [numDocs] [queryIterations]}
+ */
+public class WildcardBenchmark {
+
+  private static final String[] SYLLABLES = {"ka", "ri", "son", "ton", "ma", "lo", "gan", "ber", "ing", "the",
+      "wil", "ler", "sen", "an", "ders", "mo", "ra", "vi", "ch", "el", "do", "nu", "pe", "tr", "ov", "ski", "ja",
+      "na", "qu", "is", "ze", "ul", "hem", "os", "bra", "ck", "fi", "ld", "yo", "ung"};
+  private static final String[] PATTERNS = {"*son", "*ington", "*skiber", "kar*", "?ar*ta", "*ma*son"};
+  private static final String[] FUZZY_TERMS = {"karlson", "matrinu"};
+
+  private enum Mode {UNCACHED, CACHED, CACHED_REVERSED}
+
+  public static void main(String args[]) throws Exception {
+    int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int queryIterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+    Path path = Files.createTempDirectory("wildcard_bench");
+    try (Directory dir = FSDirectory.open(path)) {
+      long start = System.nanoTime();
+      buildIndex(dir, numDocs);
+      try (DirectoryReader reader = DirectoryReader.open(dir)) {
+        System.out.println(String.format("%d docs, %d author terms, indexed in %d ms", numDocs,
+            MultiFields.getTerms(reader, "author").size(), (System.nanoTime() - start) / 1_000_000));
+        IndexSearcher searcher = new IndexSearcher(reader);
+        // measure the term dictionary walks, not the query cache
+        searcher.setQueryCache(null);
+        System.out.println(String.format("%-12s %-16s %12s %10s %10s", "pattern", "mode", "totalHits", "p50 (ms)",
+            "p99 (ms)"));
+        for (String pattern : PATTERNS) {
+          for (Mode mode : Mode.values()) {
+            run(searcher, pattern, false, mode, queryIterations);
+          }
+        }
+        for (String text : FUZZY_TERMS) {
+          // there is no reversed fuzzy query
+          run(searcher, text, true, Mode.UNCACHED, queryIterations);
+          run(searcher, text, true, Mode.CACHED, queryIterations);
+        }
+      }
+    } finally {
+      IOUtils.rm(path);
+    }
+  }
+
+  private static void buildIndex(Directory dir, int numDocs) throws IOException {
+    Analyzer analyzer = new StandardAnalyzer();
+    Analyzer perField = new PerFieldAnalyzerWrapper(analyzer,
+        Collections.singletonMap("author_rev", new ReversedTokenAnalyzer(analyzer)));
+    IndexWriterConfig config = new IndexWriterConfig(perField)
+        .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+        .setRAMBufferSizeMB(256);
+    Random random = new Random(42);
+    try (IndexWriter writer = new IndexWriter(dir, config)) {
+      Document doc = new Document();
+      TextField author = new TextField("author", "", Field.Store.NO);
+      TextField authorRev = new TextField("author_rev", "", Field.Store.NO);
+      doc.add(author);
+      doc.add(authorRev);
+      StringBuilder name = new StringBuilder();
+      for (int i = 0; i < numDocs; i++) {
+        name.setLength(0);
+        appendName(name, random);
+        name.append(' ');
+        appendName(name, random);
+        author.setStringValue(name.toString());
+        authorRev.setStringValue(name.toString());
+        writer.addDocument(doc);
+      }
+      writer.commit();
+    }
+  }
+
+  private static void appendName(StringBuilder name, Random random) {
+    int syllables = 2 + random.nextInt(4);
+    for (int i = 0; i < syllables; i++) {
+      name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+    }
+  }
+
+  private static void run(IndexSearcher searcher, String text, boolean fuzzy, Mode mode, int iterations)
+      throws IOException {
+    AutomatonQueryCache cache = new AutomatonQueryCache(100);
+    if (mode == Mode.CACHED_REVERSED) {
+      cache.setReversedField("author", "author_rev");
+    }
+    TopDocs topDocs = null;
+    for (int i = 0; i < Math.max(1, iterations / 5); i++) {
+      topDocs = searcher.search(query(cache, text, fuzzy, mode), 10);
+    }
+    long[] latencies = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      topDocs = searcher.search(query(cache, text, fuzzy, mode), 10);
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+    System.out.println(String.format("%-12s %-16s %12d %10.2f %10.2f", fuzzy ? text + "~" : text, mode,
+        topDocs.totalHits, latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6));
+  }
+
+  private static Query query(AutomatonQueryCache cache, String text, boolean fuzzy, Mode mode) {
+    if (mode == Mode.UNCACHED) {
+      return fuzzy ? new FuzzyQuery(new Term("author", text)) : new WildcardQuery(new Term("author", text));
+    }
+    return fuzzy ? cache.fuzzy("author", text) : cache.wildcard("author", text);
+  }
+}
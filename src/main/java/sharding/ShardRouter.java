@@ -0,0 +1,38 @@
+package sharding;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+/**
+ * Maps document keys to shards with the 32 bit murmur3 hash of the key's UTF-8 bytes.
+ * <p>
+ * The hash spreads sequential and clustered keys such as ids, ASINs or ISBNs evenly, and a
+ * key always maps to the same shard for the same number of shards, so updates and deletes
+ * by key reach the shard that holds the document. Changing the number of shards moves most
+ * keys and needs a reindex.
+ */
+public final class ShardRouter {
+
+  private static final int SEED = 0x9747b28c;
+
+  private final int numShards;
+
+  public ShardRouter(int numShards) {
+    if (numShards < 1) {
+      throw new IllegalArgumentException("numShards must be positive, got " + numShards);
+    }
+    this.numShards = numShards;
+  }
+
+  public int getShardCount() {
+    return numShards;
+  }
+
+  public int shard(String key) {
+    return shard(new BytesRef(key));
+  }
+
+  public int shard(BytesRef key) {
+    return Math.floorMod(StringHelper.murmurhash3_x86_32(key, SEED), numShards);
+  }
+}
@@ -0,0 +1,150 @@
+package sharding;
+
+import indexing.DirectoryType;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * An index split into shards, each a directory {@code shard-<n>} under a root path with its
+ * own {@link IndexWriter}. Documents are routed by the value of a key field with a
+ * {@link ShardRouter}; the key field should be indexed as a single token, a
+ * {@link org.apache.lucene.document.StringField}, so updates and deletes can find it.
+ * <p>
+ * The writers are independent: documents for different shards are indexed, flushed and
+ * merged in parallel by as many threads as add them, and each shard stays small enough
+ * to merge and copy. Commits are per shard; after a crash between two shard commits the
+ * shards may be at different points.
+ */
+public class ShardedIndex implements Closeable {
+
+  private final String keyField;
+  private final ShardRouter router;
+  private final List<Directory> directories = new ArrayList<>();
+  private final List<IndexWriter> writers = new ArrayList<>();
+
+  /**
+   * @param configs creates the writer config of each shard, a new config per call
+   */
+  public ShardedIndex(Path root, int numShards, String keyField, DirectoryType type,
+                      Supplier<IndexWriterConfig> configs) throws IOException {
+    this.keyField = keyField;
+    this.router = new ShardRouter(numShards);
+    boolean success = false;
+    try {
+      for (int i = 0; i < numShards; i++) {
+        Directory directory = type.open(shardPath(root, i));
+        directories.add(directory);
+        writers.add(new IndexWriter(directory, configs.get()));
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        IOUtils.closeWhileHandlingException(writers);
+        IOUtils.closeWhileHandlingException(directories);
+      }
+    }
+  }
+
+  public static Path shardPath(Path root, int shard) {
+    return root.resolve("shard-" + shard);
+  }
+
+  public int getShardCount() {
+    return router.getShardCount();
+  }
+
+  public String getKeyField() {
+    return keyField;
+  }
+
+  public int shardFor(String key) {
+    return router.shard(key);
+  }
+
+  public IndexWriter getWriter(int shard) {
+    return writers.get(shard);
+  }
+
+  public long addDocument(Document doc) throws IOException {
+    return writers.get(shardFor(key(doc))).addDocument(doc);
+  }
+
+  /**
+   * Replaces the documents with the same key as {@code doc}.
+   */
+  public long updateDocument(Document doc) throws IOException {
+    String key = key(doc);
+    return writers.get(shardFor(key)).updateDocument(new Term(keyField, key), doc);
+  }
+
+  public long deleteDocument(String key) throws IOException {
+    return writers.get(shardFor(key)).deleteDocuments(new Term(keyField, key));
+  }
+
+  private String key(Document doc) {
+    String key = doc.get(keyField);
+    if (key == null) {
+      throw new IllegalArgumentException("Document has no key field " + keyField + ": " + doc);
+    }
+    return key;
+  }
+
+  public void commit() throws IOException {
+    for (IndexWriter writer : writers) {
+      writer.commit();
+    }
+  }
+
+  public long numDocs() {
+    long numDocs = 0;
+    for (IndexWriter writer : writers) {
+      numDocs += writer.numDocs();
+    }
+    return numDocs;
+  }
+
+  /**
+   * Opens near-real-time readers on all shards, with the changes not committed yet.
+   *
+   * @param executor searches the shards in parallel, or null to search them one after the other
+   */
+  public ShardedSearcher openSearcher(ExecutorService executor) throws IOException {
+    List<IndexReader> readers = new ArrayList<>(writers.size());
+    boolean success = false;
+    try {
+      for (IndexWriter writer : writers) {
+        readers.add(DirectoryReader.open(writer));
+      }
+      ShardedSearcher searcher = new ShardedSearcher(readers, executor);
+      success = true;
+      return searcher;
+    } finally {
+      if (!success) {
+        IOUtils.closeWhileHandlingException(readers);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      IOUtils.close(writers);
+    } finally {
+      IOUtils.close(directories);
+    }
+  }
+}
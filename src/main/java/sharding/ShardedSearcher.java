@@ -0,0 +1,243 @@
+package sharding;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.ThreadInterruptedException;
+import searching.HitFetcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Searches the shards of a {@link ShardedIndex} in parallel and merges their top hits.
+ * <p>
+ * Each shard is searched by its own {@link IndexSearcher} whose term and collection
+ * statistics are the sums over all shards, so a document gets the score it would get in a
+ * single index and the hits of different shards can be compared. The merge keeps the
+ * order of the scores or of the sort, ties going to the lower shard; the returned
+ * {@link ScoreDoc}s carry their shard in {@code shardIndex} and their docID within that
+ * shard.
+ * <p>
+ * Each search shares one table of term statistics between its shards: the first shard
+ * that creates its weight sums the statistics of a term over all shards and the others
+ * reuse them, so a query term costs a terms dictionary seek per shard for the statistics
+ * plus the seek each shard does for its own weight. Collection statistics are computed
+ * once per field. The searcher is a point-in-time view and owns the shard readers, which
+ * are closed with it.
+ */
+public class ShardedSearcher implements Closeable {
+
+  private final List<IndexReader> readers;
+  private final List<ShardSearcher> shards = new ArrayList<>();
+  private final ExecutorService executor;
+  private final Map<String, CollectionStatistics> collectionStatistics = new ConcurrentHashMap<>();
+
+  /**
+   * @param executor searches the shards in parallel, or null to search them one after the other
+   */
+  public ShardedSearcher(List<IndexReader> readers, ExecutorService executor) {
+    this.readers = new ArrayList<>(readers);
+    this.executor = executor;
+    for (IndexReader reader : readers) {
+      shards.add(new ShardSearcher(reader, null));
+    }
+  }
+
+  public int getShardCount() {
+    return shards.size();
+  }
+
+  public IndexSearcher getShard(int shard) {
+    return shards.get(shard);
+  }
+
+  public long getMaxDoc() {
+    long maxDoc = 0;
+    for (IndexReader reader : readers) {
+      maxDoc += reader.maxDoc();
+    }
+    return maxDoc;
+  }
+
+  public TopDocs search(Query query, int n) throws IOException {
+    List<TopDocs> shardHits = scatter(shard -> shard.search(query, n));
+    return TopDocs.merge(n, shardHits.toArray(new TopDocs[shardHits.size()]));
+  }
+
+  public TopFieldDocs search(Query query, int n, Sort sort) throws IOException {
+    List<TopFieldDocs> shardHits = scatter(shard -> shard.search(query, n, sort));
+    return TopDocs.merge(sort, n, shardHits.toArray(new TopFieldDocs[shardHits.size()]));
+  }
+
+  public long count(Query query) throws IOException {
+    long count = 0;
+    for (int shardCount : scatter(shard -> shard.count(query))) {
+      count += shardCount;
+    }
+    return count;
+  }
+
+  /**
+   * Loads the fields of merged hits from their shards, in the order of the hits. The docID
+   * of a returned hit is the one within its shard.
+   */
+  public List<HitFetcher.Hit> fetch(HitFetcher fetcher, ScoreDoc[] scoreDocs) throws IOException {
+    HitFetcher.Hit[] hits = new HitFetcher.Hit[scoreDocs.length];
+    for (int shard = 0; shard < shards.size(); shard++) {
+      List<Integer> positions = new ArrayList<>();
+      for (int i = 0; i < scoreDocs.length; i++) {
+        if (scoreDocs[i].shardIndex == shard) {
+          positions.add(i);
+        }
+      }
+      if (positions.isEmpty()) {
+        continue;
+      }
+      ScoreDoc[] shardDocs = new ScoreDoc[positions.size()];
+      for (int i = 0; i < shardDocs.length; i++) {
+        shardDocs[i] = scoreDocs[positions.get(i)];
+      }
+      List<HitFetcher.Hit> shardHits = fetcher.fetch(shards.get(shard), shardDocs);
+      for (int i = 0; i < shardDocs.length; i++) {
+        hits[positions.get(i)] = shardHits.get(i);
+      }
+    }
+    return Arrays.asList(hits);
+  }
+
+  private interface ShardSearch<T> {
+    T search(IndexSearcher shard) throws IOException;
+  }
+
+  private <T> List<T> scatter(ShardSearch<T> search) throws IOException {
+    // searchers are cheap, each search gets its own that share its term statistics
+    Map<Term, TermStatistics> termStatistics = new ConcurrentHashMap<>();
+    List<IndexSearcher> searchers = new ArrayList<>(readers.size());
+    for (IndexReader reader : readers) {
+      searchers.add(new ShardSearcher(reader, termStatistics));
+    }
+    List<T> results = new ArrayList<>(searchers.size());
+    if (executor == null) {
+      for (IndexSearcher shard : searchers) {
+        results.add(search.search(shard));
+      }
+      return results;
+    }
+    List<Future<T>> futures = new ArrayList<>(searchers.size());
+    for (IndexSearcher shard : searchers) {
+      futures.add(executor.submit(() -> search.search(shard)));
+    }
+    for (Future<T> future : futures) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new RuntimeException(e.getCause());
+      } catch (InterruptedException e) {
+        throw new ThreadInterruptedException(e);
+      }
+    }
+    return results;
+  }
+
+  private TermStatistics termStatistics(Term term) throws IOException {
+    long docFreq = 0;
+    long totalTermFreq = 0;
+    for (ShardSearcher shard : shards) {
+      TermContext context = TermContext.build(shard.getTopReaderContext(), term);
+      docFreq += context.docFreq();
+      totalTermFreq = sum(totalTermFreq, context.totalTermFreq());
+    }
+    return new TermStatistics(term.bytes(), docFreq, totalTermFreq);
+  }
+
+  private CollectionStatistics collectionStatistics(String field) throws IOException {
+    CollectionStatistics statistics = collectionStatistics.get(field);
+    if (statistics != null) {
+      return statistics;
+    }
+    long maxDoc = 0;
+    long docCount = 0;
+    long sumTotalTermFreq = 0;
+    long sumDocFreq = 0;
+    for (ShardSearcher shard : shards) {
+      CollectionStatistics shardStatistics = shard.localCollectionStatistics(field);
+      maxDoc += shardStatistics.maxDoc();
+      docCount = sum(docCount, shardStatistics.docCount());
+      sumTotalTermFreq = sum(sumTotalTermFreq, shardStatistics.sumTotalTermFreq());
+      sumDocFreq = sum(sumDocFreq, shardStatistics.sumDocFreq());
+    }
+    statistics = new CollectionStatistics(field, maxDoc, docCount, sumTotalTermFreq, sumDocFreq);
+    collectionStatistics.putIfAbsent(field, statistics);
+    return statistics;
+  }
+
+  // -1 means the statistic is not available, for one shard or all
+  private static long sum(long total, long value) {
+    return total == -1 || value == -1 ? -1 : total + value;
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOUtils.close(readers);
+  }
+
+  private final class ShardSearcher extends IndexSearcher {
+    // the statistics of the search this searcher belongs to, or null to compute them on every call
+    private final Map<Term, TermStatistics> termStatistics;
+
+    ShardSearcher(IndexReader reader, Map<Term, TermStatistics> termStatistics) {
+      super(reader);
+      this.termStatistics = termStatistics;
+    }
+
+    @Override
+    public TermStatistics termStatistics(Term term, TermContext context) throws IOException {
+      if (termStatistics == null) {
+        return ShardedSearcher.this.termStatistics(term);
+      }
+      try {
+        // shards that want the same term wait for the first one instead of repeating its seeks
+        return termStatistics.computeIfAbsent(term, t -> {
+          try {
+            return ShardedSearcher.this.termStatistics(t);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public CollectionStatistics collectionStatistics(String field) throws IOException {
+      return ShardedSearcher.this.collectionStatistics(field);
+    }
+
+    CollectionStatistics localCollectionStatistics(String field) throws IOException {
+      return super.collectionStatistics(field);
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package sharding;
+
+import indexing.DirectoryType;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.IOUtils;
+import searching.ParallelSearcherFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexes the same documents into 1 up to {@code maxShards} shards, one indexing thread per
+ * shard, and prints the indexing rate and the latency of relevance and field sorted
+ * searches across the shards. The top hits of every layout are checked against those of
+ * the single shard: with global statistics the scores are the same.
+ * <p>
+ * Usage: {@code ShardingBenchmark [numDocs] [maxShards] [queryIterations]}
+ */
+public class ShardingBenchmark {
+
+  private static final String[] WORDS = {
+      "lucene", "search", "index", "segment", "merge", "query", "score", "token", "field", "term",
+      "analyzer", "codec", "reader", "writer", "commit", "facet", "sort", "shard", "replica", "cache"};
+  private static final Query[] QUERIES = {
+      new TermQuery(new Term("body", "lucene")),
+      new BooleanQuery.Builder()
+          .add(new TermQuery(new Term("body", "segment")), BooleanClause.Occur.SHOULD)
+          .add(new TermQuery(new Term("body", "replica")), BooleanClause.Occur.SHOULD)
+          .build(),
+      new BooleanQuery.Builder()
+          .add(new TermQuery(new Term("body", "search")), BooleanClause.Occur.MUST)
+          .add(new TermQuery(new Term("body", "cache")), BooleanClause.Occur.MUST)
+          .build()
+  };
+  private static final Sort SORT = new Sort(new SortField("rank", SortField.Type.LONG, true));
+
+  public static void main(String args[]) throws Exception {
+    int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+    int maxShards = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    int queryIterations = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+    int cores = Runtime.getRuntime().availableProcessors();
+
+    System.out.println(String.format("%d docs, %d cores", numDocs, cores));
+    System.out.println(String.format("%-8s %12s %10s %12s %12s %12s", "shards", "docs/s", "skew", "p50 (ms)",
+        "p99 (ms)", "same hits"));
+    List<String> expected = null;
+    for (int shards = 1; shards <= maxShards; shards *= 2) {
+      Path root = Files.createTempDirectory("sharding_bench");
+      ExecutorService executor = ParallelSearcherFactory.newBoundedExecutor(Math.min(shards, cores), 1024);
+      try (ShardedIndex index = new ShardedIndex(root, shards, "id", DirectoryType.MMAP,
+          () -> new IndexWriterConfig(new StandardAnalyzer())
+              .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+              .setRAMBufferSizeMB(64))) {
+        double docsPerSecond = index(index, numDocs, shards);
+        try (ShardedSearcher searcher = index.openSearcher(executor)) {
+          List<String> hits = topHits(searcher);
+          if (expected == null) {
+            expected = hits;
+          }
+          long[] latencies = search(searcher, queryIterations);
+          System.out.println(String.format("%-8d %12.0f %10.3f %12.2f %12.2f %12s", shards, docsPerSecond,
+              skew(searcher), latencies[latencies.length / 2] / 1e6,
+              latencies[(int) (latencies.length * 0.99)] / 1e6, hits.equals(expected)));
+        }
+      } finally {
+        executor.shutdown();
+        IOUtils.rm(root);
+      }
+    }
+  }
+
+  // each thread takes the next document number, the documents do not depend on the thread
+  private static double index(ShardedIndex index, int numDocs, int threads) throws Exception {
+    AtomicInteger next = new AtomicInteger();
+    List<Thread> indexers = new ArrayList<>();
+    List<Exception> failures = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      Thread indexer = new Thread(() -> {
+        try {
+          for (int i = next.getAndIncrement(); i < numDocs; i = next.getAndIncrement()) {
+            index.addDocument(document(i));
+          }
+        } catch (IOException e) {
+          synchronized (failures) {
+            failures.add(e);
+          }
+        }
+      }, "indexer-" + t);
+      indexer.start();
+      indexers.add(indexer);
+    }
+    for (Thread indexer : indexers) {
+      indexer.join();
+    }
+    if (!failures.isEmpty()) {
+      throw failures.get(0);
+    }
+    index.commit();
+    return numDocs / ((System.nanoTime() - start) / 1e9);
+  }
+
+  private static Document document(int i) {
+    Random random = new Random(i * 31L + 7);
+    StringBuilder text = new StringBuilder();
+    for (int w = 0; w < 12; w++) {
+      // skewed word frequencies so terms have different posting list lengths
+      int word = (int) (Math.abs(random.nextGaussian()) * WORDS.length / 3) % WORDS.length;
+      text.append(WORDS[word]).append(' ');
+    }
+    Document doc = new Document();
+    doc.add(new StringField("id", "isbn-" + i, Field.Store.YES));
+    doc.add(new TextField("body", text.toString(), Field.Store.NO));
+    doc.add(new NumericDocValuesField("rank", random.nextInt(1_000_000)));
+    return doc;
+  }
+
+  // the scores and sort values of the top hits, which do not depend on the layout
+  private static List<String> topHits(ShardedSearcher searcher) throws IOException {
+    List<String> hits = new ArrayList<>();
+    for (Query query : QUERIES) {
+      StringBuilder scores = new StringBuilder();
+      for (ScoreDoc scoreDoc : searcher.search(query, 10).scoreDocs) {
+        scores.append(scoreDoc.score).append(' ');
+      }
+      hits.add(scores.toString());
+      StringBuilder values = new StringBuilder();
+      TopDocs sorted = searcher.search(query, 10, SORT);
+      for (ScoreDoc scoreDoc : sorted.scoreDocs) {
+        values.append(Arrays.toString(((FieldDoc) scoreDoc).fields)).append(' ');
+      }
+      hits.add(values.toString());
+      hits.add(Long.toString(searcher.count(query)));
+    }
+    return hits;
+  }
+
+  private static long[] search(ShardedSearcher searcher, int iterations) throws IOException {
+    for (int i = 0; i < iterations / 5; i++) {
+      execute(searcher, i);
+    }
+    long[] latencies = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      execute(searcher, i);
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  private static void execute(ShardedSearcher searcher, int i) {
+    Query query = QUERIES[i % QUERIES.length];
+    try {
+      // alternate relevance and field sorted searches, both are merged across shards
+      if (i % 2 == 0) {
+        searcher.search(query, 10);
+      } else {
+        searcher.search(query, 10, SORT);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // the largest shard relative to an even split
+  private static double skew(ShardedSearcher searcher) {
+    long largest = 0;
+    for (int shard = 0; shard < searcher.getShardCount(); shard++) {
+      largest = Math.max(largest, searcher.getShard(shard).getIndexReader().maxDoc());
+    }
+    return largest * (double) searcher.getShardCount() / searcher.getMaxDoc();
+  }
+}